@@ -22,6 +22,7 @@ public class CampaignsPage {
     private TextField messageBox;
 
     private String currentRoom = null; // New variable to track the current room name
+    private long roomListSequence = -1; // Last room directory version applied, -1 until the first snapshot
 
     private Stage primaryStage;
     private Scene homeScene;
@@ -147,23 +148,33 @@ public class CampaignsPage {
         return new Scene(root);
     }
 
-    private void handleMessage(String message) {
+    private void handleMessage(GameProtocol.Message message) {
         Platform.runLater(() -> {
-            if (message.startsWith("ROOMLIST:")) {
-                updateRoomList(message.substring("ROOMLIST:".length()));
-            } else if (message.startsWith("ERROR:")) {
-                addMessage(message.substring("ERROR:".length()), Color.web("#ff4c4c"));
-            } else if (message.startsWith("SUCCESS:")) {
-                // Update the currentRoom variable when a successful join message is received
-                this.currentRoom = message.substring(message.lastIndexOf(":") + 1);
-                addMessage(message.substring("SUCCESS:".length()), Color.web("#80ff80"));
-            } else {
-                addMessage(message, Color.web("#d3d3d3"));
+            switch (message.opcode()) {
+                case GameProtocol.ROOMLIST -> updateRoomList(message);
+                case GameProtocol.ROOM_ADDED, GameProtocol.ROOM_REMOVED -> applyRoomDelta(message);
+                case GameProtocol.ROOM_BATCH -> applyRoomBatch(message);
+                case GameProtocol.WELCOME, GameProtocol.TOKENS, GameProtocol.TOKEN_SNAPSHOT, GameProtocol.MAP_MANIFEST,
+                        GameProtocol.MAP_WANT, GameProtocol.MAP_CHUNK, GameProtocol.MAP_HAVE,
+                        GameProtocol.FOG, GameProtocol.FOG_VISIBLE, GameProtocol.FOG_UNAVAILABLE -> {
+                    // Session, map and fog traffic, handled by WebSocketService and the map viewer
+                }
+                case GameProtocol.ERROR -> addMessage(message.field(0), Color.web("#ff4c4c"));
+                case GameProtocol.SUCCESS -> {
+                    // Update the currentRoom variable when a successful join message is received
+                    this.currentRoom = message.field(1);
+                    addMessage(message.field(0) + ":" + message.field(1), Color.web("#80ff80"));
+                }
+                default -> addMessage(message.toText(), Color.web("#d3d3d3"));
             }
         });
     }
 
-    private void updateRoomList(String roomListString) {
+    private void updateRoomList(GameProtocol.Message snapshot) {
+        // Snapshot fields: sequence, "room,room,..."
+        roomListSequence = Long.parseLong(snapshot.field(0));
+        String roomListString = snapshot.field(1);
+
         roomList.getItems().clear();
         String[] rooms = roomListString.split(",");
         if (rooms.length == 0 || (rooms.length == 1 && rooms[0].isEmpty())) {
@@ -175,22 +186,75 @@ public class CampaignsPage {
         }
     }
 
+    /**
+     * Applies a single "ROOM_ADDED:sequence:name" or "ROOM_REMOVED:sequence:name" change.
+     */
+    private void applyRoomDelta(GameProtocol.Message message) {
+        long sequence = Long.parseLong(message.field(0));
+        if (!acceptSequence(sequence, 1)) {
+            return;
+        }
+        applyRoomChange(message.opcode() == GameProtocol.ROOM_ADDED, message.field(1));
+    }
+
+    /**
+     * Applies a coalesced "ROOM_BATCH:firstSequence:+added:-removed..." message;
+     * each entry takes the next sequence number.
+     */
+    private void applyRoomBatch(GameProtocol.Message message) {
+        long firstSequence = Long.parseLong(message.field(0));
+        if (!acceptSequence(firstSequence, message.fieldCount() - 1)) {
+            return;
+        }
+        for (int i = 1; i < message.fieldCount(); i++) {
+            String change = message.field(i);
+            applyRoomChange(change.charAt(0) == '+', change.substring(1));
+        }
+    }
+
+    /**
+     * Returns true if changes firstSequence..firstSequence + count - 1 follow on from what we have applied.
+     * Already-seen changes are ignored; a gap means we missed one, so ask for a fresh snapshot.
+     */
+    private boolean acceptSequence(long firstSequence, int count) {
+        if (roomListSequence < 0 || firstSequence <= roomListSequence) {
+            return false;
+        }
+        if (firstSequence != roomListSequence + 1) {
+            webSocketService.syncRoomList();
+            return false;
+        }
+        roomListSequence = firstSequence + count - 1;
+        return true;
+    }
+
+    private void applyRoomChange(boolean added, String room) {
+        if (added) {
+            roomList.getItems().remove("No rooms available.");
+            roomList.getItems().add(room);
+        } else {
+            roomList.getItems().remove(room);
+            if (roomList.getItems().isEmpty()) {
+                roomList.getItems().add("No rooms available.");
+            }
+        }
+    }
+
     private void addMessage(String text, Color color) {
         messageLog.getItems().add(text);
         messageLog.scrollTo(messageLog.getItems().size() - 1);
     }
 
-    private void sendMessage(String command, String roomName, String password) {
-        String message = command + ":" + roomName + ":" + password;
-        webSocketService.sendMessage(message);
-        addMessage("Sending: " + message, Color.web("#4c80ff"));
+    private void logSent(String command, String roomName, String password) {
+        addMessage("Sending: " + command + ":" + roomName + ":" + password, Color.web("#4c80ff"));
     }
 
     private void handleCreateRoom() {
         String roomName = roomNameInput.getText().trim();
         String password = passwordInput.getText().trim();
         if (!roomName.isEmpty()) {
-            sendMessage("CREATE", roomName, password);
+            webSocketService.createRoom(roomName, password);
+            logSent("CREATE", roomName, password);
         } else {
             addMessage("Please enter a room name.", Color.web("#ff4c4c"));
         }
@@ -200,7 +264,8 @@ public class CampaignsPage {
         String roomName = roomNameInput.getText().trim();
         String password = passwordInput.getText().trim();
         if (!roomName.isEmpty()) {
-            sendMessage("JOIN", roomName, password);
+            webSocketService.joinRoom(roomName, password);
+            logSent("JOIN", roomName, password);
         } else {
             addMessage("Please enter a room name.", Color.web("#ff4c4c"));
         }
@@ -209,7 +274,8 @@ public class CampaignsPage {
     private void handleLeaveRoom() {
         String roomName = roomNameInput.getText().trim();
         if (!roomName.isEmpty()) {
-            sendMessage("LEAVE", roomName, "");
+            webSocketService.leaveRoom(roomName);
+            logSent("LEAVE", roomName, "");
             addMessage("You have left the room.", Color.web("#ffb366"));
         } else {
             addMessage("No room to leave. Please enter a room name.", Color.web("#ff4c4c"));
@@ -219,8 +285,7 @@ public class CampaignsPage {
     private void handleSendMessage() {
         String message = messageBox.getText().trim();
         if (!message.isEmpty() && this.currentRoom != null) {
-            // The message is now correctly formatted for the server: CHAT:roomName:message
-            webSocketService.sendMessage("CHAT:" + this.currentRoom + ":" + message);
+            webSocketService.chat(this.currentRoom, message);
             addMessage("You: " + message, Color.web("#4c80ff"));
             messageBox.clear();
         } else if (this.currentRoom == null) {
@@ -17,12 +17,12 @@ public class DMPage {
 
     private Stage primaryStage;
     private Scene homeScene;
-    private WebSocketService webSocketService; // Add a field for the WebSocket service
+    private MapTransfer mapTransfer; // Sends maps to the players in the current room
 
-    public DMPage(Stage primaryStage, Scene homeScene) { // Add WebSocketService to the constructor
+    public DMPage(Stage primaryStage, Scene homeScene, MapTransfer mapTransfer) {
         this.primaryStage = primaryStage;
         this.homeScene = homeScene;
-        this.webSocketService = webSocketService; // Initialize the new field
+        this.mapTransfer = mapTransfer;
     }
 
     public Scene createScene() {
@@ -63,7 +63,7 @@ public class DMPage {
 
         // Navigation to MyMapsPage and EncountersPage
         myMapsBtn.setOnAction(e -> {
-            MyMapsPage myMapsPage = new MyMapsPage(primaryStage, createScene(), webSocketService); // Corrected arguments
+            MyMapsPage myMapsPage = new MyMapsPage(primaryStage, createScene(), mapTransfer);
             primaryStage.setScene(myMapsPage.createScene());
         });
 
@@ -2,15 +2,26 @@
 package org.example.dndapp;
 
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.MouseButton;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Comparator;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 /**
  * This class holds all the logic and rendering for a minimal DOOM-style
@@ -18,11 +29,16 @@ import java.util.Comparator;
  */
 public class DoomEngine {
 
+    private static final Logger LOGGER = Logger.getLogger(DoomEngine.class.getName());
+
     // --- GAME ENTITY CLASS (Internal) ---
-    private static class Entity {
+    static class Entity {
         double x, y;
+        double prevX, prevY; // Position at the start of the last tick, for interpolation
         double dirX, dirY;
         String type; // "Bullet", "EnemyBullet", "NormalEnemy", "BigEnemy", "GunEnemy"
+        final boolean enemy; // One of the enemy types, worked out once rather than per check
+        boolean removed; // Dropped from the list at the end of the tick
         double speed;
         double size;
         int health;
@@ -31,9 +47,12 @@ public class DoomEngine {
         Entity(double x, double y, double dirX, double dirY, String type, double speed, double size, int health, double attackTimer) {
             this.x = x;
             this.y = y;
+            this.prevX = x;
+            this.prevY = y;
             this.dirX = dirX;
             this.dirY = dirY;
             this.type = type;
+            this.enemy = type.endsWith("Enemy");
             this.speed = speed;
             this.size = size;
             this.health = health;
@@ -41,6 +60,143 @@ public class DoomEngine {
         }
     }
 
+    /**
+     * A key or mouse input as the simulation applied it, at the start of the given tick
+     * (-1 while it waits to be applied). A game's inputs and seed are all it takes to replay it.
+     */
+    public record Input(long tick, Kind kind, KeyCode key) {
+        public enum Kind { KEY_PRESSED, KEY_RELEASED, FIRE }
+    }
+
+    // What render() draws: the game part way between its last two ticks, copied out under the
+    // lock so that the simulation can carry on while the frame is drawn
+    private static class View {
+        double posX, posY, dirX, dirY, planeX, planeY;
+        final List<Entity> sprites = new ArrayList<>(); // Far to near
+        int health, armor, clipAmmo, totalAmmo, selectedWeapon;
+        boolean isFiring, isReloading;
+        double fireTimer, reloadTimer;
+    }
+
+    // How frames are drawn
+    private enum RenderMode {
+        CANVAS("canvas"), PIXELS("pixels"), PARALLEL_PIXELS("parallel pixels");
+
+        final String label;
+
+        RenderMode(String label) {
+            this.label = label;
+        }
+    }
+
+    // What a ray cast from the player hit; one per thread casting rays
+    private static class RayHit {
+        double distance; // Perpendicular to the camera plane, so walls don't bulge
+        int wallType;
+        int side; // 0 for walls facing east or west, 1 for north or south
+        int texX;
+    }
+
+    // Columns fromX (inclusive) to toX (exclusive) of the frame, which is all one strip draws to
+    private static class FrameStrip {
+        final int[] frame;
+        final double[] depth; // Distance to the wall in each column
+        final int width, height;
+        final int fromX, toX;
+
+        FrameStrip(int[] frame, double[] depth, int width, int height, int fromX, int toX) {
+            this.frame = frame;
+            this.depth = depth;
+            this.width = width;
+            this.height = height;
+            this.fromX = fromX;
+            this.toX = toX;
+        }
+
+        // Fills the part of a rectangle at the given distance that is nearer than the walls behind it
+        void fillRect(double distance, int x, int y, int w, int h, int color) {
+            int top = Math.max(0, y);
+            int bottom = Math.min(height, y + h);
+            for (int column = Math.max(fromX, x); column < Math.min(toX, x + w); column++) {
+                if (distance >= depth[column]) continue;
+                for (int row = top; row < bottom; row++) {
+                    frame[row * width + column] = color;
+                }
+            }
+        }
+
+        void fillDisc(double distance, int centerX, int centerY, int radius, int color) {
+            for (int dx = -radius; dx <= radius; dx++) {
+                int half = (int) Math.sqrt(radius * radius - dx * dx);
+                fillRect(distance, centerX + dx, centerY - half, 1, 2 * half + 1, color);
+            }
+        }
+    }
+
+    // Entities bucketed by the map cell they stand in, rebuilt every tick, so that a collision
+    // check only looks at the cells around a point rather than at every entity. A cell is wider
+    // than any two entities' sizes put together, so the 3x3 cells around a point hold everything
+    // that can touch it.
+    static class CellGrid {
+        private final int width, height;
+        private final int[] heads; // Index of the last entity added to each cell, or -1
+        private int[] next = new int[64]; // The entity added to the same cell before this one, or -1
+        private Entity[] items = new Entity[64];
+        private int count;
+
+        CellGrid(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.heads = new int[width * height];
+            Arrays.fill(heads, -1);
+        }
+
+        void clear() {
+            Arrays.fill(heads, -1);
+            Arrays.fill(items, 0, count, null);
+            count = 0;
+        }
+
+        void add(Entity entity) {
+            if (count == items.length) {
+                items = Arrays.copyOf(items, count * 2);
+                next = Arrays.copyOf(next, count * 2);
+            }
+            int cell = cellY(entity.y) * width + cellX(entity.x);
+            items[count] = entity;
+            next[count] = heads[cell];
+            heads[cell] = count++;
+        }
+
+        // An entity not yet removed whose size overlaps a circle of the given radius, or null
+        Entity findTouching(double x, double y, double radius) {
+            int cx = cellX(x);
+            int cy = cellY(y);
+            for (int gy = Math.max(0, cy - 1); gy <= Math.min(height - 1, cy + 1); gy++) {
+                for (int gx = Math.max(0, cx - 1); gx <= Math.min(width - 1, cx + 1); gx++) {
+                    for (int i = heads[gy * width + gx]; i >= 0; i = next[i]) {
+                        Entity other = items[i];
+                        double dx = x - other.x;
+                        double dy = y - other.y;
+                        double reach = radius + other.size;
+                        if (!other.removed && dx * dx + dy * dy < reach * reach) {
+                            return other;
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+
+        private int cellX(double x) {
+            return Math.clamp((int) x, 0, width - 1);
+        }
+
+        private int cellY(double y) {
+            return Math.clamp((int) y, 0, height - 1);
+        }
+    }
+
     private final List<Entity> entities = new ArrayList<>();
     // Entities created during the update loop are added here first to prevent ConcurrentModificationException.
     private final List<Entity> entitiesToAdd = new ArrayList<>();
@@ -60,15 +216,34 @@ public class DoomEngine {
     };
     private final int mapWidth = map[0].length;
     private final int mapHeight = map.length;
+    private final CellGrid enemyGrid = new CellGrid(mapWidth, mapHeight);
 
     // --- PLAYER PROPERTIES ---
     private double posX = 1.5, posY = 1.5;
     private double dirX = -1.0, dirY = 0.0;
     private double planeX = 0.0, planeY = 0.66;
+    private double prevPosX, prevPosY, prevDirX, prevDirY, prevPlaneX, prevPlaneY;
     private final double collisionRadius = 0.2;
     private final double WALL_HEIGHT = 1.0;
     private final int textureSize = 64;
 
+    // --- RENDERING ---
+    private static final Color FLOOR_COLOR = Color.web("#8b4513");
+    private static final Color CEILING_COLOR = Color.web("#00008b");
+    private static final Color BRICK_COLOR = Color.web("#800000");
+    private static final Color STONE_COLOR = Color.web("#4682b4");
+    // The floor and ceiling again as ARGB, for the pixel buffer
+    private static final int FLOOR_ARGB = 0xFF8B4513;
+    private static final int CEILING_ARGB = 0xFF00008B;
+    private final int[][] wallTextures = buildWallTextures(textureSize);
+    // Columns per strip when rendering in parallel; enough strips even at 640 wide to share out
+    private static final int STRIP_WIDTH = 32;
+    private RenderMode renderMode = RenderMode.PARALLEL_PIXELS;
+    private WritableImage frameImage;
+    private int[] frame;
+    // Distance to the wall in each screen column
+    private double[] depth;
+
     // --- WEAPON STATS ---
     private final int MAX_CLIP_HANDGUN = 10;
     private final int MAX_CLIP_SHOTGUN = 2;
@@ -94,6 +269,29 @@ public class DoomEngine {
     private long lastFrameTime = 0;
     private double currentFPS = 0;
 
+    // --- SIMULATION ---
+    // The game advances in fixed ticks whatever the frame rate, so it plays the same on any
+    // machine, bullets can't skip past enemies on a slow frame, and a seed plus the inputs replays it
+    private static final int TICKS_PER_SECOND = 60;
+    private static final double TICK = 1.0 / TICKS_PER_SECOND;
+    private static final long TICK_NANOS = 1_000_000_000L / TICKS_PER_SECOND;
+    // Longest frame caught up on in one go, so a stall doesn't snowball into ever longer frames
+    private static final double MAX_FRAME_TIME = 0.25;
+    // Inputs logged at most; a game replays exactly up to the last one logged
+    private static final int MAX_LOGGED_INPUTS = 100_000;
+    private final long seed;
+    private final Random random;
+    private long tick = 0;
+    // Game time owed to the simulation, under one tick after each update()
+    private double accumulator = 0;
+    private volatile long lastTickNanos;
+    // Inputs wait here for the next tick; applied ones are logged for replay
+    private final Queue<Input> pendingInputs = new ConcurrentLinkedQueue<>();
+    private final List<Input> inputLog = new ArrayList<>();
+    // Set while the simulation runs on its own thread instead of the FX pulse
+    private ScheduledExecutorService simulationThread;
+    private final View view = new View();
+
     // --- INPUT FLAGS ---
     private boolean movingForward = false;
     private boolean movingBackward = false;
@@ -101,11 +299,21 @@ public class DoomEngine {
     private boolean turningRight = false;
 
     public DoomEngine() {
+        this(System.nanoTime());
+    }
+
+    /**
+     * A game whose random events (shotgun spread) all come from the seed.
+     */
+    public DoomEngine(long seed) {
+        this.seed = seed;
+        this.random = new Random(seed);
         clipAmmo = MAX_CLIP_HANDGUN;
     }
 
     /**
-     * Handles all per-frame game logic.
+     * Called every frame: runs as many fixed ticks as the time since the last frame covers,
+     * unless the simulation has its own thread.
      */
     public void update(long now) {
         if (lastFrameTime == 0) {
@@ -117,14 +325,167 @@ public class DoomEngine {
         lastFrameTime = now;
         currentFPS = 1.0 / deltaTime;
 
-        handleMovement(deltaTime);
-        handleReloading(deltaTime);
-        handleFiring(deltaTime);
-        updateEntities(deltaTime);
+        if (simulationThread != null) return;
+        accumulator += Math.min(deltaTime, MAX_FRAME_TIME);
+        while (accumulator >= TICK) {
+            tick();
+            accumulator -= TICK;
+        }
+    }
+
+    /**
+     * Moves the simulation onto a thread of its own, ticking at a steady rate however long
+     * frames take to draw, or back onto the FX pulse. T toggles it in game.
+     */
+    public synchronized void setSimulationThread(boolean enabled) {
+        if (enabled == (simulationThread != null)) return;
+        if (enabled) {
+            simulationThread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "doom-simulation");
+                thread.setDaemon(true);
+                return thread;
+            });
+            simulationThread.scheduleAtFixedRate(this::tickOnSimulationThread, TICK_NANOS, TICK_NANOS, TimeUnit.NANOSECONDS);
+        } else {
+            simulationThread.shutdown();
+            simulationThread = null;
+        }
+        accumulator = 0;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Stops the game's simulation thread, if it has one. Call when the game's view goes away.
+     */
+    public void stop() {
+        setSimulationThread(false);
+    }
+
+    /**
+     * Every input applied so far, in order, up to MAX_LOGGED_INPUTS of them.
+     */
+    public synchronized List<Input> getInputLog() {
+        return new ArrayList<>(inputLog);
+    }
+
+    /**
+     * Plays a new game from the seed through the given inputs for the given number of ticks,
+     * without drawing anything. It ends in the state the recorded game was in after as many ticks.
+     */
+    public static DoomEngine replay(long seed, List<Input> inputs, long ticks) {
+        DoomEngine engine = new DoomEngine(seed);
+        int next = 0;
+        for (long t = 0; t < ticks; t++) {
+            while (next < inputs.size() && inputs.get(next).tick() <= t) {
+                engine.pendingInputs.add(inputs.get(next++));
+            }
+            engine.tick();
+        }
+        return engine;
+    }
+
+    synchronized long getTick() {
+        return tick;
+    }
+
+    /**
+     * The player, their weapon and every entity as text, for checking that a replay ends where
+     * the recorded game did.
+     */
+    synchronized String describeState() {
+        StringBuilder state = new StringBuilder();
+        state.append(tick).append(' ').append(posX).append(',').append(posY)
+                .append(' ').append(dirX).append(',').append(dirY).append(' ').append(planeX).append(',').append(planeY)
+                .append(" hp ").append(health).append(" armor ").append(armor)
+                .append(" weapon ").append(selectedWeapon).append(" ammo ").append(clipAmmo).append('/').append(totalAmmo);
+        for (Entity entity : entities) {
+            state.append('\n').append(entity.type).append(' ').append(entity.x).append(',').append(entity.y)
+                    .append(" hp ").append(entity.health);
+        }
+        return state.toString();
+    }
+
+    // An exception would cancel the scheduled task and freeze the game, so log it and keep ticking
+    private void tickOnSimulationThread() {
+        try {
+            tick();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Error in doom simulation tick " + tick, e);
+        }
+    }
+
+    /**
+     * Advances the game by one TICK. Synchronized with captureView(), as it may run on the
+     * simulation thread.
+     */
+    private synchronized void tick() {
+        Input input;
+        while ((input = pendingInputs.poll()) != null) {
+            applyInput(input);
+            if (inputLog.size() < MAX_LOGGED_INPUTS) {
+                inputLog.add(new Input(tick, input.kind(), input.key()));
+            }
+        }
+
+        prevPosX = posX;
+        prevPosY = posY;
+        prevDirX = dirX;
+        prevDirY = dirY;
+        prevPlaneX = planeX;
+        prevPlaneY = planeY;
+        for (Entity entity : entities) {
+            entity.prevX = entity.x;
+            entity.prevY = entity.y;
+        }
+
+        handleMovement(TICK);
+        handleReloading(TICK);
+        handleFiring(TICK);
+        updateEntities(TICK);
 
         // Armor logic fix: no more cycling
         if (health < 0) health = 0;
         if (armor < 0) armor = 0;
+
+        tick++;
+        lastTickNanos = System.nanoTime();
+    }
+
+    /**
+     * Copies what the next frame shows into view, between the last two ticks by how far the
+     * game has got towards the next one.
+     */
+    private synchronized void captureView() {
+        double alpha = simulationThread == null
+                ? accumulator / TICK
+                : Math.min(1.0, (double) (System.nanoTime() - lastTickNanos) / TICK_NANOS);
+        view.posX = prevPosX + (posX - prevPosX) * alpha;
+        view.posY = prevPosY + (posY - prevPosY) * alpha;
+        view.dirX = prevDirX + (dirX - prevDirX) * alpha;
+        view.dirY = prevDirY + (dirY - prevDirY) * alpha;
+        view.planeX = prevPlaneX + (planeX - prevPlaneX) * alpha;
+        view.planeY = prevPlaneY + (planeY - prevPlaneY) * alpha;
+
+        view.sprites.clear();
+        for (Entity entity : entities) {
+            double x = entity.prevX + (entity.x - entity.prevX) * alpha;
+            double y = entity.prevY + (entity.y - entity.prevY) * alpha;
+            view.sprites.add(new Entity(x, y, 0, 0, entity.type, 0, entity.size, entity.health, 0));
+        }
+        view.sprites.sort(Comparator.comparingDouble(e -> -((view.posX - e.x) * (view.posX - e.x) + (view.posY - e.y) * (view.posY - e.y))));
+
+        view.health = health;
+        view.armor = armor;
+        view.clipAmmo = clipAmmo;
+        view.totalAmmo = totalAmmo;
+        view.selectedWeapon = selectedWeapon;
+        view.isFiring = isFiring;
+        view.isReloading = isReloading;
+        view.fireTimer = fireTimer;
+        view.reloadTimer = reloadTimer;
     }
 
     // --- MOVEMENT AND COLLISION ---
@@ -222,7 +583,7 @@ public class DoomEngine {
             entitiesToAdd.add(new Entity(spawnX, spawnY, dirX, dirY, "Bullet", 8.0, 0.1, 0, 0.0));
         } else if (selectedWeapon == 2) {
             for (int i = 0; i < 5; i++) {
-                double spread = (Math.random() - 0.5) * 0.2;
+                double spread = (random.nextDouble() - 0.5) * 0.2;
                 double newDirX = dirX * Math.cos(spread) - dirY * Math.sin(spread);
                 double newDirY = dirX * Math.sin(spread) + dirY * Math.cos(spread);
                 entitiesToAdd.add(new Entity(spawnX, spawnY, newDirX, newDirY, "Bullet", 10.0, 0.05, 0, 0.0));
@@ -287,18 +648,18 @@ public class DoomEngine {
      * Logic for all entities, ensuring thread-safe additions and removals.
      */
     private void updateEntities(double delta) {
-        Iterator<Entity> mainIter = entities.iterator();
-
-        while (mainIter.hasNext()) {
-            Entity entity = mainIter.next();
-            double distToPlayer = Math.sqrt(Math.pow(posX - entity.x, 2) + Math.pow(posY - entity.y, 2));
+        enemyGrid.clear();
+        for (Entity entity : entities) {
+            if (entity.enemy) enemyGrid.add(entity);
+        }
 
-            if (entity.type.contains("Enemy")) {
+        for (Entity entity : entities) {
+            if (entity.enemy) {
                 // --- ENEMY LOGIC (Movement and State) ---
 
                 double dx = posX - entity.x;
                 double dy = posY - entity.y;
-                double dist = distToPlayer;
+                double dist = Math.sqrt(dx * dx + dy * dy);
 
                 boolean shouldMove = true;
                 boolean shouldAttack = false;
@@ -359,7 +720,7 @@ public class DoomEngine {
 
                 // Health Check
                 if (entity.health <= 0) {
-                    mainIter.remove();
+                    entity.removed = true;
                 }
 
             } else if (entity.type.equals("Bullet")) {
@@ -369,27 +730,16 @@ public class DoomEngine {
                 entity.x += entity.dirX * entity.speed * delta;
                 entity.y += entity.dirY * entity.speed * delta;
                 if (map[(int)entity.y][(int)entity.x] != 0) {
-                    mainIter.remove();
+                    entity.removed = true;
                     continue;
                 }
 
-                // 2. Enemy Collision Check
-                boolean removed = false;
-                for (Entity target : entities) {
-                    if (target.type.contains("Enemy")) {
-                        double dx = entity.x - target.x;
-                        double dy = entity.y - target.y;
-                        double dist = Math.sqrt(dx * dx + dy * dy);
-
-                        if (dist < entity.size + target.size) {
-                            target.health -= 1;
-                            mainIter.remove();
-                            removed = true;
-                            break;
-                        }
-                    }
+                // 2. Enemy Collision Check, against the enemies in the cells around the bullet
+                Entity target = enemyGrid.findTouching(entity.x, entity.y, entity.size);
+                if (target != null) {
+                    target.health -= 1;
+                    entity.removed = true;
                 }
-                if (removed) continue;
 
             } else if (entity.type.equals("EnemyBullet")) {
                 // --- ENEMY BULLET LOGIC ---
@@ -398,22 +748,24 @@ public class DoomEngine {
                 entity.x += entity.dirX * entity.speed * delta;
                 entity.y += entity.dirY * entity.speed * delta;
                 if (map[(int)entity.y][(int)entity.x] != 0) {
-                    mainIter.remove();
+                    entity.removed = true;
                     continue;
                 }
 
                 // 2. Player Collision Check
                 double dx = entity.x - posX;
                 double dy = entity.y - posY;
-                double dist = Math.sqrt(dx * dx + dy * dy);
+                double reach = entity.size + collisionRadius;
 
-                if (dist < entity.size + collisionRadius) {
+                if (dx * dx + dy * dy < reach * reach) {
                     applyDamage(5);
-                    mainIter.remove();
+                    entity.removed = true;
                 }
             }
         }
 
+        entities.removeIf(entity -> entity.removed);
+
         // Safely add any new entities created during this update frame
         if (!entitiesToAdd.isEmpty()) {
             entities.addAll(entitiesToAdd);
@@ -421,65 +773,59 @@ public class DoomEngine {
         }
     }
 
-    // --- RENDERING (Unchanged) ---
+    // --- RENDERING ---
+
+    /**
+     * Draws a frame with the current backend: the pixel buffer, filled in parallel strips by
+     * default, or one canvas command per wall column. P cycles through them.
+     */
     public void render(GraphicsContext gc, double width, double height) {
+        captureView();
+        switch (renderMode) {
+            case CANVAS -> renderCanvas(gc, width, height);
+            case PIXELS -> renderPixels(gc, (int) width, (int) height, false);
+            case PARALLEL_PIXELS -> renderPixels(gc, (int) width, (int) height, true);
+        }
+        drawMuzzleFlash(gc, width, height);
+
+        // Draw Weapon Sprite (Foreground)
+        drawWeapon(gc, width, height);
+
+        // Draw HUD (Overlay)
+        drawHUD(gc, width, height);
+
+        // Display FPS (Debug Info)
+        gc.setFill(Color.web("#ffffff"));
+        gc.setFont(Font.font("Consolas", 12));
+        gc.fillText(String.format("FPS: %.1f (%s)", currentFPS, renderMode.label), 10, 20);
+    }
+
+    private void renderCanvas(GraphicsContext gc, double width, double height) {
         // 1. Draw Floor/Ceiling
-        gc.setFill(Color.web("#8b4513"));
+        gc.setFill(FLOOR_COLOR);
         gc.fillRect(0, height / 2, width, height / 2);
-        gc.setFill(Color.web("#00008b"));
+        gc.setFill(CEILING_COLOR);
         gc.fillRect(0, 0, width, height / 2);
 
         // 2. Raycasting Loop (Wall Rendering)
+        RayHit hit = new RayHit();
         for (int x = 0; x < width; x++) {
-            double cameraX = 2 * x / width - 1;
-            double rayDirX = dirX + planeX * cameraX;
-            double rayDirY = dirY + planeY * cameraX;
-
-            int mapX = (int)posX;
-            int mapY = (int)posY;
-
-            double sideDistX, sideDistY, perpWallDist;
-            double deltaDistX = (rayDirX == 0) ? 1e30 : Math.abs(1 / rayDirX);
-            double deltaDistY = (rayDirY == 0) ? 1e30 : Math.abs(1 / rayDirY);
-            int stepX, stepY;
-            boolean hit = false;
-            int side = 0;
-
-            if (rayDirX < 0) { stepX = -1; sideDistX = (posX - mapX) * deltaDistX; } else { stepX = 1; sideDistX = (mapX + 1.0 - posX) * deltaDistX; }
-            if (rayDirY < 0) { stepY = -1; sideDistY = (posY - mapY) * deltaDistY; } else { stepY = 1; sideDistY = (mapY + 1.0 - posY) * deltaDistY; }
-
-            while (!hit) {
-                if (sideDistX < sideDistY) { sideDistX += deltaDistX; mapX += stepX; side = 0; } else { sideDistY += deltaDistY; mapY += stepY; side = 1; }
-                if (map[mapY][mapX] > 0) hit = true;
-            }
-
-            if (side == 0) { perpWallDist = (mapX - posX + (1 - stepX) / 2) / rayDirX; } else { perpWallDist = (mapY - posY + (1 - stepY) / 2) / rayDirY; }
+            castRay(2 * x / width - 1, hit);
 
-            int lineHeight = (int) (height / perpWallDist * WALL_HEIGHT);
+            int lineHeight = (int) (height / hit.distance * WALL_HEIGHT);
             int drawStart = (int)(-lineHeight / 2 + height / 2);
             int drawEnd = (int)(lineHeight / 2 + height / 2);
             if (drawStart < 0) drawStart = 0;
             if (drawEnd >= height) drawEnd = (int)height - 1;
 
-            Color wallColor;
-            switch (map[mapY][mapX]) {
-                case 1: wallColor = Color.web("#800000"); break;
-                default: wallColor = Color.web("#4682b4"); break;
-            }
-
-            if (side == 1) { wallColor = wallColor.darker().darker(); }
-
-            double wallX = (side == 0) ? posY + perpWallDist * rayDirY : posX + perpWallDist * rayDirX;
-            wallX -= Math.floor(wallX);
-            int texX = (int)(wallX * textureSize);
-            if(side == 0 && rayDirX > 0) texX = textureSize - texX - 1;
-            if(side == 1 && rayDirY < 0) texX = textureSize - texX - 1;
+            Color wallColor = hit.wallType == 1 ? BRICK_COLOR : STONE_COLOR;
+            if (hit.side == 1) { wallColor = wallColor.darker().darker(); }
 
             gc.setStroke(wallColor);
             gc.setLineWidth(1);
             gc.strokeLine(x + 0.5, drawStart, x + 0.5, drawEnd);
 
-            if (texX % 8 == 0) {
+            if (hit.texX % 8 == 0) {
                 gc.setStroke(wallColor.brighter());
                 gc.strokeLine(x + 0.5, drawStart, x + 0.5, drawEnd);
             }
@@ -487,31 +833,205 @@ public class DoomEngine {
 
         // 3. Render Entity Sprites
         renderEntities(gc, width, height);
+    }
 
-        // 4. Draw Weapon Sprite (Foreground)
-        drawWeapon(gc, width, height);
+    /**
+     * Casts one ray by DDA through the map grid, cameraX running from -1 at the left of the
+     * screen to 1 at the right, and stores what it hit.
+     */
+    private void castRay(double cameraX, RayHit hit) {
+        double rayDirX = view.dirX + view.planeX * cameraX;
+        double rayDirY = view.dirY + view.planeY * cameraX;
+
+        int mapX = (int)view.posX;
+        int mapY = (int)view.posY;
+
+        double sideDistX, sideDistY, perpWallDist;
+        double deltaDistX = (rayDirX == 0) ? 1e30 : Math.abs(1 / rayDirX);
+        double deltaDistY = (rayDirY == 0) ? 1e30 : Math.abs(1 / rayDirY);
+        int stepX, stepY;
+        boolean hitWall = false;
+        int side = 0;
+
+        if (rayDirX < 0) { stepX = -1; sideDistX = (view.posX - mapX) * deltaDistX; } else { stepX = 1; sideDistX = (mapX + 1.0 - view.posX) * deltaDistX; }
+        if (rayDirY < 0) { stepY = -1; sideDistY = (view.posY - mapY) * deltaDistY; } else { stepY = 1; sideDistY = (mapY + 1.0 - view.posY) * deltaDistY; }
+
+        while (!hitWall) {
+            if (sideDistX < sideDistY) { sideDistX += deltaDistX; mapX += stepX; side = 0; } else { sideDistY += deltaDistY; mapY += stepY; side = 1; }
+            if (map[mapY][mapX] > 0) hitWall = true;
+        }
 
-        // 5. Draw HUD (Overlay)
-        drawHUD(gc, width, height);
+        if (side == 0) { perpWallDist = (mapX - view.posX + (1 - stepX) / 2) / rayDirX; } else { perpWallDist = (mapY - view.posY + (1 - stepY) / 2) / rayDirY; }
 
-        // 6. Display FPS (Debug Info)
-        gc.setFill(Color.web("#ffffff"));
-        gc.setFont(Font.font("Consolas", 12));
-        gc.fillText(String.format("FPS: %.1f", currentFPS), 10, 20);
+        double wallX = (side == 0) ? view.posY + perpWallDist * rayDirY : view.posX + perpWallDist * rayDirX;
+        wallX -= Math.floor(wallX);
+        int texX = (int)(wallX * textureSize);
+        if(side == 0 && rayDirX > 0) texX = textureSize - texX - 1;
+        if(side == 1 && rayDirY < 0) texX = textureSize - texX - 1;
+
+        hit.distance = perpWallDist;
+        hit.wallType = map[mapY][mapX];
+        hit.side = side;
+        hit.texX = texX;
     }
 
-    private void renderEntities(GraphicsContext gc, double width, double height) {
-        // Sort entities by distance
-        List<Entity> visibleEntities = new ArrayList<>(entities);
-        visibleEntities.sort(Comparator.comparingDouble(e -> -((posX - e.x) * (posX - e.x) + (posY - e.y) * (posY - e.y))));
+    /**
+     * Raycasts into an ARGB frame buffer and hands it to the canvas as a single image, instead
+     * of a canvas command per column. Filling the buffer touches no JavaFX state; only the
+     * final setPixels and drawImage do.
+     *
+     * In parallel, the frame is split into strips of STRIP_WIDTH columns that are drawn on the
+     * fork-join pool, walls and then sprites, each strip writing only its own columns. The strips
+     * read only the view snapshot captureView() took and the fixed map, so the simulation may
+     * keep ticking on its own thread while they draw.
+     */
+    private void renderPixels(GraphicsContext gc, int width, int height, boolean parallel) {
+        if (width <= 0 || height <= 0) return;
+        if (frameImage == null || (int) frameImage.getWidth() != width || (int) frameImage.getHeight() != height) {
+            frameImage = new WritableImage(width, height);
+            frame = new int[width * height];
+            depth = new double[width];
+        }
+        int stripWidth = parallel ? STRIP_WIDTH : width;
+        IntStream strips = IntStream.range(0, (width + stripWidth - 1) / stripWidth);
+        (parallel ? strips.parallel() : strips).forEach(i -> {
+            FrameStrip strip = new FrameStrip(frame, depth, width, height, i * stripWidth, Math.min(width, (i + 1) * stripWidth));
+            drawWalls(strip);
+            drawSprites(strip);
+        });
+        frameImage.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbPreInstance(), frame, 0, width);
+        gc.drawImage(frameImage, 0, 0);
+    }
+
+    /**
+     * Ceiling, textured walls and floor for the strip's columns. Rays are cast first; the strip is
+     * then filled a row at a time, so writes run along memory instead of jumping a row per pixel.
+     * Each column's wall distance goes into depth, so sprites can be hidden behind walls.
+     */
+    private void drawWalls(FrameStrip strip) {
+        int columns = strip.toX - strip.fromX;
+        int horizon = strip.height / 2;
+        int[] drawStarts = new int[columns];
+        int[] drawEnds = new int[columns];
+        double[] steps = new double[columns];
+        double[] firstTexYs = new double[columns];
+        int[][] textures = new int[columns][];
+        int[] texOffsets = new int[columns];
+        RayHit hit = new RayHit();
+        for (int i = 0; i < columns; i++) {
+            castRay(2.0 * (strip.fromX + i) / strip.width - 1, hit);
+            strip.depth[strip.fromX + i] = hit.distance;
+
+            int lineHeight = Math.max(1, (int) (strip.height / hit.distance * WALL_HEIGHT));
+            drawStarts[i] = Math.max(0, -lineHeight / 2 + horizon);
+            drawEnds[i] = Math.min(strip.height - 1, lineHeight / 2 + horizon);
+            textures[i] = wallTextures[textureIndex(hit.wallType, hit.side)];
+            texOffsets[i] = hit.texX * textureSize;
+            // Texels per screen row; a wall taller than the screen starts part way down its texture
+            steps[i] = (double) textureSize / lineHeight;
+            firstTexYs[i] = (drawStarts[i] - horizon + lineHeight / 2) * steps[i];
+        }
+
+        for (int y = 0; y < strip.height; y++) {
+            int at = y * strip.width + strip.fromX;
+            for (int i = 0; i < columns; i++, at++) {
+                if (y < drawStarts[i]) {
+                    strip.frame[at] = CEILING_ARGB;
+                } else if (y > drawEnds[i]) {
+                    strip.frame[at] = FLOOR_ARGB;
+                } else {
+                    int texY = Math.min(textureSize - 1, (int) (firstTexYs[i] + (y - drawStarts[i]) * steps[i]));
+                    strip.frame[at] = textures[i][texOffsets[i] + texY];
+                }
+            }
+        }
+    }
+
+    // The sprites of renderEntities, drawn into the strip and hidden behind nearer walls
+    private void drawSprites(FrameStrip strip) {
+        int width = strip.width;
+        int height = strip.height;
+        double invDet = 1.0 / (view.planeX * view.dirY - view.dirX * view.planeY);
+        for (Entity entity : view.sprites) {
+            double spriteX = entity.x - view.posX;
+            double spriteY = entity.y - view.posY;
+            double transformX = invDet * (view.dirY * spriteX - view.dirX * spriteY);
+            double transformY = invDet * (-view.planeY * spriteX + view.planeX * spriteY);
+
+            if (transformY <= 0.001) continue;
+
+            int spriteScreenX = (int)((width / 2.0) * (1 + transformX / transformY));
+            int spriteHeight = (int)(height / transformY * WALL_HEIGHT);
+            int drawStartScreenY = -spriteHeight / 2 + height / 2;
+
+            if (entity.enemy) {
+                int spriteWidth = (int)(height / transformY * WALL_HEIGHT * entity.size);
+                int drawStartScreenX = spriteScreenX - spriteWidth / 2;
+                int color = switch (entity.type) {
+                    case "BigEnemy" -> 0xFF0000FF;
+                    case "GunEnemy" -> 0xFF008000;
+                    default -> 0xFFFF0000;
+                };
+                strip.fillRect(transformY, drawStartScreenX, drawStartScreenY, spriteWidth, spriteHeight, color);
+
+                // Health Bar
+                double maxHealth = (entity.type.equals("BigEnemy") ? 30.0 : (entity.type.equals("GunEnemy") ? 5.0 : 10.0));
+                int healthBarWidth = (int) Math.min(spriteWidth, spriteWidth * (entity.health / maxHealth));
+                strip.fillRect(transformY, drawStartScreenX, drawStartScreenY - 10, spriteWidth, 5, 0xFF550000);
+                strip.fillRect(transformY, drawStartScreenX, drawStartScreenY - 10, healthBarWidth, 5, 0xFF008000);
+            } else if (entity.type.equals("Bullet")) {
+                strip.fillDisc(transformY, spriteScreenX, drawStartScreenY + spriteHeight / 2, 3, 0xFFFFFF00);
+            } else if (entity.type.equals("EnemyBullet")) {
+                strip.fillDisc(transformY, spriteScreenX, drawStartScreenY + spriteHeight / 2, 4, 0xFFFFA500);
+            }
+        }
+    }
+
+    private static int textureIndex(int wallType, int side) {
+        return (wallType == 1 ? 0 : 2) + side;
+    }
+
+    /**
+     * Wall textures, stored a column at a time since walls are drawn in columns: red brick for
+     * wall type 1 and grooved steel blue panels for the rest, each lit and then shaded for walls
+     * facing north or south, in the order textureIndex expects.
+     */
+    private static int[][] buildWallTextures(int size) {
+        int[] brick = new int[size * size];
+        int[] panel = new int[size * size];
+        int brickHeight = size / 4;
+        int brickWidth = size / 2;
+        for (int texX = 0; texX < size; texX++) {
+            for (int texY = 0; texY < size; texY++) {
+                int course = texY / brickHeight;
+                int shifted = texX + (course % 2) * brickWidth / 2;
+                boolean mortar = texY % brickHeight == 0 || shifted % brickWidth == 0;
+                // Vary each brick's red a little so the wall doesn't look flat
+                int red = 0x80 - 8 * ((course * 7 + shifted / brickWidth * 3) % 4);
+                brick[texX * size + texY] = mortar ? 0xFF5A4A42 : 0xFF000000 | red << 16;
+                panel[texX * size + texY] = texX % 8 == 0 ? 0xFF64BAFF : 0xFF4682B4;
+            }
+        }
+        return new int[][]{brick, shade(brick), panel, shade(panel)};
+    }
+
+    // Half brightness, about what Color.darker().darker() does on the canvas
+    private static int[] shade(int[] texture) {
+        int[] shaded = new int[texture.length];
+        for (int i = 0; i < texture.length; i++) {
+            shaded[i] = 0xFF000000 | (texture[i] >> 1) & 0x7F7F7F;
+        }
+        return shaded;
+    }
 
-        for (Entity entity : visibleEntities) {
-            double spriteX = entity.x - posX;
-            double spriteY = entity.y - posY;
+    private void renderEntities(GraphicsContext gc, double width, double height) {
+        for (Entity entity : view.sprites) {
+            double spriteX = entity.x - view.posX;
+            double spriteY = entity.y - view.posY;
 
-            double invDet = 1.0 / (planeX * dirY - dirX * planeY);
-            double transformX = invDet * (dirY * spriteX - dirX * spriteY);
-            double transformY = invDet * (-planeY * spriteX + planeX * spriteY);
+            double invDet = 1.0 / (view.planeX * view.dirY - view.dirX * view.planeY);
+            double transformX = invDet * (view.dirY * spriteX - view.dirX * spriteY);
+            double transformY = invDet * (-view.planeY * spriteX + view.planeX * spriteY);
 
             if (transformY <= 0.001) continue;
 
@@ -538,7 +1058,7 @@ public class DoomEngine {
             }
 
             // Draw Entity
-            if (entityColor != null && (entity.type.contains("Enemy"))) {
+            if (entityColor != null && entity.enemy) {
                 gc.setFill(entityColor);
                 gc.fillRect(drawStartScreenX, drawStartScreenY, spriteWidth, spriteHeight);
 
@@ -563,8 +1083,11 @@ public class DoomEngine {
             }
         }
 
-        // Muzzle flash after sprites but before weapon overlay
-        if (isFiring && fireTimer < fireDuration / 2) {
+    }
+
+    // Muzzle flash after sprites but before weapon overlay
+    private void drawMuzzleFlash(GraphicsContext gc, double width, double height) {
+        if (view.isFiring && view.fireTimer < fireDuration / 2) {
             gc.setFill(Color.web("#ffcc00", 0.8));
             double flashSize = width * 0.05 + Math.random() * 10;
             gc.fillOval(width / 2 - flashSize / 2, height / 2 - flashSize / 2, flashSize, flashSize);
@@ -573,11 +1096,11 @@ public class DoomEngine {
 
     private void drawWeapon(GraphicsContext gc, double width, double height) {
         double fireOffset = 0;
-        if (isFiring) {
-            double t = fireTimer / fireDuration;
+        if (view.isFiring) {
+            double t = view.fireTimer / fireDuration;
             fireOffset = -20 * Math.sin(t * Math.PI);
-        } else if (isReloading) {
-            fireOffset = 50 * Math.sin(reloadTimer / reloadDuration * Math.PI);
+        } else if (view.isReloading) {
+            fireOffset = 50 * Math.sin(view.reloadTimer / reloadDuration * Math.PI);
         }
 
         double centerX = width / 2;
@@ -587,12 +1110,12 @@ public class DoomEngine {
 
         gc.setFill(Color.web("#444444"));
 
-        if (selectedWeapon == 1) {
+        if (view.selectedWeapon == 1) {
             gc.fillRect(centerX - gunWidth * 0.1, gunBaseY - gunHeight * 0.5, gunWidth * 0.2, gunHeight * 0.5);
             gc.fillRect(centerX - gunWidth * 0.2, gunBaseY - gunHeight * 0.2, gunWidth * 0.4, gunHeight * 0.2);
             gc.setFill(Color.web("#a0a0a0"));
             gc.fillRect(centerX - gunWidth * 0.05, gunBaseY - gunHeight * 0.6, gunWidth * 0.1, gunHeight * 0.1);
-        } else if (selectedWeapon == 2) {
+        } else if (view.selectedWeapon == 2) {
             gc.setFill(Color.web("#696969"));
             gc.fillPolygon(
                     new double[]{centerX - gunWidth * 0.5, centerX + gunWidth * 0.5, centerX + gunWidth * 0.4, centerX - gunWidth * 0.4},
@@ -601,7 +1124,7 @@ public class DoomEngine {
             );
             gc.setFill(Color.web("#a0a0a0"));
             gc.fillRect(centerX - gunWidth * 0.05, gunBaseY - gunHeight * 0.4, gunWidth * 0.1, gunHeight * 0.1);
-        } else if (selectedWeapon == 3) {
+        } else if (view.selectedWeapon == 3) {
             gc.setFill(Color.web("#333333"));
             gc.fillRect(centerX - gunWidth * 0.3, gunBaseY - gunHeight * 0.3, gunWidth * 0.6, gunHeight * 0.15);
             gc.fillRect(centerX + gunWidth * 0.2, gunBaseY - gunHeight * 0.15, gunWidth * 0.1, gunHeight * 0.1);
@@ -625,11 +1148,11 @@ public class DoomEngine {
         // LEFT SIDE: ARMOR and HEALTH
         double leftX = width * 0.05;
         gc.setFill(Color.web("#c0c0c0")); gc.fillText("HEALTH", leftX, hudY + hudHeight * 0.25);
-        gc.setFill(getStatColor(health)); gc.fillText(String.format("%3d", health) + "%", leftX + 10, hudY + hudHeight * 0.7);
+        gc.setFill(getStatColor(view.health)); gc.fillText(String.format("%3d", view.health) + "%", leftX + 10, hudY + hudHeight * 0.7);
 
         double armorX = width * 0.25;
         gc.setFill(Color.web("#c0c0c0")); gc.fillText("ARMOR", armorX, hudY + hudHeight * 0.25);
-        gc.setFill(getStatColor(armor)); gc.fillText(String.format("%3d", armor) + "%", armorX + 10, hudY + hudHeight * 0.7);
+        gc.setFill(getStatColor(view.armor)); gc.fillText(String.format("%3d", view.armor) + "%", armorX + 10, hudY + hudHeight * 0.7);
 
         // CENTER: MUGSHOT / FACE
         double mugshotSize = hudHeight * 0.8;
@@ -642,10 +1165,10 @@ public class DoomEngine {
         gc.setLineWidth(2);
         gc.strokeRect(mugshotX, mugshotY, mugshotSize, mugshotSize);
 
-        Color faceColor = getStatColor(health).desaturate().brighter();
-        if (isFiring) faceColor = Color.web("#ff0000");
-        if (isReloading) faceColor = Color.web("#ffa500");
-        if (health < 25) faceColor = Color.web("#ff0000").darker();
+        Color faceColor = getStatColor(view.health).desaturate().brighter();
+        if (view.isFiring) faceColor = Color.web("#ff0000");
+        if (view.isReloading) faceColor = Color.web("#ffa500");
+        if (view.health < 25) faceColor = Color.web("#ff0000").darker();
 
         gc.setFill(faceColor);
         gc.fillOval(mugshotX + mugshotSize * 0.2, mugshotY + mugshotSize * 0.2, mugshotSize * 0.6, mugshotSize * 0.6);
@@ -659,14 +1182,14 @@ public class DoomEngine {
 
         // CLIP AMMO
         gc.setFill(Color.web("#c0c0c0"));
-        String ammoLabel = isReloading ? "RELOAD" : "CLIP";
+        String ammoLabel = view.isReloading ? "RELOAD" : "CLIP";
         gc.fillText(ammoLabel, rightX, hudY + hudHeight * 0.25);
-        gc.setFill(isReloading ? Color.web("#ff0000") : Color.web("#ffff00"));
-        gc.fillText(String.format("%3d", clipAmmo), rightX + 10, hudY + hudHeight * 0.7);
+        gc.setFill(view.isReloading ? Color.web("#ff0000") : Color.web("#ffff00"));
+        gc.fillText(String.format("%3d", view.clipAmmo), rightX + 10, hudY + hudHeight * 0.7);
 
         // TOTAL AMMO
         gc.setFill(Color.web("#c0c0c0"));
-        gc.fillText("/ " + totalAmmo, rightX + 60, hudY + hudHeight * 0.7);
+        gc.fillText("/ " + view.totalAmmo, rightX + 60, hudY + hudHeight * 0.7);
 
 
         // WEAPON
@@ -675,7 +1198,7 @@ public class DoomEngine {
         gc.fillText("WPN", weaponX, hudY + hudHeight * 0.25);
 
         gc.setFill(Color.web("#00ff00"));
-        gc.fillText(String.valueOf(selectedWeapon), weaponX + 20, hudY + hudHeight * 0.7);
+        gc.fillText(String.valueOf(view.selectedWeapon), weaponX + 20, hudY + hudHeight * 0.7);
     }
 
     // Helper methods
@@ -695,14 +1218,39 @@ public class DoomEngine {
     }
 
     // --- INPUT HANDLING ---
+    // Game inputs are queued for the start of the next tick, so they land on a tick boundary
+    // whichever thread simulates, and can be logged and replayed
 
     public void handleMouseClick(MouseButton button) {
         if (button == MouseButton.PRIMARY) {
-            fireWeapon();
+            pendingInputs.add(new Input(-1, Input.Kind.FIRE, null));
         }
     }
 
     public void handleKeyPress(KeyCode keyCode) {
+        // Renderer and engine switches take effect straight away and are not part of the game
+        if (keyCode == KeyCode.P) {
+            renderMode = RenderMode.values()[(renderMode.ordinal() + 1) % RenderMode.values().length];
+        } else if (keyCode == KeyCode.T) {
+            setSimulationThread(simulationThread == null);
+        } else {
+            pendingInputs.add(new Input(-1, Input.Kind.KEY_PRESSED, keyCode));
+        }
+    }
+
+    public void handleKeyRelease(KeyCode keyCode) {
+        pendingInputs.add(new Input(-1, Input.Kind.KEY_RELEASED, keyCode));
+    }
+
+    private void applyInput(Input input) {
+        switch (input.kind()) {
+            case FIRE -> fireWeapon();
+            case KEY_PRESSED -> pressKey(input.key());
+            case KEY_RELEASED -> releaseKey(input.key());
+        }
+    }
+
+    private void pressKey(KeyCode keyCode) {
         if (keyCode == KeyCode.W || keyCode == KeyCode.UP) {
             movingForward = true;
         } else if (keyCode == KeyCode.S || keyCode == KeyCode.DOWN) {
@@ -731,7 +1279,7 @@ public class DoomEngine {
         }
     }
 
-    public void handleKeyRelease(KeyCode keyCode) {
+    private void releaseKey(KeyCode keyCode) {
         if (keyCode == KeyCode.W || keyCode == KeyCode.UP) {
             movingForward = false;
         } else if (keyCode == KeyCode.S || keyCode == KeyCode.DOWN) {
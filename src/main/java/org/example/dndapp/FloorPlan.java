@@ -0,0 +1,382 @@
+package org.example.dndapp;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Which hexes of a cave or dungeon map are floor, as one bit per hex in row-major order.
+ *
+ * Dungeons are cut by binary space partitioning: the map is split in two until the pieces are
+ * small enough to hold a room each, and the rooms of every pair of halves are joined by an
+ * L-shaped corridor. Caves grow by cellular automaton: random rock is smoothed a few times
+ * towards whatever most of each hex's neighbours are. The outer ring of hexes is always wall.
+ *
+ * Either way a final pass finds the floor's connected regions, with union-find over runs of
+ * floor along each row, fills in pockets too small to matter and tunnels from every other region
+ * to its nearest neighbour until all of the floor is reachable.
+ */
+final class FloorPlan {
+
+    // Dungeon leaves are split until neither side is over MAX_LEAF, and never below MIN_LEAF
+    private static final int MIN_LEAF = 10;
+    private static final int MAX_LEAF = 24;
+    private static final int MIN_ROOM = 4;
+    // Share of hexes a cave starts with as rock, and how many times it is smoothed
+    private static final double CAVE_ROCK = 0.5;
+    private static final int ROCK_THRESHOLD = (int) (CAVE_ROCK * 256);
+    private static final int CAVE_ROUNDS = 4;
+    // Cave regions smaller than this are filled in rather than tunnelled to
+    private static final int MIN_CAVE_REGION = 12;
+
+    private final int colCount;
+    private final int rowCount;
+    private BitSet floor;
+
+    private FloorPlan(int colCount, int rowCount) {
+        this.colCount = colCount;
+        this.rowCount = rowCount;
+        this.floor = new BitSet(colCount * rowCount);
+    }
+
+    static FloorPlan dungeon(Random random, int colCount, int rowCount) {
+        FloorPlan plan = new FloorPlan(colCount, rowCount);
+        if (colCount >= 3 && rowCount >= 3) {
+            plan.split(random, 1, 1, colCount - 2, rowCount - 2);
+        }
+        plan.connectRegions(1);
+        return plan;
+    }
+
+    /**
+     * A cave from the seed alone. Rows are seeded and smoothed independently, in parallel.
+     */
+    static FloorPlan cave(long seed, int colCount, int rowCount) {
+        FloorPlan plan = new FloorPlan(colCount, rowCount);
+        // 1 for rock; the border is rock and stays so
+        byte[] rock = new byte[colCount * rowCount];
+        IntStream.range(0, rowCount).parallel().forEach(y -> {
+            // Split, since consecutive seeds alone give rows that are the same sequence shifted
+            SplittableRandom random = new SplittableRandom(seed + y).split();
+            long bits = 0;
+            for (int x = 0; x < colCount; x++) {
+                // Eight hexes from each random long
+                if ((x & 7) == 0) {
+                    bits = random.nextLong();
+                }
+                boolean border = x == 0 || y == 0 || x == colCount - 1 || y == rowCount - 1;
+                rock[y * colCount + x] = (byte) (border || (bits & 0xFF) < ROCK_THRESHOLD ? 1 : 0);
+                bits >>>= 8;
+            }
+        });
+        byte[] next = rock.clone();
+        byte[] current = rock;
+        for (int round = 0; round < CAVE_ROUNDS; round++) {
+            byte[] from = current;
+            byte[] to = next;
+            IntStream.range(1, rowCount - 1).parallel().forEach(y -> smoothRow(from, to, y, colCount));
+            next = current;
+            current = to;
+        }
+
+        byte[] cells = current;
+        long[] words = new long[(cells.length + 63) / 64];
+        IntStream.range(0, words.length).parallel().forEach(w -> {
+            long word = 0;
+            for (int i = w * 64, end = Math.min(cells.length, i + 64); i < end; i++) {
+                if (cells[i] == 0) {
+                    word |= 1L << (i & 63);
+                }
+            }
+            words[w] = word;
+        });
+        plan.floor = BitSet.valueOf(words);
+        plan.connectRegions(MIN_CAVE_REGION);
+        return plan;
+    }
+
+    boolean isFloor(int x, int y) {
+        return floor.get(y * colCount + x);
+    }
+
+    // A hex becomes rock when most of it and its six neighbours are. Odd columns sit half a hex
+    // lower, so a column's side neighbours are in the rows above for even columns, below for odd.
+    private static void smoothRow(byte[] from, byte[] to, int y, int colCount) {
+        int row = y * colCount;
+        // Odd and even columns alternately, so the loop has no branch on which rows to look at
+        for (int x = 1; x < colCount - 1; x += 2) {
+            smooth(from, to, row + x, colCount, colCount);
+            if (x + 1 < colCount - 1) {
+                smooth(from, to, row + x + 1, colCount, -colCount);
+            }
+        }
+    }
+
+    // Smooths hex i; side is +colCount or -colCount, whichever row holds its other side neighbours
+    private static void smooth(byte[] from, byte[] to, int i, int colCount, int side) {
+        int count = from[i] + from[i - colCount] + from[i + colCount]
+                + from[i - 1] + from[i + 1] + from[i - 1 + side] + from[i + 1 + side];
+        to[i] = (byte) (count >= 4 ? 1 : 0);
+    }
+
+    // --- Dungeon ---
+
+    /**
+     * Splits the area, about evenly along its longer side, until its pieces each take one room,
+     * and joins the two halves. Returns the centre of one of the area's rooms as a hex index.
+     */
+    private int split(Random random, int x, int y, int width, int height) {
+        boolean alongX = width > MAX_LEAF && (width >= height || height <= MAX_LEAF);
+        if (!alongX && height <= MAX_LEAF) {
+            return room(random, x, y, width, height);
+        }
+        int size = alongX ? width : height;
+        int cut = Math.max(MIN_LEAF, Math.min(size - MIN_LEAF, (int) (size * (0.4 + 0.2 * random.nextDouble()))));
+        int first;
+        int second;
+        if (alongX) {
+            first = split(random, x, y, cut, height);
+            second = split(random, x + cut, y, width - cut, height);
+        } else {
+            first = split(random, x, y, width, cut);
+            second = split(random, x, y + cut, width, height - cut);
+        }
+        corridor(random, first, second);
+        return random.nextBoolean() ? first : second;
+    }
+
+    // A room somewhere in the leaf, leaving a hex of wall to the next leaf where it fits
+    private int room(Random random, int x, int y, int width, int height) {
+        int roomWidth = roomSize(random, width);
+        int roomHeight = roomSize(random, height);
+        int roomX = x + offset(random, width - roomWidth);
+        int roomY = y + offset(random, height - roomHeight);
+        for (int row = roomY; row < roomY + roomHeight; row++) {
+            floor.set(row * colCount + roomX, row * colCount + roomX + roomWidth);
+        }
+        return (roomY + roomHeight / 2) * colCount + roomX + roomWidth / 2;
+    }
+
+    private static int roomSize(Random random, int space) {
+        int max = Math.max(1, space - 2);
+        return Math.min(max, MIN_ROOM + random.nextInt(Math.max(1, max - MIN_ROOM + 1)));
+    }
+
+    private static int offset(Random random, int slack) {
+        return slack >= 2 ? 1 + random.nextInt(slack - 1) : slack / 2;
+    }
+
+    // One hex wide, along a row then a column or the other way round. Hexes next to each other
+    // in a row or a column always touch, so the corridor is unbroken.
+    private void corridor(Random random, int from, int to) {
+        int x0 = from % colCount;
+        int y0 = from / colCount;
+        int x1 = to % colCount;
+        int y1 = to / colCount;
+        if (random.nextBoolean()) {
+            carveRow(y0, x0, x1);
+            carveColumn(x1, y0, y1);
+        } else {
+            carveColumn(x0, y0, y1);
+            carveRow(y1, x0, x1);
+        }
+    }
+
+    private void carveRow(int y, int x0, int x1) {
+        floor.set(y * colCount + Math.min(x0, x1), y * colCount + Math.max(x0, x1) + 1);
+    }
+
+    private void carveColumn(int x, int y0, int y1) {
+        for (int y = Math.min(y0, y1); y <= Math.max(y0, y1); y++) {
+            floor.set(y * colCount + x);
+        }
+    }
+
+    // --- Connectivity ---
+
+    /**
+     * Makes all of the floor one region: regions under minSize hexes are filled in (unless none
+     * is that big), and each remaining region is tunnelled to its nearest region not yet joined
+     * to it, until every region is joined.
+     */
+    private void connectRegions(int minSize) {
+        Runs runs = new Runs();
+        int previousFirst = 0;
+        int previousEnd = 0;
+        for (int y = 0; y < rowCount; y++) {
+            int rowStart = y * colCount;
+            int rowEnd = rowStart + colCount;
+            int first = runs.count;
+            for (int i = floor.nextSetBit(rowStart); i >= 0 && i < rowEnd; i = floor.nextSetBit(i)) {
+                int end = Math.min(rowEnd, floor.nextClearBit(i));
+                runs.add(y, i - rowStart, end - rowStart);
+                i = end;
+            }
+            runs.joinRows(previousFirst, previousEnd, first, runs.count);
+            previousFirst = first;
+            previousEnd = runs.count;
+        }
+        if (runs.count == 0) {
+            return;
+        }
+
+        // Size of each region, at its root run
+        int[] sizes = new int[runs.count];
+        int largest = 0;
+        for (int i = 0; i < runs.count; i++) {
+            int root = runs.find(i);
+            sizes[root] += runs.end[i] - runs.start[i];
+            largest = Math.max(largest, sizes[root]);
+        }
+        int keep = Math.min(minSize, largest);
+
+        // Number the kept regions and find the middle run of each, for where tunnels start
+        int[] region = new int[runs.count];
+        Arrays.fill(region, -1);
+        int[] runCounts = new int[runs.count];
+        int regionCount = 0;
+        for (int i = 0; i < runs.count; i++) {
+            int root = runs.find(i);
+            if (sizes[root] < keep) {
+                int rowStart = runs.row[i] * colCount;
+                floor.clear(rowStart + runs.start[i], rowStart + runs.end[i]);
+            } else {
+                if (region[root] < 0) {
+                    region[root] = regionCount++;
+                }
+                runCounts[root]++;
+            }
+        }
+        if (regionCount <= 1) {
+            return;
+        }
+        int[] xs = new int[regionCount];
+        int[] ys = new int[regionCount];
+        int[] seen = new int[runs.count];
+        for (int i = 0; i < runs.count; i++) {
+            int root = runs.find(i);
+            if (region[root] >= 0 && seen[root]++ == runCounts[root] / 2) {
+                xs[region[root]] = (runs.start[i] + runs.end[i] - 1) / 2;
+                ys[region[root]] = runs.row[i];
+            }
+        }
+
+        // Each round joins every group of regions to another, so at least halves their number
+        PointGrid grid = new PointGrid(xs, ys, colCount, rowCount);
+        int[] group = new int[regionCount];
+        for (int i = 0; i < regionCount; i++) {
+            group[i] = i;
+        }
+        int groupCount = regionCount;
+        while (groupCount > 1) {
+            for (int i = 0; i < regionCount && groupCount > 1; i++) {
+                if (group[i] != i) {
+                    continue;
+                }
+                int own = find(group, i);
+                int nearest = grid.nearest(i, other -> find(group, other) != own);
+                int other = find(group, nearest);
+                tunnel(xs[i], ys[i], xs[nearest], ys[nearest]);
+                group[Math.max(own, other)] = Math.min(own, other);
+                groupCount--;
+            }
+        }
+    }
+
+    // A straight tunnel, each step also opening the hexes above, below and to either side,
+    // so that diagonal steps still leave the hexes touching
+    private void tunnel(int x0, int y0, int x1, int y1) {
+        int dx = x1 - x0;
+        int dy = y1 - y0;
+        int steps = Math.max(Math.abs(dx), Math.abs(dy));
+        for (int i = 0; i <= steps; i++) {
+            int x = steps == 0 ? x0 : (int) Math.round(x0 + (double) i * dx / steps);
+            int y = steps == 0 ? y0 : (int) Math.round(y0 + (double) i * dy / steps);
+            floor.set(y * colCount + x);
+            if (x > 1) {
+                floor.set(y * colCount + x - 1);
+            }
+            if (x < colCount - 2) {
+                floor.set(y * colCount + x + 1);
+            }
+            if (y > 1) {
+                floor.set((y - 1) * colCount + x);
+            }
+            if (y < rowCount - 2) {
+                floor.set((y + 1) * colCount + x);
+            }
+        }
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    // Runs of floor, [start, end) columns of a row, with union-find links between touching runs
+    private static final class Runs {
+        int[] row = new int[256];
+        int[] start = new int[256];
+        int[] end = new int[256];
+        int[] parent = new int[256];
+        int count;
+
+        void add(int y, int from, int to) {
+            if (count == row.length) {
+                row = Arrays.copyOf(row, count * 2);
+                start = Arrays.copyOf(start, count * 2);
+                end = Arrays.copyOf(end, count * 2);
+                parent = Arrays.copyOf(parent, count * 2);
+            }
+            row[count] = y;
+            start[count] = from;
+            end[count] = to;
+            parent[count] = count;
+            count++;
+        }
+
+        /**
+         * Links the runs of a row to the runs they touch in the row just above it. A hex touches the one
+         * below it, and in an odd column also the ones below-left and below-right; so an upper
+         * run reaches one column further at an end that is in an odd column.
+         */
+        void joinRows(int upperFirst, int upperEnd, int lowerFirst, int lowerEnd) {
+            int upper = upperFirst;
+            for (int lower = lowerFirst; lower < lowerEnd; lower++) {
+                while (upper < upperEnd && reachEnd(upper) < start[lower]) {
+                    upper++;
+                }
+                for (int i = upper; i < upperEnd && reachStart(i) <= end[lower] - 1; i++) {
+                    union(i, lower);
+                }
+            }
+        }
+
+        private int reachStart(int run) {
+            return start[run] - (start[run] & 1);
+        }
+
+        // Inclusive
+        private int reachEnd(int run) {
+            int last = end[run] - 1;
+            return last + (last & 1);
+        }
+
+        int find(int i) {
+            return FloorPlan.find(parent, i);
+        }
+
+        private void union(int a, int b) {
+            int rootA = find(a);
+            int rootB = find(b);
+            if (rootA != rootB) {
+                parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+            }
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package org.example.dndapp;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fog-of-war state for one hex map: which hexes are visible now and which have ever been seen.
+ *
+ * Both sets are bitsets kept per 64x64 block of the map, one long per block row, and a block
+ * only gets its bits once something in it is seen; a continent-sized map costs memory only for
+ * the area explored. Each update is given the new visible area and returns the hexes that
+ * entered or left it, so a renderer can repaint just those. Cells are addressed by their index
+ * r * colCount + q. Has no JavaFX dependencies, so the server can use it too.
+ *
+ * Sets of cells travel between server and clients in the same block layout: per 64x64 block
+ * that has any, [block:i32][q0:u8][r0:u8][width-1:u8][height-1:u8] and then the bits of that
+ * rectangle within the block, row by row, lowest bit first.
+ */
+public class FogOfWar {
+
+    private static final int BLOCK_SHIFT = 6;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    private final int colCount;
+    private final int rowCount;
+    private final int blockColCount;
+    private final Bits visible;
+    private final Bits revealed;
+    // Marks the new visible area while it is compared with the old one; always left empty
+    private final Bits incoming;
+    private int[] visibleCells = new int[0];
+    private int visibleCount = 0;
+    private final Diff diff = new Diff();
+
+    /**
+     * Hexes whose state changed in the last update. The arrays are reused by the next update.
+     */
+    public static final class Diff {
+        private int[] entered = new int[64];
+        private int enteredCount;
+        private int[] left = new int[64];
+        private int leftCount;
+        private int[] revealed = new int[64];
+        private int revealedCount;
+
+        /** Cells that became visible; the first enteredCount() entries are valid. */
+        public int[] entered() {
+            return entered;
+        }
+
+        public int enteredCount() {
+            return enteredCount;
+        }
+
+        /** Cells that stopped being visible. */
+        public int[] left() {
+            return left;
+        }
+
+        public int leftCount() {
+            return leftCount;
+        }
+
+        /** Cells seen for the first time, a subset of entered. */
+        public int[] revealed() {
+            return revealed;
+        }
+
+        public int revealedCount() {
+            return revealedCount;
+        }
+
+        public boolean isEmpty() {
+            return enteredCount == 0 && leftCount == 0;
+        }
+
+        private void clear() {
+            enteredCount = 0;
+            leftCount = 0;
+            revealedCount = 0;
+        }
+
+        private void addEntered(int cell) {
+            if (enteredCount == entered.length) {
+                entered = Arrays.copyOf(entered, enteredCount * 2);
+            }
+            entered[enteredCount++] = cell;
+        }
+
+        private void addLeft(int cell) {
+            if (leftCount == left.length) {
+                left = Arrays.copyOf(left, leftCount * 2);
+            }
+            left[leftCount++] = cell;
+        }
+
+        private void addRevealed(int cell) {
+            if (revealedCount == revealed.length) {
+                revealed = Arrays.copyOf(revealed, revealedCount * 2);
+            }
+            revealed[revealedCount++] = cell;
+        }
+    }
+
+    public FogOfWar(int colCount, int rowCount) {
+        this.colCount = colCount;
+        this.rowCount = rowCount;
+        this.blockColCount = (colCount + BLOCK_MASK) >> BLOCK_SHIFT;
+        int blockCount = blockColCount * ((rowCount + BLOCK_MASK) >> BLOCK_SHIFT);
+        this.visible = new Bits(blockCount);
+        this.revealed = new Bits(blockCount);
+        this.incoming = new Bits(blockCount);
+    }
+
+    public int getColCount() {
+        return colCount;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public boolean isVisible(int q, int r) {
+        return visible.get(block(q, r), r & BLOCK_MASK, q & BLOCK_MASK);
+    }
+
+    public boolean isRevealed(int q, int r) {
+        return revealed.get(block(q, r), r & BLOCK_MASK, q & BLOCK_MASK);
+    }
+
+    /**
+     * True if nothing in the 64x64 block has ever been seen, so it can be drawn as one fogged area.
+     */
+    public boolean isBlockUnexplored(int blockCol, int blockRow) {
+        return revealed.isEmpty(blockRow * blockColCount + blockCol);
+    }
+
+    /**
+     * Cells visible now; the first visibleCount() entries are valid.
+     */
+    public int[] visibleCells() {
+        return visibleCells;
+    }
+
+    public int visibleCount() {
+        return visibleCount;
+    }
+
+    /**
+     * Makes the hexes within radius steps of (q, r) the visible area.
+     */
+    public Diff reveal(int q, int r, int radius) {
+        int[] cells = new int[Math.max(1, 3 * radius * (radius + 1) + 1)];
+        int[] count = {0};
+        HexGeometry.forEachInRange(q, r, Math.max(0, radius), (hq, hr) -> {
+            if (hq >= 0 && hq < colCount && hr >= 0 && hr < rowCount) {
+                cells[count[0]++] = hr * colCount + hq;
+            }
+        });
+        return setVisible(cells, count[0]);
+    }
+
+    /**
+     * Makes the first count cells of the array the visible area, e.g. the result of a
+     * line-of-sight computation. The array is copied. Work is proportional to the size of the
+     * old and new areas, not of the map.
+     */
+    public Diff setVisible(int[] cells, int count) {
+        diff.clear();
+        for (int i = 0; i < count; i++) {
+            set(incoming, cells[i], true);
+        }
+        // Anything visible before but not marked now has left the visible area
+        for (int i = 0; i < visibleCount; i++) {
+            int cell = visibleCells[i];
+            if (!get(incoming, cell)) {
+                set(visible, cell, false);
+                diff.addLeft(cell);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            int cell = cells[i];
+            if (!get(incoming, cell)) {
+                continue; // Listed twice
+            }
+            set(incoming, cell, false);
+            if (!get(visible, cell)) {
+                set(visible, cell, true);
+                diff.addEntered(cell);
+                if (!get(revealed, cell)) {
+                    set(revealed, cell, true);
+                    diff.addRevealed(cell);
+                }
+            }
+        }
+        visibleCells = Arrays.copyOf(cells, count);
+        visibleCount = count;
+        return diff;
+    }
+
+    /**
+     * Marks cells as seen without making them visible, e.g. exploration shared by other players.
+     * Returns the cells that were newly revealed, in diff.revealed().
+     */
+    public Diff addRevealed(int[] cells, int count) {
+        diff.clear();
+        for (int i = 0; i < count; i++) {
+            if (!get(revealed, cells[i])) {
+                set(revealed, cells[i], true);
+                diff.addRevealed(cells[i]);
+            }
+        }
+        return diff;
+    }
+
+    /**
+     * Every cell seen so far, block by block. Work is proportional to the area explored.
+     */
+    public int[] revealedCells() {
+        int[] cells = new int[64];
+        int count = 0;
+        for (int block = 0; block < revealed.blocks.length; block++) {
+            long[] rows = revealed.blocks[block];
+            if (rows == null) {
+                continue;
+            }
+            int q0 = (block % blockColCount) << BLOCK_SHIFT;
+            int r0 = (block / blockColCount) << BLOCK_SHIFT;
+            for (int row = 0; row < BLOCK_SIZE; row++) {
+                for (long bits = rows[row]; bits != 0; bits &= bits - 1) {
+                    if (count == cells.length) {
+                        cells = Arrays.copyOf(cells, count * 2);
+                    }
+                    cells[count++] = (r0 + row) * colCount + q0 + Long.numberOfTrailingZeros(bits);
+                }
+            }
+        }
+        return Arrays.copyOf(cells, count);
+    }
+
+    /**
+     * Encodes the first count cells of the array as block bitsets, split into pieces of at most
+     * maxLength bytes (at least 520, the size of one full block). Returns no pieces for no cells.
+     */
+    public static List<byte[]> encodeCells(int[] cells, int count, int colCount, int maxLength) {
+        int blockColCount = (colCount + BLOCK_MASK) >> BLOCK_SHIFT;
+        // Sort by block, then by position in the block, so each block's cells are contiguous
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            int q = cells[i] % colCount;
+            int r = cells[i] / colCount;
+            long block = (long) (r >> BLOCK_SHIFT) * blockColCount + (q >> BLOCK_SHIFT);
+            keys[i] = block << 12 | (r & BLOCK_MASK) << BLOCK_SHIFT | (q & BLOCK_MASK);
+        }
+        Arrays.sort(keys);
+
+        List<byte[]> pieces = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int start = 0;
+        while (start < count) {
+            long block = keys[start] >>> 12;
+            int end = start;
+            int minQ = BLOCK_MASK;
+            int maxQ = 0;
+            int minR = BLOCK_MASK;
+            int maxR = 0;
+            while (end < count && keys[end] >>> 12 == block) {
+                int q = (int) keys[end] & BLOCK_MASK;
+                int r = (int) (keys[end] >> BLOCK_SHIFT) & BLOCK_MASK;
+                minQ = Math.min(minQ, q);
+                maxQ = Math.max(maxQ, q);
+                minR = Math.min(minR, r);
+                maxR = Math.max(maxR, r);
+                end++;
+            }
+            int width = maxQ - minQ + 1;
+            byte[] bits = new byte[(width * (maxR - minR + 1) + 7) / 8];
+            for (int i = start; i < end; i++) {
+                int bit = (((int) (keys[i] >> BLOCK_SHIFT) & BLOCK_MASK) - minR) * width + ((int) keys[i] & BLOCK_MASK) - minQ;
+                bits[bit >> 3] |= (byte) (1 << (bit & 7));
+            }
+            if (out.size() > 0 && out.size() + 8 + bits.length > maxLength) {
+                pieces.add(out.toByteArray());
+                out.reset();
+            }
+            out.writeBytes(ByteBuffer.allocate(8).putInt((int) block)
+                    .put((byte) minQ).put((byte) minR).put((byte) (width - 1)).put((byte) (maxR - minR)).array());
+            out.writeBytes(bits);
+            start = end;
+        }
+        if (out.size() > 0) {
+            pieces.add(out.toByteArray());
+        }
+        return pieces;
+    }
+
+    /**
+     * Decodes cells written by encodeCells for a map of the given size.
+     *
+     * @throws IllegalArgumentException if the data is malformed or lists cells off the map
+     */
+    public static int[] decodeCells(byte[] data, int colCount, int rowCount) {
+        int blockColCount = (colCount + BLOCK_MASK) >> BLOCK_SHIFT;
+        ByteBuffer in = ByteBuffer.wrap(data);
+        int[] cells = new int[64];
+        int count = 0;
+        while (in.hasRemaining()) {
+            if (in.remaining() < 8) {
+                throw new IllegalArgumentException("Truncated fog data.");
+            }
+            int block = in.getInt();
+            int q0 = ((block % blockColCount) << BLOCK_SHIFT) + Byte.toUnsignedInt(in.get());
+            int r0 = ((block / blockColCount) << BLOCK_SHIFT) + Byte.toUnsignedInt(in.get());
+            int width = Byte.toUnsignedInt(in.get()) + 1;
+            int height = Byte.toUnsignedInt(in.get()) + 1;
+            byte[] bits = new byte[(width * height + 7) / 8];
+            if (block < 0 || in.remaining() < bits.length) {
+                throw new IllegalArgumentException("Truncated fog data.");
+            }
+            in.get(bits);
+            for (int bit = 0; bit < width * height; bit++) {
+                if ((bits[bit >> 3] & (1 << (bit & 7))) == 0) {
+                    continue;
+                }
+                int q = q0 + bit % width;
+                int r = r0 + bit / width;
+                if (q >= colCount || r >= rowCount) {
+                    throw new IllegalArgumentException("Fog data does not fit the map.");
+                }
+                if (count == cells.length) {
+                    cells = Arrays.copyOf(cells, count * 2);
+                }
+                cells[count++] = r * colCount + q;
+            }
+        }
+        return Arrays.copyOf(cells, count);
+    }
+
+    private int block(int q, int r) {
+        return (r >> BLOCK_SHIFT) * blockColCount + (q >> BLOCK_SHIFT);
+    }
+
+    private boolean get(Bits bits, int cell) {
+        int q = cell % colCount;
+        int r = cell / colCount;
+        return bits.get(block(q, r), r & BLOCK_MASK, q & BLOCK_MASK);
+    }
+
+    private void set(Bits bits, int cell, boolean value) {
+        int q = cell % colCount;
+        int r = cell / colCount;
+        bits.set(block(q, r), r & BLOCK_MASK, q & BLOCK_MASK, value);
+    }
+
+    // One bit per hex, in 64x64 blocks of 64 longs (one per row) allocated on first set
+    private static final class Bits {
+        private final long[][] blocks;
+
+        Bits(int blockCount) {
+            blocks = new long[blockCount][];
+        }
+
+        boolean get(int block, int row, int col) {
+            long[] rows = blocks[block];
+            return rows != null && (rows[row] & (1L << col)) != 0;
+        }
+
+        void set(int block, int row, int col, boolean value) {
+            long[] rows = blocks[block];
+            if (rows == null) {
+                if (!value) {
+                    return;
+                }
+                rows = new long[BLOCK_SIZE];
+                blocks[block] = rows;
+            }
+            if (value) {
+                rows[row] |= 1L << col;
+            } else {
+                rows[row] &= ~(1L << col);
+            }
+        }
+
+        boolean isEmpty(int block) {
+            long[] rows = blocks[block];
+            if (rows != null) {
+                for (long row : rows) {
+                    if (row != 0) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
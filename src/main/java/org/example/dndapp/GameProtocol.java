@@ -0,0 +1,428 @@
+package org.example.dndapp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Wire format shared by GameServer and WebSocketService.
+ *
+ * Binary frames start with a fixed header followed by the payload:
+ * [version:u8][opcode:u8][roomId:i32][payloadLength:i32][payload...]
+ * The payload is a sequence of fields, each a u16 length followed by UTF-8 bytes.
+ *
+ * Every opcode also has a text name, so the old "COMMAND:field:field" text frames
+ * are still understood and remain the fallback for clients that don't speak binary.
+ * Raw byte fields (map chunk data) are carried as-is in binary frames and as Base64 in text.
+ */
+public final class GameProtocol {
+
+    public static final byte VERSION = 1;
+    public static final int HEADER_SIZE = 10;
+    public static final int MAX_FIELD_LENGTH = 0xFFFF;
+
+    // Client -> server
+    public static final byte CREATE = 0x01;
+    public static final byte JOIN = 0x02;
+    public static final byte LEAVE = 0x03;
+    public static final byte CHAT = 0x04;
+    public static final byte MOVE = 0x05;
+    public static final byte ROOMLIST_SYNC = 0x06;
+    public static final byte SIGHT = 0x07;
+
+    // Map transfer, relayed by the server in both directions
+    public static final byte MAP_MANIFEST = 0x10;
+    public static final byte MAP_WANT = 0x11;
+    public static final byte MAP_CHUNK = 0x12;
+    public static final byte MAP_HAVE = 0x13;
+
+    // Server -> client
+    public static final byte SUCCESS = 0x40;
+    public static final byte ERROR = 0x41;
+    public static final byte ROOMLIST = 0x42;
+    public static final byte CHAT_MESSAGE = 0x43;
+    public static final byte PLAYER_JOINED = 0x44;
+    public static final byte PLAYER_LEFT = 0x45;
+    public static final byte ROOM_ADDED = 0x46;
+    public static final byte ROOM_REMOVED = 0x47;
+    public static final byte ROOM_BATCH = 0x48;
+    public static final byte WELCOME = 0x49;
+    public static final byte TOKENS = 0x4A;
+    public static final byte TOKEN_SNAPSHOT = 0x4B;
+    public static final byte FOG = 0x4C;
+    public static final byte FOG_VISIBLE = 0x4D;
+    public static final byte FOG_UNAVAILABLE = 0x4E;
+
+    // Requester id the server uses in MAP_WANT for chunks it wants itself; session ids start at 1
+    public static final String SERVER_REQUESTER = "0";
+
+    private static final byte[][] NO_FIELDS = new byte[0][];
+    // A CHAT_MESSAGE sender is a socket address ("/1.2.3.4:5678", "/[::1]:5678"), colon and all
+    private static final Pattern SENDER_AND_TEXT = Pattern.compile("([^/:]*/(?:\\[[^\\]]*]|[^:\\[]*):\\d+):(.*)", Pattern.DOTALL);
+
+    private GameProtocol() {
+    }
+
+    /**
+     * Returns the text command name for an opcode, or null if the opcode is unknown.
+     */
+    public static String name(byte opcode) {
+        return switch (opcode) {
+            case CREATE -> "CREATE";
+            case JOIN -> "JOIN";
+            case LEAVE -> "LEAVE";
+            case CHAT -> "CHAT";
+            case MOVE -> "MOVE";
+            case ROOMLIST_SYNC -> "ROOMLIST_SYNC";
+            case SIGHT -> "SIGHT";
+            case MAP_MANIFEST -> "MAP_MANIFEST";
+            case MAP_WANT -> "MAP_WANT";
+            case MAP_CHUNK -> "MAP_CHUNK";
+            case MAP_HAVE -> "MAP_HAVE";
+            case SUCCESS -> "SUCCESS";
+            case ERROR -> "ERROR";
+            case ROOMLIST -> "ROOMLIST";
+            case CHAT_MESSAGE -> "CHAT_MESSAGE";
+            case PLAYER_JOINED -> "PLAYER_JOINED";
+            case PLAYER_LEFT -> "PLAYER_LEFT";
+            case ROOM_ADDED -> "ROOM_ADDED";
+            case ROOM_REMOVED -> "ROOM_REMOVED";
+            case ROOM_BATCH -> "ROOM_BATCH";
+            case WELCOME -> "WELCOME";
+            case TOKENS -> "TOKENS";
+            case TOKEN_SNAPSHOT -> "TOKEN_SNAPSHOT";
+            case FOG -> "FOG";
+            case FOG_VISIBLE -> "FOG_VISIBLE";
+            case FOG_UNAVAILABLE -> "FOG_UNAVAILABLE";
+            default -> null;
+        };
+    }
+
+    /**
+     * Returns the opcode for a text command name, or 0 if the name is unknown.
+     */
+    public static byte opcode(String name) {
+        return switch (name) {
+            case "CREATE" -> CREATE;
+            case "JOIN" -> JOIN;
+            case "LEAVE" -> LEAVE;
+            case "CHAT" -> CHAT;
+            case "MOVE" -> MOVE;
+            case "ROOMLIST_SYNC" -> ROOMLIST_SYNC;
+            case "SIGHT" -> SIGHT;
+            case "MAP_MANIFEST" -> MAP_MANIFEST;
+            case "MAP_WANT" -> MAP_WANT;
+            case "MAP_CHUNK" -> MAP_CHUNK;
+            case "MAP_HAVE" -> MAP_HAVE;
+            case "SUCCESS" -> SUCCESS;
+            case "ERROR" -> ERROR;
+            case "ROOMLIST" -> ROOMLIST;
+            case "CHAT_MESSAGE" -> CHAT_MESSAGE;
+            case "PLAYER_JOINED" -> PLAYER_JOINED;
+            case "PLAYER_LEFT" -> PLAYER_LEFT;
+            case "ROOM_ADDED" -> ROOM_ADDED;
+            case "ROOM_REMOVED" -> ROOM_REMOVED;
+            case "ROOM_BATCH" -> ROOM_BATCH;
+            case "WELCOME" -> WELCOME;
+            case "TOKENS" -> TOKENS;
+            case "TOKEN_SNAPSHOT" -> TOKEN_SNAPSHOT;
+            case "FOG" -> FOG;
+            case "FOG_VISIBLE" -> FOG_VISIBLE;
+            case "FOG_UNAVAILABLE" -> FOG_UNAVAILABLE;
+            default -> 0;
+        };
+    }
+
+    // --- Flyweight readers working directly on an incoming frame ---
+
+    /**
+     * Checks the version byte and that the declared payload fits inside the frame.
+     */
+    public static boolean isValidFrame(ByteBuffer frame) {
+        int start = frame.position();
+        if (frame.remaining() < HEADER_SIZE || frame.get(start) != VERSION) {
+            return false;
+        }
+        int length = frame.getInt(start + 6);
+        return length >= 0 && length <= frame.remaining() - HEADER_SIZE;
+    }
+
+    public static byte opcodeOf(ByteBuffer frame) {
+        return frame.get(frame.position() + 1);
+    }
+
+    public static int roomIdOf(ByteBuffer frame) {
+        return frame.getInt(frame.position() + 2);
+    }
+
+    /**
+     * Returns a view of the payload. Reading fields from it advances its position only.
+     */
+    public static ByteBuffer payloadOf(ByteBuffer frame) {
+        int start = frame.position() + HEADER_SIZE;
+        int length = frame.getInt(frame.position() + 6);
+        return frame.slice(start, length);
+    }
+
+    /**
+     * Returns a view of the next field in the payload and advances past it,
+     * or an empty buffer when the payload has no more (or truncated) fields.
+     */
+    public static ByteBuffer nextField(ByteBuffer payload) {
+        if (payload.remaining() < 2) {
+            return ByteBuffer.allocate(0);
+        }
+        int length = Short.toUnsignedInt(payload.getShort());
+        if (length > payload.remaining()) {
+            payload.position(payload.limit());
+            return ByteBuffer.allocate(0);
+        }
+        ByteBuffer field = payload.slice(payload.position(), length);
+        payload.position(payload.position() + length);
+        return field;
+    }
+
+    public static String readString(ByteBuffer payload) {
+        return asString(nextField(payload));
+    }
+
+    public static String asString(ByteBuffer field) {
+        return StandardCharsets.UTF_8.decode(field).toString();
+    }
+
+    public static byte[] readBytes(ByteBuffer payload) {
+        ByteBuffer field = nextField(payload);
+        byte[] bytes = new byte[field.remaining()];
+        field.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Copies every remaining field out of the payload.
+     */
+    public static byte[][] readFields(ByteBuffer payload) {
+        byte[][] fields = new byte[4][];
+        int count = 0;
+        while (payload.remaining() >= 2) {
+            if (count == fields.length) {
+                fields = Arrays.copyOf(fields, count * 2);
+            }
+            fields[count++] = readBytes(payload);
+        }
+        return Arrays.copyOf(fields, count);
+    }
+
+    /**
+     * True for fields that hold raw bytes rather than UTF-8 text: the data field of MAP_CHUNK
+     * and the cell bitsets of FOG and FOG_VISIBLE, which are always the last one.
+     */
+    public static boolean isRawField(byte opcode, int index, int fieldCount) {
+        return (opcode == MAP_CHUNK || opcode == FOG || opcode == FOG_VISIBLE) && index == fieldCount - 1;
+    }
+
+    /**
+     * Splits the text after "COMMAND:room:" into the fields of a binary message,
+     * decoding the Base64 text of raw fields. A fieldCount of -1 splits on every colon.
+     */
+    public static byte[][] fieldsFromText(byte opcode, String rest, int fieldCount) {
+        String[] parts = rest.split(":", fieldCount);
+        byte[][] fields = new byte[parts.length][];
+        for (int i = 0; i < parts.length; i++) {
+            fields[i] = isRawField(opcode, i, fieldCount) ? Base64.getDecoder().decode(parts[i]) : utf8(parts[i]);
+        }
+        return fields;
+    }
+
+    /**
+     * Number of fields in a message the server sends, or -1 where it varies. A text frame is split
+     * on the first fieldCount - 1 colons only, so its last field may contain colons of its own.
+     */
+    public static int serverFieldCount(byte opcode) {
+        return switch (opcode) {
+            case ERROR, PLAYER_JOINED, PLAYER_LEFT -> 1;
+            case WELCOME, SUCCESS, ROOMLIST, ROOM_ADDED, ROOM_REMOVED, CHAT_MESSAGE, TOKENS, TOKEN_SNAPSHOT,
+                    FOG_UNAVAILABLE, MAP_CHUNK, MAP_HAVE -> 2;
+            case FOG, FOG_VISIBLE, MAP_WANT -> 3;
+            case MAP_MANIFEST -> 4;
+            default -> -1;
+        };
+    }
+
+    public static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The hex SHA-256 that identifies a map or map chunk in MAP_* messages.
+     */
+    public static String contentHash(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Whether a hash from a peer looks like one contentHash made: 64 lowercase hex digits.
+     * Chunks are stored under their hash, so anything else must not get near a file name.
+     */
+    public static boolean isContentHash(String hash) {
+        if (hash.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // --- Outbound messages ---
+
+    /**
+     * Builds a message whose fields are strings.
+     */
+    public static Message message(byte opcode, int roomId, String... fields) {
+        byte[][] encoded = new byte[fields.length][];
+        for (int i = 0; i < fields.length; i++) {
+            encoded[i] = utf8(fields[i]);
+        }
+        return new Message(opcode, roomId, encoded);
+    }
+
+    /**
+     * A protocol message that can be written in either the binary or the text form.
+     */
+    public static final class Message {
+        private final byte opcode;
+        private final int roomId;
+        private final byte[][] fields;
+        // Lazily encoded forms; racing threads may both encode, which is harmless
+        private volatile ByteBuffer binary;
+        private volatile String text;
+
+        public Message(byte opcode, int roomId, byte[]... fields) {
+            this.opcode = opcode;
+            this.roomId = roomId;
+            this.fields = fields == null ? NO_FIELDS : fields;
+            for (byte[] field : this.fields) {
+                if (field.length > MAX_FIELD_LENGTH) {
+                    throw new IllegalArgumentException("Field too long for " + name(opcode) + ": " + field.length + " bytes");
+                }
+            }
+        }
+
+        /**
+         * Decodes a complete binary frame. Returns null if the frame is malformed.
+         */
+        public static Message decode(ByteBuffer frame) {
+            if (!isValidFrame(frame)) {
+                return null;
+            }
+            return new Message(opcodeOf(frame), roomIdOf(frame), readFields(payloadOf(frame)));
+        }
+
+        /**
+         * Parses a text frame sent by the server ("COMMAND:field:field"). Returns null if the
+         * command is unknown or a raw field is not valid Base64. The sender address that starts a
+         * CHAT_MESSAGE is kept whole despite its colon. toText() gives back the frame as it was received.
+         */
+        public static Message fromServerText(String text) {
+            int colon = text.indexOf(':');
+            byte opcode = GameProtocol.opcode(colon < 0 ? text : text.substring(0, colon));
+            if (opcode == 0) {
+                return null;
+            }
+            String rest = colon < 0 ? "" : text.substring(colon + 1);
+            if (opcode == CHAT_MESSAGE) {
+                Matcher chat = SENDER_AND_TEXT.matcher(rest);
+                if (chat.matches()) {
+                    return new Message(opcode, 0, utf8(chat.group(1)), utf8(chat.group(2)));
+                }
+            }
+            try {
+                return new Message(opcode, 0, fieldsFromText(opcode, rest, serverFieldCount(opcode)));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        public byte opcode() {
+            return opcode;
+        }
+
+        public int roomId() {
+            return roomId;
+        }
+
+        public int fieldCount() {
+            return fields.length;
+        }
+
+        public String field(int index) {
+            return new String(fields[index], StandardCharsets.UTF_8);
+        }
+
+        /**
+         * The raw bytes of a field, e.g. MAP_CHUNK data. Not copied, so callers must not modify it.
+         */
+        public byte[] bytes(int index) {
+            return fields[index];
+        }
+
+        /**
+         * Returns the binary frame. It is encoded once and shared: every call hands out
+         * a read-only view of the same bytes, so one message can be fanned out to many sockets.
+         */
+        public ByteBuffer toBinary() {
+            ByteBuffer encoded = binary;
+            if (encoded == null) {
+                int payloadLength = 0;
+                for (byte[] field : fields) {
+                    payloadLength += 2 + field.length;
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payloadLength);
+                buffer.put(VERSION).put(opcode).putInt(roomId).putInt(payloadLength);
+                for (byte[] field : fields) {
+                    buffer.putShort((short) field.length).put(field);
+                }
+                encoded = buffer.flip().asReadOnlyBuffer();
+                binary = encoded;
+            }
+            return encoded.duplicate();
+        }
+
+        /**
+         * Returns the legacy text form, built once per message.
+         */
+        public String toText() {
+            String encoded = text;
+            if (encoded == null) {
+                StringBuilder builder = new StringBuilder(name(opcode));
+                for (int i = 0; i < fields.length; i++) {
+                    builder.append(':');
+                    if (isRawField(opcode, i, fields.length)) {
+                        builder.append(Base64.getEncoder().encodeToString(fields[i]));
+                    } else {
+                        builder.append(new String(fields[i], StandardCharsets.UTF_8));
+                    }
+                }
+                if (fields.length == 0) {
+                    builder.append(':');
+                }
+                encoded = builder.toString();
+                text = encoded;
+            }
+            return encoded;
+        }
+    }
+}
@@ -4,12 +4,27 @@ import org.java_websocket.WebSocket;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.Collections;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 public class GameServer extends WebSocketServer {
@@ -17,45 +32,157 @@ public class GameServer extends WebSocketServer {
     private static final Logger LOGGER = Logger.getLogger(GameServer.class.getName());
     private static final Map<String, Room> ROOMS = new ConcurrentHashMap<>();
     private static final Map<String, WebSocket> SESSIONS = new ConcurrentHashMap<>();
+    private static final Map<Integer, Room> ROOMS_BY_ID = new ConcurrentHashMap<>();
     private static final Map<WebSocket, String> playerRooms = new ConcurrentHashMap<>();
-
-    // Inner class to represent a game room
+    private static final AtomicInteger NEXT_ROOM_ID = new AtomicInteger(1);
+    private static final AtomicInteger NEXT_SESSION_ID = new AtomicInteger(1);
+    private static final RoomDirectory DIRECTORY = new RoomDirectory();
+    private static final long DEFAULT_ROOMLIST_FLUSH_MS = 250;
+    private static final long DEFAULT_TICK_MS = 100;
+    private static final int DEFAULT_MAP_CACHE_MB = 64;
+    private static final int HASHES_PER_REQUEST = 256;
+    // Runs room mailboxes; a virtual thread is started per drain, so idle rooms cost nothing
+    private static final ExecutorService ROOM_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * A game room. Each room owns a mailbox and all commands for it are queued there and run
+     * one at a time, so room state has a single writer and no locks. Different rooms drain
+     * their mailboxes in parallel.
+     */
     private static class Room {
-        String name;
-        String password;
-        Set<WebSocket> players = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        final int id;
+        final String name;
+        final String password;
+        final byte[] passwordBytes;
+        // Only touched from the room's mailbox (or before the room is published)
+        final Set<WebSocket> players = new HashSet<>();
+        final TokenState tokens = new TokenState();
+        final RoomFog fog = new RoomFog();
+        // The player whose map transfer is in progress; MAP_WANT requests are routed to them
+        WebSocket mapSource;
+        // The map last offered to the room, while the server still collects its chunks for sight.
+        // Its chunks are held here until it is assembled, since mapCache may evict them (or keep none).
+        String mapHash;
+        int mapSize;
+        List<String> mapChunkHashes;
+        final Map<String, byte[]> mapChunks = new HashMap<>();
+        final Set<String> missingMapChunks = new HashSet<>();
+        boolean closed;
+        // Set when token state changed since the last tick, so idle rooms are skipped
+        final AtomicBoolean tokensDirty = new AtomicBoolean();
+
+        private final Queue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        Room(int id, String name, String password) {
+            this.id = id;
+            this.name = name;
+            this.password = password;
+            this.passwordBytes = GameProtocol.utf8(password);
+        }
+
+        void submit(Runnable command) {
+            mailbox.add(command);
+            if (draining.compareAndSet(false, true)) {
+                ROOM_EXECUTOR.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            do {
+                Runnable command;
+                while ((command = mailbox.poll()) != null) {
+                    try {
+                        command.run();
+                    } catch (Exception e) {
+                        LOGGER.severe("Error in room '" + name + "': " + e.getMessage());
+                    }
+                }
+                draining.set(false);
+                // A command may have arrived after the last poll but before the flag was cleared
+            } while (!mailbox.isEmpty() && draining.compareAndSet(false, true));
+        }
     }
 
+    // Per-connection state, stored as the WebSocket attachment
+    private static class Session {
+        final int id;
+        final String address;
+        final byte[] addressBytes;
+        // Set once the client sends its first binary frame; replies then use the binary protocol too
+        volatile boolean binary;
+
+        Session(int id, String address) {
+            this.id = id;
+            this.address = address;
+            this.addressBytes = GameProtocol.utf8(address);
+        }
+    }
+
+    // Room-list changes are flushed at most every roomListFlushMillis and rooms tick every tickMillis,
+    // both driven from this scheduler thread
+    private final long roomListFlushMillis;
+    private final long tickMillis;
+    // Map chunks seen by this server, so repeat sends of a map are served without the DM re-uploading
+    private final MapCache mapCache;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "game-server-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     public GameServer(InetSocketAddress address) {
+        this(address, DEFAULT_ROOMLIST_FLUSH_MS, DEFAULT_TICK_MS, DEFAULT_MAP_CACHE_MB * 1024L * 1024L);
+    }
+
+    public GameServer(InetSocketAddress address, long roomListFlushMillis, long tickMillis, long mapCacheBytes) {
         super(address);
+        this.roomListFlushMillis = Math.max(1, roomListFlushMillis);
+        this.tickMillis = Math.max(1, tickMillis);
+        this.mapCache = new MapCache(mapCacheBytes);
     }
 
     // Inside GameServer.java
 
     public static void main(String[] args) {
         // 1. Get port from environment variable (Render sets this), default to 10000.
-        String portStr = System.getenv("PORT");
-        int PORT = 10000;
-
-        if (portStr != null && !portStr.isEmpty()) {
-            try {
-                PORT = Integer.parseInt(portStr);
-            } catch (NumberFormatException e) {
-                LOGGER.severe("Invalid PORT environment variable. Using default " + PORT);
-            }
-        }
+        int PORT = intFromEnv("PORT", 10000);
+        // 2. How often room-list changes are pushed to clients, in milliseconds.
+        int flushMillis = intFromEnv("ROOMLIST_FLUSH_MS", (int) DEFAULT_ROOMLIST_FLUSH_MS);
+        // 3. Length of a room tick (token moves are applied and broadcast once per tick), in milliseconds.
+        int tickMillis = intFromEnv("TICK_MS", (int) DEFAULT_TICK_MS);
+        // 4. Memory the server may use to cache map chunks, in megabytes (0 disables the cache).
+        int mapCacheMb = intFromEnv("MAP_CACHE_MB", DEFAULT_MAP_CACHE_MB);
 
         LOGGER.info("Starting WebSocket server on port: " + PORT);
 
-        WebSocketServer server = new GameServer(new InetSocketAddress(PORT));
+        WebSocketServer server = new GameServer(new InetSocketAddress(PORT), flushMillis, tickMillis, mapCacheMb * 1024L * 1024L);
         server.setReuseAddr(true);
         server.start(); // Changed to start() for non-blocking execution
     }
 
+    private static int intFromEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value != null && !value.isEmpty()) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                LOGGER.severe("Invalid " + name + " environment variable. Using default " + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
     @Override
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
         LOGGER.info("New connection opened: " + conn.getRemoteSocketAddress());
+        Session session = new Session(NEXT_SESSION_ID.getAndIncrement(), conn.getRemoteSocketAddress().toString());
+        conn.setAttachment(session);
         SESSIONS.put(conn.getRemoteSocketAddress().toString(), conn);
+        // Tell the client its session id so it can recognise its own tokens, and that binary frames
+        // of this protocol version are understood; until it sends one, replies stay text
+        sendMessage(conn, GameProtocol.message(GameProtocol.WELCOME, 0, Integer.toString(session.id),
+                Integer.toString(GameProtocol.VERSION)));
         sendRoomList(conn);
     }
 
@@ -69,12 +196,15 @@ public class GameServer extends WebSocketServer {
         if (roomName != null) {
             handleLeaveRoom(conn, roomName);
         }
-        broadcastRoomList();
     }
 
     @Override
     public void onMessage(WebSocket conn, String message) {
-        LOGGER.info("Message received from " + conn.getRemoteSocketAddress() + ": " + message);
+        // Payloads can be whole map chunks, so only the command and size are logged unless FINE is on
+        int colon = message.indexOf(':');
+        LOGGER.info("Message received from " + conn.getRemoteSocketAddress() + ": "
+                + (colon < 0 ? message : message.substring(0, colon)) + " (" + message.length() + " chars)");
+        LOGGER.fine(() -> "Message payload: " + message);
         try {
             String[] parts = message.split(":", 3);
             String command = parts[0];
@@ -86,16 +216,34 @@ public class GameServer extends WebSocketServer {
                     handleCreateRoom(roomName, passwordOrMessage, conn);
                     break;
                 case "JOIN":
-                    handleJoinRoom(roomName, passwordOrMessage, conn);
+                    handleJoinRoom(ROOMS.get(roomName), roomName, ByteBuffer.wrap(GameProtocol.utf8(passwordOrMessage)), conn);
                     break;
                 case "LEAVE":
                     handleLeaveRoom(conn, roomName);
                     break;
                 case "CHAT":
-                    handleChatMessage(conn, roomName, passwordOrMessage);
+                    handleChatMessage(conn, ROOMS.get(roomName), roomName, GameProtocol.utf8(passwordOrMessage));
                     break;
                 case "MOVE":
-                    // Handle movement here
+                    handleMove(conn, ROOMS.get(roomName), passwordOrMessage);
+                    break;
+                case "ROOMLIST_SYNC":
+                    sendRoomList(conn);
+                    break;
+                case "SIGHT":
+                    handleSight(conn, ROOMS.get(roomName), passwordOrMessage);
+                    break;
+                case "MAP_MANIFEST":
+                    handleMapManifest(conn, ROOMS.get(roomName), GameProtocol.fieldsFromText(GameProtocol.MAP_MANIFEST, passwordOrMessage, 4));
+                    break;
+                case "MAP_WANT":
+                    handleMapWant(conn, ROOMS.get(roomName), GameProtocol.fieldsFromText(GameProtocol.MAP_WANT, passwordOrMessage, 2));
+                    break;
+                case "MAP_CHUNK":
+                    handleMapChunk(conn, ROOMS.get(roomName), GameProtocol.fieldsFromText(GameProtocol.MAP_CHUNK, passwordOrMessage, 3));
+                    break;
+                case "MAP_HAVE":
+                    handleMapHave(conn, ROOMS.get(roomName), GameProtocol.utf8(passwordOrMessage));
                     break;
             }
         } catch (Exception e) {
@@ -103,6 +251,81 @@ public class GameServer extends WebSocketServer {
         }
     }
 
+    /**
+     * Binary protocol entry point. The header is read in place and room lookups go
+     * by numeric id, so the common commands never build intermediate Strings.
+     */
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer frame) {
+        if (!GameProtocol.isValidFrame(frame)) {
+            LOGGER.warning("Dropping malformed binary frame from " + conn.getRemoteSocketAddress());
+            return;
+        }
+        Session session = conn.getAttachment();
+        session.binary = true;
+
+        try {
+            int roomId = GameProtocol.roomIdOf(frame);
+            ByteBuffer payload = GameProtocol.payloadOf(frame);
+
+            switch (GameProtocol.opcodeOf(frame)) {
+                case GameProtocol.CREATE: {
+                    String roomName = GameProtocol.readString(payload);
+                    handleCreateRoom(roomName, GameProtocol.readString(payload), conn);
+                    break;
+                }
+                case GameProtocol.JOIN: {
+                    // Clients that already know the id send it in the header; the name field is always present.
+                    // Ids start over when the server restarts, so the id only counts if it names the same room.
+                    String roomName = GameProtocol.readString(payload);
+                    Room room = roomId != 0 ? ROOMS_BY_ID.get(roomId) : null;
+                    if (room == null || !room.name.equals(roomName)) {
+                        room = ROOMS.get(roomName);
+                    }
+                    handleJoinRoom(room, roomName, GameProtocol.nextField(payload), conn);
+                    break;
+                }
+                case GameProtocol.LEAVE: {
+                    Room room = ROOMS_BY_ID.get(roomId);
+                    if (room != null) {
+                        handleLeaveRoom(conn, room.name);
+                    }
+                    break;
+                }
+                case GameProtocol.CHAT: {
+                    Room room = ROOMS_BY_ID.get(roomId);
+                    handleChatMessage(conn, room, room != null ? room.name : String.valueOf(roomId), GameProtocol.readBytes(payload));
+                    break;
+                }
+                case GameProtocol.MOVE:
+                    handleMove(conn, ROOMS_BY_ID.get(roomId), GameProtocol.readString(payload));
+                    break;
+                case GameProtocol.ROOMLIST_SYNC:
+                    sendRoomList(conn);
+                    break;
+                case GameProtocol.SIGHT:
+                    handleSight(conn, ROOMS_BY_ID.get(roomId), GameProtocol.readString(payload));
+                    break;
+                case GameProtocol.MAP_MANIFEST:
+                    handleMapManifest(conn, ROOMS_BY_ID.get(roomId), GameProtocol.readFields(payload));
+                    break;
+                case GameProtocol.MAP_WANT:
+                    handleMapWant(conn, ROOMS_BY_ID.get(roomId), GameProtocol.readFields(payload));
+                    break;
+                case GameProtocol.MAP_CHUNK:
+                    handleMapChunk(conn, ROOMS_BY_ID.get(roomId), GameProtocol.readFields(payload));
+                    break;
+                case GameProtocol.MAP_HAVE:
+                    handleMapHave(conn, ROOMS_BY_ID.get(roomId), GameProtocol.readBytes(payload));
+                    break;
+                default:
+                    LOGGER.warning("Unknown opcode " + GameProtocol.opcodeOf(frame) + " from " + session.address);
+            }
+        } catch (Exception e) {
+            LOGGER.severe("Error processing binary message: " + e.getMessage());
+        }
+    }
+
     @Override
     public void onError(WebSocket conn, Exception ex) {
         LOGGER.severe("An error occurred on connection " + conn.getRemoteSocketAddress() + ": " + ex.getMessage());
@@ -111,45 +334,64 @@ public class GameServer extends WebSocketServer {
     @Override
     public void onStart() {
         LOGGER.info("WebSocket Server started on port " + getPort());
+        scheduler.scheduleAtFixedRate(this::flushRoomList, roomListFlushMillis, roomListFlushMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(this::tickRooms, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop(int timeout, String closeMessage) throws InterruptedException {
+        scheduler.shutdownNow();
+        super.stop(timeout, closeMessage);
     }
 
     private void handleCreateRoom(String roomName, String password, WebSocket conn) {
-        if (ROOMS.containsKey(roomName)) {
-            sendMessage(conn, "ERROR: Room '" + roomName + "' already exists.");
+        Room newRoom = new Room(NEXT_ROOM_ID.getAndIncrement(), roomName, password);
+        newRoom.players.add(conn);
+        if (ROOMS.putIfAbsent(roomName, newRoom) != null) {
+            sendMessage(conn, error("Room '" + roomName + "' already exists."));
             return;
         }
-
-        Room newRoom = new Room();
-        newRoom.name = roomName;
-        newRoom.password = password;
-        newRoom.players.add(conn);
-        ROOMS.put(roomName, newRoom);
+        ROOMS_BY_ID.put(newRoom.id, newRoom);
         playerRooms.put(conn, roomName);
 
-        LOGGER.info("Room '" + roomName + "' created by " + conn.getRemoteSocketAddress());
-        sendMessage(conn, "SUCCESS:DM:" + roomName);
-        broadcastRoomList();
+        // Publishing goes through the mailbox so it is ordered before the room's eventual removal
+        newRoom.submit(() -> {
+            LOGGER.info("Room '" + roomName + "' created by " + conn.getRemoteSocketAddress());
+            sendMessage(conn, GameProtocol.message(GameProtocol.SUCCESS, newRoom.id, "DM", roomName));
+            DIRECTORY.add(roomName);
+        });
     }
 
-    private void handleJoinRoom(String roomName, String password, WebSocket conn) {
-        Room room = ROOMS.get(roomName);
+    private void handleJoinRoom(Room room, String roomName, ByteBuffer password, WebSocket conn) {
         if (room == null) {
-            sendMessage(conn, "ERROR: Room '" + roomName + "' does not exist.");
+            sendMessage(conn, error("Room '" + roomName + "' does not exist."));
             return;
         }
 
-        if (!room.password.isEmpty() && !room.password.equals(password)) {
-            sendMessage(conn, "ERROR: Incorrect password for room '" + roomName + "'.");
-            return;
-        }
+        // The field view points into the socket's read buffer, so copy it before queueing
+        ByteBuffer passwordCopy = ByteBuffer.allocate(password.remaining()).put(password).flip();
+        room.submit(() -> {
+            if (room.closed) {
+                sendMessage(conn, error("Room '" + roomName + "' does not exist."));
+                return;
+            }
+            if (room.passwordBytes.length != 0 && !ByteBuffer.wrap(room.passwordBytes).equals(passwordCopy)) {
+                sendMessage(conn, error("Incorrect password for room '" + roomName + "'."));
+                return;
+            }
 
-        room.players.add(conn);
-        playerRooms.put(conn, roomName);
-        LOGGER.info(conn.getRemoteSocketAddress() + " joined room '" + roomName + "'.");
+            room.players.add(conn);
+            playerRooms.put(conn, roomName);
+            LOGGER.info(conn.getRemoteSocketAddress() + " joined room '" + roomName + "'.");
 
-        sendMessage(conn, "SUCCESS:PLAYER:" + roomName);
-        broadcastMessage(room, "PLAYER_JOINED:" + conn.getRemoteSocketAddress().toString());
-        broadcastRoomList();
+            Session session = conn.getAttachment();
+            sendMessage(conn, GameProtocol.message(GameProtocol.SUCCESS, room.id, "PLAYER", roomName));
+            broadcastMessage(room, new GameProtocol.Message(GameProtocol.PLAYER_JOINED, room.id, session.addressBytes));
+            // Mid-session joiners get every token once; after that they follow the per-tick deltas
+            for (GameProtocol.Message snapshot : room.tokens.snapshot(room.id)) {
+                sendMessage(conn, snapshot);
+            }
+        });
     }
 
     private void handleLeaveRoom(WebSocket conn, String roomName) {
@@ -158,53 +400,417 @@ public class GameServer extends WebSocketServer {
             return; // Room doesn't exist, nothing to do.
         }
 
-        if (room.players.remove(conn)) {
-            playerRooms.remove(conn);
+        room.submit(() -> {
+            if (!room.players.remove(conn)) {
+                return;
+            }
+            playerRooms.remove(conn, roomName);
             LOGGER.info(conn.getRemoteSocketAddress() + " left room '" + roomName + "'.");
 
             // Broadcast a message to all other players in the room that a user has left
-            broadcastMessage(room, "PLAYER_LEFT:" + conn.getRemoteSocketAddress().toString());
+            Session session = conn.getAttachment();
+            broadcastMessage(room, new GameProtocol.Message(GameProtocol.PLAYER_LEFT, room.id, session.addressBytes));
+            room.tokens.removeOwner(session.id);
+            room.tokensDirty.set(true);
+            room.fog.removePlayer(session.id);
+            if (room.mapSource == conn) {
+                room.mapSource = null;
+                if (room.mapHash != null) {
+                    // Nobody else can send the chunks still missing
+                    String mapHash = room.mapHash;
+                    clearRoomMap(room);
+                    fogUnavailable(room, mapHash, "the map's sender left before it arrived");
+                }
+            }
 
-            // Check if the room is now empty and remove it
+            // Check if the room is now empty and remove it. Commands already queued behind
+            // this one see the closed flag and answer as if the room never existed.
             if (room.players.isEmpty()) {
-                ROOMS.remove(roomName);
+                room.closed = true;
+                ROOMS.remove(roomName, room);
+                ROOMS_BY_ID.remove(room.id, room);
                 LOGGER.info("Room '" + roomName + "' is empty and has been removed.");
-                broadcastRoomList();
+                DIRECTORY.remove(roomName);
             }
+        });
+    }
+
+    private void handleChatMessage(WebSocket conn, Room room, String roomName, byte[] chatMessage) {
+        if (room == null) {
+            sendMessage(conn, error("Room '" + roomName + "' does not exist."));
+            return;
         }
+
+        Session sender = conn.getAttachment();
+        room.submit(() -> {
+            if (room.closed) {
+                sendMessage(conn, error("Room '" + roomName + "' does not exist."));
+                return;
+            }
+            // Broadcast the chat message to all players in the room
+            broadcastMessage(room, new GameProtocol.Message(GameProtocol.CHAT_MESSAGE, room.id, sender.addressBytes, chatMessage));
+        });
     }
 
-    private void handleChatMessage(WebSocket conn, String roomName, String chatMessage) {
-        Room room = ROOMS.get(roomName);
+    /**
+     * Queues a token move. The payload is "q,r" for the player's own token or "q,r,slot" for
+     * one of up to TokenState.MAX_SLOTS tokens; it is applied on the room's next tick. Moves
+     * off the room's map are dropped.
+     */
+    private void handleMove(WebSocket conn, Room room, String move) {
         if (room == null) {
-            sendMessage(conn, "ERROR: Room '" + roomName + "' does not exist.");
+            return;
+        }
+        String[] parts = move.split(",");
+        if (parts.length < 2 || parts.length > 3) {
+            return;
+        }
+        int q;
+        int r;
+        int slot;
+        try {
+            q = Integer.parseInt(parts[0].trim());
+            r = Integer.parseInt(parts[1].trim());
+            slot = parts.length > 2 ? Integer.parseInt(parts[2].trim()) : 0;
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (slot < 0 || slot >= TokenState.MAX_SLOTS) {
             return;
         }
 
-        String sender = conn.getRemoteSocketAddress().toString();
-        // Broadcast the chat message to all players in the room
-        broadcastMessage(room, "CHAT_MESSAGE:" + sender + ":" + chatMessage);
+        Session session = conn.getAttachment();
+        room.submit(() -> {
+            if (room.closed || !room.players.contains(conn) || !room.fog.isOnMap(q, r)) {
+                return;
+            }
+            room.tokens.queueMove(TokenState.tokenKey(session.id, slot), q, r);
+            room.tokensDirty.set(true);
+        });
     }
 
-    private void broadcastRoomList() {
-        String roomList = String.join(",", ROOMS.keySet());
-        for (WebSocket conn : SESSIONS.values()) {
-            sendMessage(conn, "ROOMLIST:" + roomList);
+    /**
+     * Sets how far the player's tokens see (payload "radius") and answers with the room's fog so
+     * far. Sent by the map viewer when it opens and whenever the player changes the radius.
+     */
+    private void handleSight(WebSocket conn, Room room, String radius) {
+        if (room == null) {
+            return;
         }
+        int sightRadius = Integer.parseInt(radius.trim());
+        Session session = conn.getAttachment();
+        room.submit(() -> {
+            if (room.closed || !room.players.contains(conn)) {
+                return;
+            }
+            room.fog.setSightRadius(session.id, sightRadius);
+            room.fog.updatePlayer(room.id, session.id, room.tokens);
+            broadcastFog(room);
+            for (GameProtocol.Message message : room.fog.snapshot(room.id, session.id)) {
+                sendMessage(conn, message);
+            }
+        });
     }
 
-    private void sendRoomList(WebSocket conn) {
-        String roomList = String.join(",", ROOMS.keySet());
-        sendMessage(conn, "ROOMLIST:" + roomList);
+    // --- Map transfer relay ---
+    // Maps travel as content-addressed chunks. The server relays the manifest to the room, routes
+    // each MAP_WANT to the sender and forwards chunks as they arrive. Relayed chunks are kept in
+    // mapCache, and wanted chunks found there are answered directly. The server also collects the
+    // room's map for itself, since it needs the walls to work out fog of war.
+
+    /**
+     * fields: [name, size, mapHash, chunkHashes]
+     */
+    private void handleMapManifest(WebSocket conn, Room room, byte[][] fields) {
+        if (room == null || fields.length < 4) {
+            return;
+        }
+        String mapHash = new String(fields[2], StandardCharsets.UTF_8);
+        String chunkHashes = new String(fields[3], StandardCharsets.UTF_8);
+        List<String> hashes = chunkHashes.isEmpty() ? List.of() : List.of(chunkHashes.split(","));
+        if (!GameProtocol.isContentHash(mapHash) || !hashes.stream().allMatch(GameProtocol::isContentHash)) {
+            LOGGER.warning("Ignoring map manifest from " + conn.getRemoteSocketAddress() + " with malformed hashes");
+            return;
+        }
+        int size;
+        try {
+            size = Integer.parseInt(new String(fields[1], StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (size < 0 || size > MapData.MAX_ENCODED_LENGTH) {
+            LOGGER.warning("Ignoring map manifest from " + conn.getRemoteSocketAddress() + " for a map of " + size + " bytes");
+            return;
+        }
+        room.submit(() -> {
+            if (room.closed || !room.players.contains(conn)) {
+                return;
+            }
+            room.mapSource = conn;
+            fanOut(new GameProtocol.Message(GameProtocol.MAP_MANIFEST, room.id, fields), otherPlayers(room, conn));
+
+            clearRoomMap(room);
+            room.mapHash = mapHash;
+            room.mapSize = size;
+            room.mapChunkHashes = hashes;
+            for (String hash : hashes) {
+                if (room.mapChunks.containsKey(hash)) {
+                    continue;
+                }
+                byte[] cached = mapCache.get(hash);
+                if (cached != null) {
+                    room.mapChunks.put(hash, cached);
+                } else {
+                    room.missingMapChunks.add(hash);
+                }
+            }
+            List<String> missing = new ArrayList<>(room.missingMapChunks);
+            for (int i = 0; i < missing.size(); i += HASHES_PER_REQUEST) {
+                List<String> batch = missing.subList(i, Math.min(missing.size(), i + HASHES_PER_REQUEST));
+                sendMessage(conn, new GameProtocol.Message(GameProtocol.MAP_WANT, room.id,
+                        GameProtocol.utf8(GameProtocol.SERVER_REQUESTER), fields[2], GameProtocol.utf8(String.join(",", batch))));
+            }
+            assembleRoomMap(room);
+        });
+    }
+
+    /**
+     * Once every chunk of the room's map has arrived, rebuilds the map and makes it the terrain fog
+     * of war is computed on. Cells are only decoded around the tokens, as sight reaches them.
+     * If the map can't be used the room is told, and its players work out fog themselves.
+     */
+    private void assembleRoomMap(Room room) {
+        if (room.mapHash == null || !room.missingMapChunks.isEmpty()) {
+            return;
+        }
+        long length = 0;
+        for (String hash : room.mapChunkHashes) {
+            length += room.mapChunks.get(hash).length;
+        }
+        String mapHash = room.mapHash;
+        if (length != room.mapSize) {
+            clearRoomMap(room);
+            fogUnavailable(room, mapHash, "the map is not the size its manifest gave");
+            return;
+        }
+        ByteArrayOutputStream data = new ByteArrayOutputStream((int) length);
+        for (String hash : room.mapChunkHashes) {
+            data.writeBytes(room.mapChunks.get(hash));
+        }
+        byte[] bytes = data.toByteArray();
+        clearRoomMap(room);
+        if (!mapHash.equals(GameProtocol.contentHash(bytes))) {
+            fogUnavailable(room, mapHash, "the map failed its integrity check");
+            return;
+        }
+        try {
+            room.fog.setTerrain(MapData.fromBytes(bytes), mapHash);
+        } catch (IOException | IllegalArgumentException e) {
+            fogUnavailable(room, mapHash, "the map could not be read (" + e.getMessage() + ")");
+            return;
+        }
+        LOGGER.info("Fog of war for room '" + room.name + "' now follows its map.");
+        updateFog(room);
+    }
+
+    // Forgets the map being collected for the room and releases its chunks
+    private static void clearRoomMap(Room room) {
+        room.mapHash = null;
+        room.mapChunkHashes = null;
+        room.mapChunks.clear();
+        room.missingMapChunks.clear();
+    }
+
+    // Tells the room the server has no fog for this map: [mapHash, reason]
+    private void fogUnavailable(Room room, String mapHash, String reason) {
+        LOGGER.warning("No fog of war for the map of room '" + room.name + "': " + reason);
+        broadcastMessage(room, new GameProtocol.Message(GameProtocol.FOG_UNAVAILABLE, room.id,
+                GameProtocol.utf8(mapHash), GameProtocol.utf8(reason)));
+    }
+
+    /**
+     * fields: [mapHash, chunkHashes]. Cached chunks are sent straight back; the rest are requested
+     * from the map source as [requesterSessionId, mapHash, chunkHashes].
+     */
+    private void handleMapWant(WebSocket conn, Room room, byte[][] fields) {
+        if (room == null || fields.length < 2 || !GameProtocol.isContentHash(new String(fields[0], StandardCharsets.UTF_8))) {
+            return;
+        }
+        Session requester = conn.getAttachment();
+        room.submit(() -> {
+            if (room.closed || !room.players.contains(conn)) {
+                return;
+            }
+            List<String> uncached = new ArrayList<>();
+            for (String hash : new String(fields[1], StandardCharsets.UTF_8).split(",")) {
+                byte[] data = mapCache.get(hash);
+                if (data != null) {
+                    sendMessage(conn, new GameProtocol.Message(GameProtocol.MAP_CHUNK, room.id, GameProtocol.utf8(hash), data));
+                } else if (GameProtocol.isContentHash(hash)) {
+                    uncached.add(hash);
+                }
+            }
+            WebSocket source = room.mapSource;
+            if (uncached.isEmpty() || source == null || !room.players.contains(source)) {
+                return;
+            }
+            sendMessage(source, new GameProtocol.Message(GameProtocol.MAP_WANT, room.id,
+                    GameProtocol.utf8(Integer.toString(requester.id)), fields[0], GameProtocol.utf8(String.join(",", uncached))));
+        });
+    }
+
+    /**
+     * fields: [mapHash]. A player already holds the whole map; forwarded to the map source as
+     * [sessionId, mapHash] so the sender knows that player needs nothing more.
+     */
+    private void handleMapHave(WebSocket conn, Room room, byte[] mapHash) {
+        if (room == null || !GameProtocol.isContentHash(new String(mapHash, StandardCharsets.UTF_8))) {
+            return;
+        }
+        Session player = conn.getAttachment();
+        room.submit(() -> {
+            WebSocket source = room.mapSource;
+            if (room.closed || source == null || source == conn || !room.players.contains(conn)) {
+                return;
+            }
+            sendMessage(source, new GameProtocol.Message(GameProtocol.MAP_HAVE, room.id,
+                    GameProtocol.utf8(Integer.toString(player.id)), mapHash));
+        });
     }
 
-    private void broadcastMessage(Room room, String message) {
+    /**
+     * fields: [target, chunkHash, data]. The target is a session id, or "*" for everyone else in the room.
+     */
+    private void handleMapChunk(WebSocket conn, Room room, byte[][] fields) {
+        if (room == null || fields.length < 3) {
+            return;
+        }
+        String target = new String(fields[0], StandardCharsets.UTF_8);
+        String hash = new String(fields[1], StandardCharsets.UTF_8);
+        if (!GameProtocol.isContentHash(hash)) {
+            return;
+        }
+        room.submit(() -> {
+            if (room.closed || !room.players.contains(conn)) {
+                return;
+            }
+            if (!mapCache.put(hash, fields[2])) {
+                LOGGER.warning("Dropping map chunk from " + conn.getRemoteSocketAddress() + " that does not match its hash " + hash);
+                return;
+            }
+            if (room.missingMapChunks.remove(hash)) {
+                room.mapChunks.put(hash, fields[2]);
+                assembleRoomMap(room);
+            }
+            GameProtocol.Message chunk = new GameProtocol.Message(GameProtocol.MAP_CHUNK, room.id, fields[1], fields[2]);
+            if (target.equals("*")) {
+                fanOut(chunk, otherPlayers(room, conn));
+                return;
+            }
+            for (WebSocket player : room.players) {
+                Session session = player.getAttachment();
+                if (Integer.toString(session.id).equals(target)) {
+                    sendMessage(player, chunk);
+                    return;
+                }
+            }
+        });
+    }
+
+    private static List<WebSocket> otherPlayers(Room room, WebSocket except) {
+        List<WebSocket> others = new ArrayList<>(room.players);
+        others.remove(except);
+        return others;
+    }
+
+    // Runs on the scheduler; the work itself happens on each room's mailbox
+    private void tickRooms() {
+        for (Room room : ROOMS_BY_ID.values()) {
+            if (room.tokensDirty.getAndSet(false)) {
+                room.submit(() -> {
+                    List<GameProtocol.Message> delta = room.tokens.advance(room.id);
+                    if (!delta.isEmpty() && !room.closed) {
+                        for (GameProtocol.Message message : delta) {
+                            broadcastMessage(room, message);
+                        }
+                        updateFog(room);
+                    }
+                });
+            }
+        }
+    }
+
+    // Sends every player their visible area if it changed, then everyone the newly explored hexes
+    private void updateFog(Room room) {
         for (WebSocket player : room.players) {
-            sendMessage(player, message);
+            Session session = player.getAttachment();
+            for (GameProtocol.Message message : room.fog.updatePlayer(room.id, session.id, room.tokens)) {
+                sendMessage(player, message);
+            }
+        }
+        broadcastFog(room);
+    }
+
+    private void broadcastFog(Room room) {
+        for (GameProtocol.Message message : room.fog.takeRevealed(room.id)) {
+            broadcastMessage(room, message);
+        }
+    }
+
+    // Room list changes go out as small deltas; full snapshots only on connect or on request
+    private void flushRoomList() {
+        try {
+            DIRECTORY.flush(delta -> fanOut(delta, SESSIONS.values()));
+        } catch (Exception e) {
+            // An exception would cancel the scheduled task, so log and keep going
+            LOGGER.severe("Error broadcasting room list: " + e.getMessage());
         }
     }
 
-    private void sendMessage(WebSocket conn, String message) {
-        conn.send(message);
+    private void sendRoomList(WebSocket conn) {
+        // Hold the directory lock so no delta can overtake the snapshot on this socket
+        synchronized (DIRECTORY) {
+            sendMessage(conn, DIRECTORY.snapshot());
+        }
+    }
+
+    private static GameProtocol.Message error(String text) {
+        return GameProtocol.message(GameProtocol.ERROR, 0, text);
+    }
+
+    private void broadcastMessage(Room room, GameProtocol.Message message) {
+        fanOut(message, room.players);
+    }
+
+    /**
+     * Sends one message to many sockets. The payload is serialized once per protocol and the
+     * library builds the WebSocket frames once per draft, then hands the same frames to every socket.
+     */
+    private void fanOut(GameProtocol.Message message, Collection<WebSocket> recipients) {
+        List<WebSocket> textRecipients = new ArrayList<>();
+        List<WebSocket> binaryRecipients = new ArrayList<>();
+        for (WebSocket conn : recipients) {
+            Session session = conn.getAttachment();
+            if (session != null && session.binary) {
+                binaryRecipients.add(conn);
+            } else {
+                textRecipients.add(conn);
+            }
+        }
+        if (!textRecipients.isEmpty()) {
+            broadcast(message.toText(), textRecipients);
+        }
+        if (!binaryRecipients.isEmpty()) {
+            broadcast(message.toBinary(), binaryRecipients);
+        }
+    }
+
+    private void sendMessage(WebSocket conn, GameProtocol.Message message) {
+        Session session = conn.getAttachment();
+        if (session != null && session.binary) {
+            conn.send(message.toBinary());
+        } else {
+            conn.send(message.toText());
+        }
     }
 }
\ No newline at end of file
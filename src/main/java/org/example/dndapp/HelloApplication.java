@@ -1,6 +1,7 @@
 package org.example.dndapp;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -18,6 +19,7 @@ import javafx.stage.Stage;
 public class HelloApplication extends Application {
 
     private final WebSocketService webSocketService = new WebSocketService();
+    private final MapTransfer mapTransfer = new MapTransfer(webSocketService);
     private Scene campaignsScene;
     private Scene homeScene;
     private Scene dmScene;
@@ -69,15 +71,19 @@ public class HelloApplication extends Application {
         campaignsScene = campaignsPage.createScene();
 
         // Uncommented and re-instantiated
-        DMPage dmPage = new DMPage(stage, homeScene);
+        DMPage dmPage = new DMPage(stage, homeScene, mapTransfer);
         dmScene = dmPage.createScene();
 
         AccountPage accountPage = new AccountPage(stage, homeScene);
         accountScene = accountPage.createScene();
 
-        PlayerPage playerPage = new PlayerPage(stage, homeScene);
+        PlayerPage playerPage = new PlayerPage(stage, homeScene, webSocketService);
         playerScene = playerPage.createScene();
 
+        // Maps sent by the DM arrive in chunks; save them to the player's maps once complete
+        mapTransfer.setOnMapReceived((name, data) -> Platform.runLater(() ->
+                new MapsPage(stage, playerScene, webSocketService).receiveMap(name, data)));
+
         campaignsButton.setOnAction(e -> {
             stage.setScene(campaignsScene);
             stage.setTitle("Campaigns");
@@ -0,0 +1,191 @@
+package org.example.dndapp;
+
+/**
+ * Layout maths for the flat-topped hex grid used by the map pages.
+ *
+ * Cells are addressed by (q, r) in "odd-q" offset coordinates: q is the column, r the row, and
+ * odd columns sit half a hex lower. Conversions go through axial/cube coordinates, so picking a
+ * hex from a pixel is exact right up to the hex edges. Corner offsets are computed once per
+ * geometry; drawing a hex only adds them to its centre.
+ */
+public final class HexGeometry {
+
+    // Axial (dq, dr) of the six neighbours, clockwise from the lower right
+    private static final int[] AXIAL_DQ = {1, 1, 0, -1, -1, 0};
+    private static final int[] AXIAL_DR = {0, -1, -1, 0, 1, 1};
+    private static final double SQRT3 = Math.sqrt(3);
+
+    /**
+     * Receives hex coordinates from the iterators below.
+     */
+    @FunctionalInterface
+    public interface HexVisitor {
+        void visit(int q, int r);
+    }
+
+    private final double size;
+    private final double width;
+    private final double height;
+    private final double originX;
+    private final double originY;
+    private final double[] cornerX = new double[6];
+    private final double[] cornerY = new double[6];
+
+    /**
+     * A grid of hexes with the given corner radius, laid out so hex (0, 0) touches the top-left corner.
+     */
+    public HexGeometry(double size) {
+        this.size = size;
+        this.width = size * 2;
+        this.height = size * SQRT3;
+        this.originX = size;
+        this.originY = height / 2;
+        for (int i = 0; i < 6; i++) {
+            cornerX[i] = size * Math.cos(Math.toRadians(60 * i));
+            cornerY[i] = size * Math.sin(Math.toRadians(60 * i));
+        }
+    }
+
+    public double size() {
+        return size;
+    }
+
+    public double hexWidth() {
+        return width;
+    }
+
+    public double hexHeight() {
+        return height;
+    }
+
+    /**
+     * Pixel width of a grid with this many columns.
+     */
+    public double gridWidth(int cols) {
+        return (cols * 1.5 + 0.5) * size;
+    }
+
+    /**
+     * Pixel height of a grid with this many rows.
+     */
+    public double gridHeight(int rows) {
+        return (rows + 0.5) * height;
+    }
+
+    public double centerX(int q) {
+        return originX + size * 1.5 * q;
+    }
+
+    public double centerY(int q, int r) {
+        return originY + height * (r + 0.5 * (q & 1));
+    }
+
+    /**
+     * Writes the six corners of hex (q, r) into xs and ys, which must hold at least six values.
+     */
+    public void corners(int q, int r, double[] xs, double[] ys) {
+        double x = centerX(q);
+        double y = centerY(q, r);
+        for (int i = 0; i < 6; i++) {
+            xs[i] = x + cornerX[i];
+            ys[i] = y + cornerY[i];
+        }
+    }
+
+    // Conservative bounds of the hexes overlapping a pixel range, for culling. They may lie outside the grid.
+
+    public int firstColumnIn(double x) {
+        return (int) Math.floor((x - originX - size) / (size * 1.5));
+    }
+
+    public int lastColumnIn(double x) {
+        return (int) Math.ceil((x - originX + size) / (size * 1.5));
+    }
+
+    public int firstRowIn(double y) {
+        return (int) Math.floor((y - originY) / height - 1);
+    }
+
+    public int lastRowIn(double y) {
+        return (int) Math.ceil((y - originY) / height + 0.5);
+    }
+
+    /**
+     * Returns {q, r} of the hex containing the pixel. The result may lie outside the grid.
+     */
+    public int[] hexAt(double x, double y) {
+        // Pixel -> fractional axial -> nearest cube -> odd-q offset
+        double px = (x - originX) / size;
+        double py = (y - originY) / size;
+        double fq = 2.0 / 3.0 * px;
+        double fr = -1.0 / 3.0 * px + SQRT3 / 3.0 * py;
+        double fs = -fq - fr;
+
+        long q = Math.round(fq);
+        long r = Math.round(fr);
+        long s = Math.round(fs);
+        double dq = Math.abs(q - fq);
+        double dr = Math.abs(r - fr);
+        double ds = Math.abs(s - fs);
+        // Rounding each axis separately can break q + r + s = 0; recompute the one that moved most
+        if (dq > dr && dq > ds) {
+            q = -r - s;
+        } else if (dr > ds) {
+            r = -q - s;
+        }
+        int col = (int) q;
+        return new int[]{col, (int) r + (col - (col & 1)) / 2};
+    }
+
+    /**
+     * Number of steps between two hexes.
+     */
+    public static int distance(int q1, int r1, int q2, int r2) {
+        int ar1 = r1 - (q1 - (q1 & 1)) / 2;
+        int ar2 = r2 - (q2 - (q2 & 1)) / 2;
+        int dq = q1 - q2;
+        int dr = ar1 - ar2;
+        return (Math.abs(dq) + Math.abs(dr) + Math.abs(dq + dr)) / 2;
+    }
+
+    /**
+     * Visits the six hexes around (q, r). Coordinates off the edge of the map are not filtered out.
+     */
+    public static void forEachNeighbour(int q, int r, HexVisitor visitor) {
+        int ar = r - (q - (q & 1)) / 2;
+        for (int i = 0; i < 6; i++) {
+            int nq = q + AXIAL_DQ[i];
+            int nar = ar + AXIAL_DR[i];
+            visitor.visit(nq, nar + (nq - (nq & 1)) / 2);
+        }
+    }
+
+    /**
+     * Visits the hexes exactly {@code radius} steps from (q, r); radius 0 visits the centre only.
+     */
+    public static void forEachInRing(int q, int r, int radius, HexVisitor visitor) {
+        if (radius <= 0) {
+            visitor.visit(q, r);
+            return;
+        }
+        // Start radius steps out in direction 4, then walk each of the six sides
+        int cq = q + AXIAL_DQ[4] * radius;
+        int car = r - (q - (q & 1)) / 2 + AXIAL_DR[4] * radius;
+        for (int side = 0; side < 6; side++) {
+            for (int step = 0; step < radius; step++) {
+                visitor.visit(cq, car + (cq - (cq & 1)) / 2);
+                cq += AXIAL_DQ[side];
+                car += AXIAL_DR[side];
+            }
+        }
+    }
+
+    /**
+     * Visits every hex within {@code radius} steps of (q, r), centre first, ring by ring.
+     */
+    public static void forEachInRange(int q, int r, int radius, HexVisitor visitor) {
+        for (int ring = 0; ring <= radius; ring++) {
+            forEachInRing(q, r, ring, visitor);
+        }
+    }
+}
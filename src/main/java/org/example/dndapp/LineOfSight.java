@@ -0,0 +1,246 @@
+package org.example.dndapp;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Works out which hexes can be seen from a hex, with opaque terrain casting shadows.
+ *
+ * Shadowcasting over rings: ring k around the viewer has 6k hexes, and hex i of it covers the
+ * slice [i - 0.5, i + 0.5] / 6k of a full turn, the slices of every ring lining up because all
+ * rings are walked from the same corner. Rings are processed outwards while the slices hidden
+ * by opaque hexes seen so far are kept as a merged list of intervals. A clear hex is visible if
+ * the middle of its slice is lit, an opaque one if any part of its slice is, so walls seen at an
+ * angle don't break up. Results are cached per viewer position and radius until the terrain
+ * around them changes. Has no JavaFX dependencies, so the server can use it too.
+ */
+public class LineOfSight {
+
+    /**
+     * The map as far as sight is concerned.
+     */
+    public interface Terrain {
+        int getColCount();
+
+        int getRowCount();
+
+        boolean isOpaque(int q, int r);
+    }
+
+    private static final int CACHE_SIZE = 256;
+    private static final double EPSILON = 1e-9;
+
+    private final Terrain terrain;
+    // Visible cells by viewer cell << 16 | radius, least recently used first
+    private final LinkedHashMap<Long, int[]> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private final Shadows shadows = new Shadows();
+    private int[] cells = new int[64];
+    private int cellCount;
+    private int[] ringCells = new int[64];
+    private boolean[] ringOpaque = new boolean[64];
+    private int ringCount;
+
+    public LineOfSight(Terrain terrain) {
+        this.terrain = terrain;
+    }
+
+    /**
+     * Returns the cells (r * colCount + q) visible from (q, r) within radius steps, the viewer's
+     * own hex included. The array is shared with the cache and must not be modified.
+     */
+    public int[] visibleFrom(int q, int r, int radius) {
+        int colCount = terrain.getColCount();
+        if (q < 0 || q >= colCount || r < 0 || r >= terrain.getRowCount()) {
+            return new int[0];
+        }
+        radius = Math.max(0, Math.min(0xFFFF, radius));
+        long key = (long) (r * colCount + q) << 16 | radius;
+        int[] visible = cache.get(key);
+        if (visible == null) {
+            visible = compute(q, r, radius);
+            cache.put(key, visible);
+        }
+        return visible;
+    }
+
+    /**
+     * Forgets cached results that the hex at (q, r) could have affected, after its terrain changed.
+     */
+    public void terrainChanged(int q, int r) {
+        Iterator<Long> keys = cache.keySet().iterator();
+        while (keys.hasNext()) {
+            long key = keys.next();
+            int viewer = (int) (key >>> 16);
+            int radius = (int) (key & 0xFFFF);
+            int colCount = terrain.getColCount();
+            if (HexGeometry.distance(viewer % colCount, viewer / colCount, q, r) <= radius) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Forgets every cached result, e.g. after a different map was loaded.
+     */
+    public void invalidate() {
+        cache.clear();
+    }
+
+    private int[] compute(int q, int r, int radius) {
+        int colCount = terrain.getColCount();
+        int rowCount = terrain.getRowCount();
+        cellCount = 0;
+        addCell(r * colCount + q);
+        shadows.clear();
+
+        for (int ring = 1; ring <= radius && !shadows.coversAll(); ring++) {
+            collectRing(q, r, ring, colCount, rowCount);
+            double slice = 1.0 / ringCount;
+            for (int i = 0; i < ringCount; i++) {
+                double middle = i * slice;
+                double from = middle - slice / 2;
+                double to = middle + slice / 2;
+                boolean opaque = ringOpaque[i];
+                boolean lit = opaque ? !shadows.covers(from, to) : !shadows.contains(middle);
+                if (lit && ringCells[i] >= 0) {
+                    addCell(ringCells[i]);
+                }
+            }
+            // Shadows from this ring only hide hexes further out
+            for (int i = 0; i < ringCount; i++) {
+                if (ringOpaque[i]) {
+                    double middle = i * slice;
+                    shadows.add(middle - slice / 2, middle + slice / 2);
+                }
+            }
+        }
+        return Arrays.copyOf(cells, cellCount);
+    }
+
+    // Lists ring hexes in walking order; hexes off the map are opaque and have cell -1
+    private void collectRing(int q, int r, int ring, int colCount, int rowCount) {
+        int size = 6 * ring;
+        if (ringCells.length < size) {
+            ringCells = new int[size];
+            ringOpaque = new boolean[size];
+        }
+        ringCount = 0;
+        HexGeometry.forEachInRing(q, r, ring, (hq, hr) -> {
+            boolean onMap = hq >= 0 && hq < colCount && hr >= 0 && hr < rowCount;
+            ringCells[ringCount] = onMap ? hr * colCount + hq : -1;
+            ringOpaque[ringCount] = !onMap || terrain.isOpaque(hq, hr);
+            ringCount++;
+        });
+    }
+
+    private void addCell(int cell) {
+        if (cellCount == cells.length) {
+            cells = Arrays.copyOf(cells, cellCount * 2);
+        }
+        cells[cellCount++] = cell;
+    }
+
+    // Sorted, disjoint intervals of [0, 1) that are in shadow; intervals crossing 0 are split
+    private static final class Shadows {
+        private double[] starts = new double[16];
+        private double[] ends = new double[16];
+        private int count;
+
+        void clear() {
+            count = 0;
+        }
+
+        boolean coversAll() {
+            return count == 1 && starts[0] <= EPSILON && ends[0] >= 1 - EPSILON;
+        }
+
+        boolean contains(double x) {
+            x = wrap(x);
+            int i = lastStartingBefore(x + EPSILON);
+            return i >= 0 && ends[i] >= x - EPSILON;
+        }
+
+        boolean covers(double from, double to) {
+            if (from < 0) {
+                return coversPart(from + 1, 1) && coversPart(0, to);
+            }
+            if (to > 1) {
+                return coversPart(from, 1) && coversPart(0, to - 1);
+            }
+            return coversPart(from, to);
+        }
+
+        void add(double from, double to) {
+            if (from < 0) {
+                addPart(from + 1, 1);
+                addPart(0, to);
+            } else if (to > 1) {
+                addPart(from, 1);
+                addPart(0, to - 1);
+            } else {
+                addPart(from, to);
+            }
+        }
+
+        private boolean coversPart(double from, double to) {
+            int i = lastStartingBefore(from + EPSILON);
+            return i >= 0 && ends[i] >= to - EPSILON;
+        }
+
+        private void addPart(double from, double to) {
+            // Find the intervals that overlap or touch [from, to] and merge them into one
+            int first = lastStartingBefore(from + EPSILON);
+            if (first < 0 || ends[first] < from - EPSILON) {
+                first++;
+            }
+            int last = first;
+            while (last < count && starts[last] <= to + EPSILON) {
+                from = Math.min(from, starts[last]);
+                to = Math.max(to, ends[last]);
+                last++;
+            }
+            int removed = last - first;
+            if (removed == 0) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                }
+                System.arraycopy(starts, first, starts, first + 1, count - first);
+                System.arraycopy(ends, first, ends, first + 1, count - first);
+                count++;
+            } else if (removed > 1) {
+                System.arraycopy(starts, last, starts, first + 1, count - last);
+                System.arraycopy(ends, last, ends, first + 1, count - last);
+                count -= removed - 1;
+            }
+            starts[first] = from;
+            ends[first] = to;
+        }
+
+        // Index of the last interval starting at or before x, or -1
+        private int lastStartingBefore(double x) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (starts[mid] <= x) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return high;
+        }
+
+        private static double wrap(double x) {
+            return x < 0 ? x + 1 : x >= 1 ? x - 1 : x;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.example.dndapp;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Server-side LRU cache of map chunks, keyed by the SHA-256 of their content.
+ *
+ * Chunks are remembered as they are relayed, so when a DM sends the same map again the server
+ * answers MAP_WANT requests itself and the DM only has to upload the manifest. The cache is
+ * bounded by the total size of the chunks it holds; the least recently used ones are evicted first.
+ */
+public class MapCache {
+
+    private final long maxBytes;
+    // Access-ordered, so iteration starts at the least recently used chunk
+    private final LinkedHashMap<String, byte[]> chunks = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes = 0;
+
+    public MapCache(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    /**
+     * Returns the chunk with this hash, or null if it isn't cached.
+     */
+    public synchronized byte[] get(String hash) {
+        return chunks.get(hash);
+    }
+
+    /**
+     * Caches a chunk after checking its content against the hash, so a client can't poison
+     * the cache for everyone else. Returns false if the content doesn't match the hash.
+     */
+    public boolean put(String hash, byte[] data) {
+        byte[] cached = get(hash);
+        if (cached != null) {
+            return Arrays.equals(cached, data);
+        }
+        // Hash outside the lock; chunks are up to 32 KB and rooms relay them in parallel
+        if (!hash.equals(GameProtocol.contentHash(data))) {
+            return false;
+        }
+        if (data.length > maxBytes) {
+            return true;
+        }
+        synchronized (this) {
+            byte[] previous = chunks.put(hash, data);
+            if (previous != null) {
+                sizeBytes -= previous.length;
+            }
+            sizeBytes += data.length;
+            Iterator<Map.Entry<String, byte[]>> eldest = chunks.entrySet().iterator();
+            while (sizeBytes > maxBytes && eldest.hasNext()) {
+                sizeBytes -= eldest.next().getValue().length;
+                eldest.remove();
+            }
+        }
+        return true;
+    }
+
+    public synchronized long sizeBytes() {
+        return sizeBytes;
+    }
+}
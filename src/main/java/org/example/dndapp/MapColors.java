@@ -0,0 +1,44 @@
+package org.example.dndapp;
+
+import javafx.scene.paint.Color;
+
+import java.util.Arrays;
+
+/**
+ * The JavaFX colours of a map's palette, for drawing it. Each palette entry is parsed once, the
+ * first time it is looked up, so renderers never parse hex strings per cell. Kept out of MapData
+ * so maps can be decoded without JavaFX.
+ */
+public class MapColors {
+
+    private final MapData mapData;
+    private Color[] colors = new Color[0];
+
+    public MapColors(MapData mapData) {
+        this.mapData = mapData;
+    }
+
+    public Color color(byte terrain) {
+        int index = terrain & 0xFF;
+        if (index >= colors.length) {
+            // The map has gained colours since the last lookup, e.g. from painting
+            int parsed = colors.length;
+            colors = Arrays.copyOf(colors, mapData.paletteSize());
+            for (int i = parsed; i < colors.length; i++) {
+                colors[i] = Color.web(mapData.paletteColour(i));
+            }
+        }
+        return colors[index];
+    }
+
+    public Color colorAt(int q, int r) {
+        return color(mapData.get(q, r));
+    }
+
+    /**
+     * The most common colour of a chunk not read yet (exact for a uniform chunk), for drawing it from afar.
+     */
+    public Color chunkColor(int chunkCol, int chunkRow) {
+        return color(mapData.chunkFill(chunkCol, chunkRow));
+    }
+}
@@ -0,0 +1,273 @@
+package org.example.dndapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A map file laid out to be opened with FileChannel.map: fixed-size header, one byte of palette
+ * index per cell, and every chunk in its own 4 KB page. Opening it maps the file and reads the
+ * palette, whatever the map's size; cells are read straight from the mapping, and saving writes
+ * only the pages of chunks that changed. It is the editor's working format; maps are still
+ * sent to players in MapData's compact format.
+ *
+ * Layout (version 3 of the ".dndmap" format, integers big-endian):
+ * ["DMAP"][version:u8][chunkShift:u8][reserved:u16][rowCount:i32][colCount:i32][paletteSize:i32][reserved:i32]
+ * then 256 palette slots of [length:u8][UTF-8 colour, up to 31 bytes]
+ * then per chunk [fill:u8][uniform:u8], fill being the chunk's most common palette index,
+ * then, from the next 4 KB boundary, the chunks in row-major order of the chunk grid.
+ */
+final class MapContainer {
+
+    static final int FORMAT_VERSION = 3;
+    static final int PALETTE_SLOTS = 256;
+    private static final int PALETTE_SLOT_SIZE = 32;
+    private static final int PALETTE_OFFSET = 24;
+    private static final int CHUNK_TABLE_OFFSET = PALETTE_OFFSET + PALETTE_SLOTS * PALETTE_SLOT_SIZE;
+    private static final int PAGE_SIZE = 4096;
+    // Chunks per mapped segment, keeping each mapping well under the 2 GB limit of a MappedByteBuffer
+    private static final int SEGMENT_SHIFT = 18;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+    private final Path path;
+    private final int chunkCells;
+    private final long dataOffset;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer[] segments;
+
+    private MapContainer(Path path, int chunkCells, long dataOffset, MappedByteBuffer header, MappedByteBuffer[] segments) {
+        this.path = path;
+        this.chunkCells = chunkCells;
+        this.dataOffset = dataOffset;
+        this.header = header;
+        this.segments = segments;
+    }
+
+    static boolean isContainer(byte[] prefix) {
+        return MapData.isBinary(prefix) && prefix.length > 4 && prefix[4] == FORMAT_VERSION;
+    }
+
+    /**
+     * Maps a container file read-only.
+     */
+    static MapContainer open(Path path, int chunkShift) throws IOException {
+        path = path.toAbsolutePath().normalize();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < CHUNK_TABLE_OFFSET) {
+                throw new IOException("Corrupt map data.");
+            }
+            ByteBuffer fixed = channel.map(FileChannel.MapMode.READ_ONLY, 0, CHUNK_TABLE_OFFSET);
+            if (fixed.get(4) != FORMAT_VERSION) {
+                throw new IOException("Not a map container.");
+            }
+            if (fixed.get(5) != chunkShift) {
+                throw new IOException("Unsupported map chunk size " + (1 << fixed.get(5)));
+            }
+            int rows = fixed.getInt(8);
+            int cols = fixed.getInt(12);
+            if (rows < 0 || cols < 0 || (long) rows * cols > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt map data.");
+            }
+            int chunkSize = 1 << chunkShift;
+            long chunkCount = (long) ((rows + chunkSize - 1) >> chunkShift) * ((cols + chunkSize - 1) >> chunkShift);
+            long dataOffset = dataOffset(chunkCount);
+            int chunkCells = chunkSize * chunkSize;
+            if (channel.size() < dataOffset + chunkCount * chunkCells) {
+                throw new IOException("Map file ends early.");
+            }
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, dataOffset);
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((chunkCount + SEGMENT_MASK) >> SEGMENT_SHIFT)];
+            for (int i = 0; i < segments.length; i++) {
+                long firstChunk = (long) i << SEGMENT_SHIFT;
+                long chunks = Math.min(chunkCount - firstChunk, 1L << SEGMENT_SHIFT);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + firstChunk * chunkCells, chunks * chunkCells);
+            }
+            return new MapContainer(path, chunkCells, dataOffset, header, segments);
+        }
+    }
+
+    int rowCount() {
+        return header.getInt(8);
+    }
+
+    int colCount() {
+        return header.getInt(12);
+    }
+
+    List<String> palette() throws IOException {
+        int size = header.getInt(16);
+        if (size < 0 || size > PALETTE_SLOTS) {
+            throw new IOException("Corrupt map data.");
+        }
+        List<String> palette = new ArrayList<>(size);
+        byte[] slot = new byte[PALETTE_SLOT_SIZE - 1];
+        for (int i = 0; i < size; i++) {
+            int offset = PALETTE_OFFSET + i * PALETTE_SLOT_SIZE;
+            int length = Byte.toUnsignedInt(header.get(offset));
+            if (length >= PALETTE_SLOT_SIZE) {
+                throw new IOException("Corrupt map data.");
+            }
+            header.get(offset + 1, slot, 0, length);
+            palette.add(new String(slot, 0, length, StandardCharsets.UTF_8));
+        }
+        return palette;
+    }
+
+    boolean isAt(Path other) {
+        return path.equals(other.toAbsolutePath().normalize());
+    }
+
+    byte get(int chunk, int cell) {
+        return segments[chunk >> SEGMENT_SHIFT].get((chunk & SEGMENT_MASK) * chunkCells + cell);
+    }
+
+    void readChunk(int chunk, byte[] cells) {
+        segments[chunk >> SEGMENT_SHIFT].get((chunk & SEGMENT_MASK) * chunkCells, cells, 0, chunkCells);
+    }
+
+    byte chunkFill(int chunk) {
+        return header.get(CHUNK_TABLE_OFFSET + chunk * 2);
+    }
+
+    boolean isChunkUniform(int chunk) {
+        return header.get(CHUNK_TABLE_OFFSET + chunk * 2 + 1) != 0;
+    }
+
+    /**
+     * Supplies the cells of a chunk to write, or null for a chunk that is entirely chunkFill.
+     */
+    interface ChunkWriter {
+        byte[] cells(int chunk, byte[] scratch);
+
+        byte fill(int chunk);
+    }
+
+    /**
+     * Writes a complete container to path, replacing it in one step. Uniform chunks of palette
+     * index 0 are not written at all, so on file systems with sparse files they take no space.
+     */
+    static void write(Path path, int chunkShift, int rows, int cols, List<String> palette, ChunkWriter chunks) throws IOException {
+        path = path.toAbsolutePath();
+        int chunkSize = 1 << chunkShift;
+        int chunkCount = ((rows + chunkSize - 1) >> chunkShift) * ((cols + chunkSize - 1) >> chunkShift);
+        long dataOffset = dataOffset(chunkCount);
+        int chunkCells = chunkSize * chunkSize;
+
+        Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".part");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer fixed = ByteBuffer.allocate(CHUNK_TABLE_OFFSET);
+                fixed.put(MapData.MAGIC).put((byte) FORMAT_VERSION).put((byte) chunkShift).putShort((short) 0);
+                fixed.putInt(rows).putInt(cols).putInt(palette.size()).putInt(0);
+                writePalette(fixed, PALETTE_OFFSET, palette);
+                writeFully(channel, fixed.clear(), 0);
+
+                ByteBuffer table = ByteBuffer.allocate(chunkCount * 2);
+                byte[] scratch = new byte[chunkCells];
+                for (int chunk = 0; chunk < chunkCount; chunk++) {
+                    byte[] cells = chunks.cells(chunk, scratch);
+                    byte fill = cells != null ? mostCommon(cells) : chunks.fill(chunk);
+                    boolean uniform = cells == null || isUniform(cells);
+                    table.put(fill).put((byte) (uniform ? 1 : 0));
+                    if (!uniform) {
+                        writeFully(channel, ByteBuffer.wrap(cells), dataOffset + (long) chunk * chunkCells);
+                    } else if (fill != 0) {
+                        Arrays.fill(scratch, fill);
+                        writeFully(channel, ByteBuffer.wrap(scratch), dataOffset + (long) chunk * chunkCells);
+                    }
+                }
+                writeFully(channel, table.flip(), CHUNK_TABLE_OFFSET);
+                // Make sure the file covers the last chunk even if it was left unwritten
+                long length = dataOffset + (long) chunkCount * chunkCells;
+                if (channel.size() < length) {
+                    writeFully(channel, ByteBuffer.allocate(1), length - 1);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Writes the given chunks and the palette over this container's own file, in place.
+     * Only the pages of those chunks and of the header change on disk.
+     */
+    void update(List<String> palette, int[] changedChunks, ChunkWriter chunks) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            ByteBuffer paletteBytes = ByteBuffer.allocate(CHUNK_TABLE_OFFSET - PALETTE_OFFSET);
+            writePalette(paletteBytes, 0, palette);
+            writeFully(channel, ByteBuffer.allocate(4).putInt(0, palette.size()), 16);
+            writeFully(channel, paletteBytes.clear(), PALETTE_OFFSET);
+
+            byte[] scratch = new byte[chunkCells];
+            ByteBuffer entry = ByteBuffer.allocate(2);
+            for (int chunk : changedChunks) {
+                byte[] cells = chunks.cells(chunk, scratch);
+                if (cells == null) {
+                    Arrays.fill(scratch, chunks.fill(chunk));
+                    cells = scratch;
+                }
+                writeFully(channel, ByteBuffer.wrap(cells), dataOffset + (long) chunk * chunkCells);
+                entry.clear().put(mostCommon(cells)).put((byte) (isUniform(cells) ? 1 : 0));
+                writeFully(channel, entry.flip(), CHUNK_TABLE_OFFSET + chunk * 2L);
+            }
+            channel.force(true);
+        }
+    }
+
+    // Writes the palette slots into out, starting at index base
+    private static void writePalette(ByteBuffer out, int base, List<String> palette) throws IOException {
+        for (int i = 0; i < palette.size(); i++) {
+            byte[] colour = palette.get(i).getBytes(StandardCharsets.UTF_8);
+            if (colour.length >= PALETTE_SLOT_SIZE) {
+                throw new IOException("Colour name too long for a map file: " + palette.get(i));
+            }
+            int slot = base + i * PALETTE_SLOT_SIZE;
+            out.put(slot, (byte) colour.length).put(slot + 1, colour);
+        }
+    }
+
+    private static long dataOffset(long chunkCount) {
+        long tableEnd = CHUNK_TABLE_OFFSET + chunkCount * 2;
+        return (tableEnd + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static boolean isUniform(byte[] cells) {
+        for (byte cell : cells) {
+            if (cell != cells[0]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte mostCommon(byte[] cells) {
+        int[] counts = new int[PALETTE_SLOTS];
+        int best = 0;
+        for (byte cell : cells) {
+            int index = cell & 0xFF;
+            if (++counts[index] > counts[best]) {
+                best = index;
+            }
+        }
+        return (byte) best;
+    }
+}
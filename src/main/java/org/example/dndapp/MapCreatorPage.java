@@ -1,8 +1,7 @@
 package org.example.dndapp;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import javafx.application.Application;
+import javafx.concurrent.Task;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -11,8 +10,10 @@ import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Button;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextField;
 import javafx.scene.control.ScrollPane;
+import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.StackPane;
@@ -24,42 +25,53 @@ import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Random;
-import java.util.concurrent.ThreadLocalRandom;
 
 public class MapCreatorPage extends Application {
     private Stage primaryStage;
     private Scene previousScene;
 
-    private static final int COL_COUNT = 100;
-    private static final int ROW_COUNT = 100;
+    private static final int DEFAULT_MAP_SIZE = 100;
     private static final int HEX_SIZE = 10;
+    // Maps bigger than this are shown through a canvas of this size and panned with the right mouse button
+    private static final double MAX_CANVAS_WIDTH = 2048;
+    private static final double MAX_CANVAS_HEIGHT = 2048;
     // New directory for DM-created maps
     private static final String MY_MAPS_DIRECTORY = "src/main/resources/my-maps";
 
-    private final double hexHeight = HEX_SIZE * Math.sqrt(3);
-    private final double hexWidth = HEX_SIZE * 2;
+    private static final HexGeometry GEOMETRY = new HexGeometry(HEX_SIZE);
+    // Scratch buffers reused by drawHex; only touched on the FX thread
+    private final double[] xPoints = new double[6];
+    private final double[] yPoints = new double[6];
 
     private Canvas canvas;
     private GraphicsContext gc;
-    private String selectedColorHex = "#008000";
-    private List<String> currentMapData;
+    private byte selectedTerrain = MapData.GRASS;
+    private MapData currentMap;
+    private MapColors currentColors;
+    // Size of currentMap
+    private int colCount;
+    private int rowCount;
+    // Map pixel shown at the canvas' top-left corner
+    private double cameraX = 0;
+    private double cameraY = 0;
+    private double dragStartX;
+    private double dragStartY;
+    private ComboBox<String> mapSizeComboBox;
     private Label statusLabel;
     private TextField mapNameInput;
-    private Random random = new Random();
+    private Button generateButton;
+    private TextField seedInput;
+    private ProgressBar generationProgress;
 
     public MapCreatorPage(Stage primaryStage, Scene previousScene) {
         this.primaryStage = primaryStage;
         this.previousScene = previousScene;
-        this.currentMapData = new ArrayList<>();
-        for (int i = 0; i < COL_COUNT * ROW_COUNT; i++) {
-            this.currentMapData.add("#222222");
-        }
+        this.currentMap = new MapData(DEFAULT_MAP_SIZE, DEFAULT_MAP_SIZE);
+        this.currentColors = new MapColors(currentMap);
+        this.colCount = DEFAULT_MAP_SIZE;
+        this.rowCount = DEFAULT_MAP_SIZE;
     }
 
     @Override
@@ -92,14 +104,24 @@ public class MapCreatorPage extends Application {
 
         HBox generationControls = new HBox(10);
         generationControls.setAlignment(Pos.CENTER);
-        Button generateButton = new Button("Generate");
+        generateButton = new Button("Generate");
         generateButton.setStyle("-fx-background-color: #007bff; -fx-text-fill: white; -fx-font-weight: bold; -fx-border-radius: 5; -fx-padding: 5 15;");
         ComboBox<String> mapTypeComboBox = new ComboBox<>();
-        mapTypeComboBox.getItems().addAll("Town", "City", "Overworld", "Battle", "Cave", "Dungeon");
+        mapTypeComboBox.getItems().addAll(MapGenerator.TYPES);
         mapTypeComboBox.getSelectionModel().selectFirst();
         mapTypeComboBox.setStyle("-fx-background-color: #333; -fx-text-fill: #fff;");
+        mapSizeComboBox = new ComboBox<>();
+        mapSizeComboBox.getItems().addAll("100 x 100", "250 x 250", "500 x 500", "1000 x 1000", "2000 x 2000", "5000 x 5000");
+        mapSizeComboBox.getSelectionModel().selectFirst();
+        mapSizeComboBox.setStyle("-fx-background-color: #333; -fx-text-fill: #fff;");
+        seedInput = new TextField();
+        seedInput.setPromptText("Seed (optional)");
+        seedInput.setMaxWidth(150);
+        seedInput.setStyle("-fx-background-color: #333; -fx-text-fill: #fff; -fx-prompt-text-fill: #888;");
+        generationProgress = new ProgressBar(0);
+        generationProgress.setVisible(false);
         generateButton.setOnAction(e -> generateMap(mapTypeComboBox.getValue()));
-        generationControls.getChildren().addAll(generateButton, mapTypeComboBox);
+        generationControls.getChildren().addAll(generateButton, mapTypeComboBox, mapSizeComboBox, seedInput, generationProgress);
 
         HBox fileControls = new HBox(10);
         fileControls.setAlignment(Pos.CENTER);
@@ -132,19 +154,25 @@ public class MapCreatorPage extends Application {
         colorPickerComboBox.setOnAction(e -> {
             String selected = colorPickerComboBox.getValue();
             switch (selected) {
-                case "Green (grass)": selectedColorHex = "#008000"; break;
-                case "Blue (water)": selectedColorHex = "#0000FF"; break;
-                case "Black (out of bounds)": selectedColorHex = "#000000"; break;
-                case "Brown (path/dirt)": selectedColorHex = "#A52A2A"; break;
-                case "Red (hazard/house)": selectedColorHex = "#FF0000"; break;
-                case "Grey (stone)": selectedColorHex = "#808080"; break;
+                case "Green (grass)": selectedTerrain = MapData.GRASS; break;
+                case "Blue (water)": selectedTerrain = MapData.WATER; break;
+                case "Black (out of bounds)": selectedTerrain = MapData.OUT_OF_BOUNDS; break;
+                case "Brown (path/dirt)": selectedTerrain = MapData.DIRT; break;
+                case "Red (hazard/house)": selectedTerrain = MapData.HOUSE; break;
+                case "Grey (stone)": selectedTerrain = MapData.STONE; break;
             }
         });
         colorControls.getChildren().addAll(paintLabel, colorPickerComboBox);
 
-        canvas = new Canvas((COL_COUNT * 1.5 + 0.5) * HEX_SIZE, (ROW_COUNT + 0.5) * hexHeight);
+        canvas = new Canvas();
         gc = canvas.getGraphicsContext2D();
+        resizeCanvas();
         canvas.setOnMouseClicked(this::handleCanvasClick);
+        canvas.setOnMousePressed(e -> {
+            dragStartX = e.getX();
+            dragStartY = e.getY();
+        });
+        canvas.setOnMouseDragged(this::handleCanvasDrag);
 
         ScrollPane scrollPane = new ScrollPane();
         scrollPane.setContent(mainContent);
@@ -170,33 +198,54 @@ public class MapCreatorPage extends Application {
     }
 
     private void handleCanvasClick(MouseEvent event) {
-        double mouseX = event.getX();
-        double mouseY = event.getY();
-
-        double q = Math.floor((mouseX / (HEX_SIZE * 1.5)));
-        double rOffset = (q % 2) * (hexHeight / 2);
-        double r = Math.floor((mouseY - rOffset) / hexHeight);
-
-        if (q >= 0 && q < COL_COUNT && r >= 0 && r < ROW_COUNT) {
-            int index = (int) (r * COL_COUNT + q);
-            if (index < currentMapData.size()) {
-                currentMapData.set(index, selectedColorHex);
-                drawHex((int) q, (int) r, Color.web(selectedColorHex));
-            }
+        if (event.getButton() != MouseButton.PRIMARY) {
+            return;
+        }
+        int[] hex = GEOMETRY.hexAt(cameraX + event.getX(), cameraY + event.getY());
+        int q = hex[0];
+        int r = hex[1];
+
+        if (q >= 0 && q < colCount && r >= 0 && r < rowCount) {
+            currentMap.set(q, r, selectedTerrain);
+            drawHex(q, r, currentColors.color(selectedTerrain));
         }
     }
 
-    private void drawHex(int q, int r, Color color) {
-        double xOffset = q * HEX_SIZE * 1.5;
-        double yOffset = r * hexHeight + (q % 2) * (hexHeight / 2);
-        double x = hexWidth / 2 + xOffset;
-        double y = hexHeight / 2 + yOffset;
+    // Pans maps too big for the canvas
+    private void handleCanvasDrag(MouseEvent event) {
+        if (event.getButton() == MouseButton.PRIMARY) {
+            return;
+        }
+        double maxX = Math.max(0, GEOMETRY.gridWidth(colCount) - canvas.getWidth());
+        double maxY = Math.max(0, GEOMETRY.gridHeight(rowCount) - canvas.getHeight());
+        cameraX = Math.max(0, Math.min(maxX, cameraX - (event.getX() - dragStartX)));
+        cameraY = Math.max(0, Math.min(maxY, cameraY - (event.getY() - dragStartY)));
+        dragStartX = event.getX();
+        dragStartY = event.getY();
+        drawGrid();
+    }
+
+    // Sizes the canvas to the current map, up to the maximum, and starts at its top-left corner
+    private void resizeCanvas() {
+        canvas.setWidth(Math.min(MAX_CANVAS_WIDTH, GEOMETRY.gridWidth(colCount)));
+        canvas.setHeight(Math.min(MAX_CANVAS_HEIGHT, GEOMETRY.gridHeight(rowCount)));
+        cameraX = 0;
+        cameraY = 0;
+    }
+
+    private void setCurrentMap(MapData map) {
+        currentMap = map;
+        currentColors = new MapColors(map);
+        colCount = map.getColCount();
+        rowCount = map.getRowCount();
+        resizeCanvas();
+    }
 
-        double[] xPoints = new double[6];
-        double[] yPoints = new double[6];
+    private void drawHex(int q, int r, Color color) {
+        GEOMETRY.corners(q, r, xPoints, yPoints);
         for (int i = 0; i < 6; i++) {
-            xPoints[i] = x + HEX_SIZE * Math.cos(Math.toRadians(60 * i));
-            yPoints[i] = y + HEX_SIZE * Math.sin(Math.toRadians(60 * i));
+            xPoints[i] -= cameraX;
+            yPoints[i] -= cameraY;
         }
 
         gc.setFill(color);
@@ -205,326 +254,81 @@ public class MapCreatorPage extends Application {
         gc.strokePolygon(xPoints, yPoints, 6);
     }
 
+    // Draws the hexes on the canvas; only their chunks are read from a map opened from disk
     private void drawGrid() {
-        for (int r = 0; r < ROW_COUNT; r++) {
-            for (int q = 0; q < COL_COUNT; q++) {
-                int index = r * COL_COUNT + q;
-                if (index < currentMapData.size()) {
-                    Color color = Color.web(currentMapData.get(index));
-                    drawHex(q, r, color);
-                }
+        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        int firstQ = Math.max(0, GEOMETRY.firstColumnIn(cameraX));
+        int lastQ = Math.min(colCount - 1, GEOMETRY.lastColumnIn(cameraX + canvas.getWidth()));
+        int firstR = Math.max(0, GEOMETRY.firstRowIn(cameraY));
+        int lastR = Math.min(rowCount - 1, GEOMETRY.lastRowIn(cameraY + canvas.getHeight()));
+        for (int r = firstR; r <= lastR; r++) {
+            for (int q = firstQ; q <= lastQ; q++) {
+                drawHex(q, r, currentColors.colorAt(q, r));
             }
         }
     }
 
     private void clearMap() {
-        for (int i = 0; i < currentMapData.size(); i++) {
-            currentMapData.set(i, "#222222");
-        }
+        currentMap.fill(MapData.EMPTY);
         drawGrid();
         statusLabel.setText("Map cleared.");
         statusLabel.setTextFill(Color.web("#d3d3d3"));
     }
 
+    /**
+     * Generates a map of the chosen type and size on a background thread. The seed field makes it
+     * reproducible; left empty, a random seed is picked and shown there afterwards.
+     */
     private void generateMap(String mapType) {
-        currentMapData.clear();
-        for (int i = 0; i < COL_COUNT * ROW_COUNT; i++) {
-            currentMapData.add("#222222");
-        }
-
-        switch (mapType) {
-            case "Town":
-                generateTown();
-                break;
-            case "City":
-                generateCity();
-                break;
-            case "Overworld":
-                generateOverworld();
-                break;
-            case "Battle":
-                generateBattle();
-                break;
-            case "Cave":
-                generateCave();
-                break;
-            case "Dungeon":
-                generateDungeon();
-                break;
-            default:
-                break;
-        }
-
-        drawGrid();
-        statusLabel.setText(mapType + " map generated.");
-        statusLabel.setTextFill(Color.web("#d3d3d3"));
-    }
-
-    private void generateTown() {
-        for (int i = 0; i < COL_COUNT * ROW_COUNT; i++) {
-            currentMapData.set(i, "#008000"); // Green base
-        }
-
-        int houseCount = random.nextInt(6) + 5; // 5 to 10 houses
-        List<int[]> housePositions = new ArrayList<>();
-        int attempts = 0;
-
-        int townSizeX = 40;
-        int townSizeY = 40;
-        int townStartX = COL_COUNT / 2 - townSizeX / 2;
-        int townStartY = ROW_COUNT / 2 - townSizeY / 2;
-
-        while (housePositions.size() < houseCount && attempts < 100) {
-            int houseWidth = random.nextInt(7) + 4;
-            int houseHeight = random.nextInt(7) + 4;
-            int startX = townStartX + random.nextInt(townSizeX - houseWidth);
-            int startY = townStartY + random.nextInt(townSizeY - houseHeight);
-
-            boolean overlaps = false;
-            for (int[] pos : housePositions) {
-                if (startX < pos[0] + pos[2] && startX + houseWidth > pos[0] &&
-                        startY < pos[1] + pos[3] && startY + houseHeight > pos[1]) {
-                    overlaps = true;
-                    break;
-                }
-            }
-
-            if (!overlaps) {
-                housePositions.add(new int[]{startX, startY, houseWidth, houseHeight});
-                for (int y = startY; y < startY + houseHeight; y++) {
-                    for (int x = startX; x < startX + houseWidth; x++) {
-                        currentMapData.set(y * COL_COUNT + x, "#FF0000"); // Red house
-                    }
-                }
-            }
-            attempts++;
-        }
-
-        // Generate stone paths
-        for (int y = townStartY; y < townStartY + townSizeY; y++) {
-            for (int x = townStartX; x < townStartX + townSizeX; x++) {
-                if (!currentMapData.get(y * COL_COUNT + x).equals("#FF0000")) {
-                    currentMapData.set(y * COL_COUNT + x, "#808080");
-                }
-            }
-        }
-    }
-
-    private void generateCity() {
-        for (int i = 0; i < COL_COUNT * ROW_COUNT; i++) {
-            currentMapData.set(i, "#008000"); // Green base
-        }
-
-        // Castle
-        int castleSize = 15;
-        int castleStartX = COL_COUNT / 2 - castleSize / 2;
-        int castleStartY = ROW_COUNT / 2 - castleSize / 2;
-        for (int y = castleStartY; y < castleStartY + castleSize; y++) {
-            for (int x = castleStartX; x < castleStartX + castleSize; x++) {
-                currentMapData.set(y * COL_COUNT + x, "#808080"); // Grey castle
-            }
-        }
-
-        // Moat
-        for (int y = castleStartY - 1; y <= castleStartY + castleSize; y++) {
-            for (int x = castleStartX - 1; x <= castleStartX + castleSize; x++) {
-                if ((x == castleStartX - 1 || x == castleStartX + castleSize ||
-                        y == castleStartY - 1 || y == castleStartY + castleSize) &&
-                        (y * COL_COUNT + x) >= 0 && (y * COL_COUNT + x) < COL_COUNT*ROW_COUNT) {
-                    currentMapData.set(y * COL_COUNT + x, "#0000FF"); // Blue
-                }
-            }
-        }
-
-        // Moat gap (2 tiles wide, facing south)
-        currentMapData.set((castleStartY + castleSize) * COL_COUNT + (castleStartX + castleSize / 2 -1), "#808080");
-        currentMapData.set((castleStartY + castleSize) * COL_COUNT + (castleStartX + castleSize / 2), "#808080");
-    }
-
-    private void generateOverworld() {
-        for (int i = 0; i < COL_COUNT * ROW_COUNT; i++) {
-            currentMapData.set(i, "#008000"); // Green
-        }
-        // Rivers
-        int riverCount = random.nextInt(3) + 2;
-        for (int i = 0; i < riverCount; i++) {
-            int startX = random.nextInt(COL_COUNT);
-            int startY = 0;
-            int endX = random.nextInt(COL_COUNT);
-            int endY = ROW_COUNT - 1;
-            drawPath(startX, startY, endX, endY, random.nextInt(3) + 2, "#0000FF");
-        }
-        // Lakes
-        int lakeCount = random.nextInt(4) + 3;
-        for (int i = 0; i < lakeCount; i++) {
-            int startX = random.nextInt(COL_COUNT);
-            int startY = random.nextInt(ROW_COUNT);
-            int radius = random.nextInt(4) + 3;
-            drawCircle(startX, startY, radius, "#0000FF");
-        }
-        // Towns and Cities
-        int townCount = random.nextInt(6) + 10;
-        int cityCount = random.nextInt(3) + 3;
-        List<int[]> settlements = new ArrayList<>();
-        for (int i = 0; i < townCount; i++) {
-            int x = random.nextInt(COL_COUNT);
-            int y = random.nextInt(ROW_COUNT);
-            currentMapData.set(y * COL_COUNT + x, "#FF0000");
-            settlements.add(new int[]{x, y});
-        }
-        for (int i = 0; i < cityCount; i++) {
-            int x = random.nextInt(COL_COUNT);
-            int y = random.nextInt(ROW_COUNT);
-            currentMapData.set(y * COL_COUNT + x, "#808080");
-            settlements.add(new int[]{x, y});
-        }
-        // Paths
-        for (int[] start : settlements) {
-            int[] nearest = null;
-            double minDist = Double.MAX_VALUE;
-            for (int[] end : settlements) {
-                if (start != end) {
-                    double dist = Math.sqrt(Math.pow(start[0] - end[0], 2) + Math.pow(start[1] - end[1], 2));
-                    if (dist < minDist) {
-                        minDist = dist;
-                        nearest = end;
-                    }
-                }
-            }
-            if (nearest != null) {
-                drawPath(start[0], start[1], nearest[0], nearest[1], 1, "#A52A2A");
-            }
-        }
-    }
-
-    private void generateBattle() {
-        for (int i = 0; i < COL_COUNT * ROW_COUNT; i++) {
-            currentMapData.set(i, "#008000"); // Green
-        }
-        // River
-        if (random.nextDouble() < 0.1) {
-            int startY = ROW_COUNT / 2 - 5;
-            for (int y = startY; y < startY + 10; y++) {
-                for (int x = 0; x < COL_COUNT; x++) {
-                    currentMapData.set(y * COL_COUNT + x, "#0000FF");
-                }
-            }
-            // Path through river
-            int startX = COL_COUNT / 2 - 2;
-            for (int x = startX; x < startX + 4; x++) {
-                for (int y = 0; y < ROW_COUNT; y++) {
-                    currentMapData.set(y * COL_COUNT + x, "#A52A2A");
-                }
-            }
-            // Hazards
-            int hazardCount = random.nextInt(7) + 4;
-            for (int i = 0; i < hazardCount; i++) {
-                int x = random.nextInt(COL_COUNT);
-                int y = random.nextInt(startY);
-                currentMapData.set(y * COL_COUNT + x, "#FF0000");
-            }
+        // "250 x 250" -> columns x rows
+        String[] size = mapSizeComboBox.getValue().split(" x ");
+        int cols = Integer.parseInt(size[0]);
+        int rows = Integer.parseInt(size[1]);
+        long seed;
+        String seedText = seedInput.getText().trim();
+        if (seedText.isEmpty()) {
+            seed = new Random().nextLong();
         } else {
-            // Hazards
-            int hazardCount = random.nextInt(7) + 4;
-            for (int i = 0; i < hazardCount; i++) {
-                int x = random.nextInt(COL_COUNT);
-                int y = random.nextInt(ROW_COUNT);
-                currentMapData.set(y * COL_COUNT + x, "#FF0000");
+            try {
+                seed = Long.parseLong(seedText);
+            } catch (NumberFormatException e) {
+                // Any text works as a seed
+                seed = seedText.hashCode();
             }
         }
-    }
-
-    private void generateCave() {
-        for (int i = 0; i < COL_COUNT * ROW_COUNT; i++) {
-            currentMapData.set(i, "#444444"); // Dark grey
-        }
-
-        int chamberCount = random.nextInt(10) + 5;
-        List<int[]> chamberCenters = new ArrayList<>();
-        int startX = COL_COUNT / 2;
-        int startY = ROW_COUNT - 10;
-        chamberCenters.add(new int[]{startX, startY});
-        drawCircle(startX, startY, random.nextInt(5) + 5, "#888888");
-
-        for (int i = 1; i < chamberCount; i++) {
-            int[] previousCenter = chamberCenters.get(i - 1);
-            int nextX = previousCenter[0] + random.nextInt(40) - 20;
-            int nextY = previousCenter[1] - random.nextInt(20) - 10;
-            drawCircle(nextX, nextY, random.nextInt(5) + 5, "#888888");
-            drawPath(previousCenter[0], previousCenter[1], nextX, nextY, random.nextInt(4) + 2, "#888888");
-            chamberCenters.add(new int[]{nextX, nextY});
-        }
-    }
 
-    private void generateDungeon() {
-        for (int i = 0; i < COL_COUNT * ROW_COUNT; i++) {
-            currentMapData.set(i, "#333333"); // Darker grey
-        }
-        int centerX = COL_COUNT / 2;
-        int centerY = ROW_COUNT / 2;
-
-        List<int[]> roomsToGenerate = new ArrayList<>();
-        roomsToGenerate.add(new int[]{centerX, centerY});
-
-        while (!roomsToGenerate.isEmpty()) {
-            int[] currentRoom = roomsToGenerate.remove(0);
-            int roomX = currentRoom[0];
-            int roomY = currentRoom[1];
-            int roomWidth = random.nextInt(10) + 5;
-            int roomHeight = random.nextInt(10) + 5;
-            int startX = roomX - roomWidth / 2;
-            int startY = roomY - roomHeight / 2;
-
-            for (int j = startY; j < startY + roomHeight; j++) {
-                for (int i = startX; i < startX + roomWidth; i++) {
-                    if (i >= 0 && i < COL_COUNT && j >= 0 && j < ROW_COUNT) {
-                        currentMapData.set(j * COL_COUNT + i, "#666666"); // Lighter grey
-                    }
-                }
+        MapGenerator generator = new MapGenerator(seed, cols, rows);
+        Task<MapData> task = new Task<>() {
+            @Override
+            protected MapData call() {
+                return generator.generate(mapType, done -> updateProgress(done, 1));
             }
+        };
+        long usedSeed = seed;
+        task.setOnSucceeded(e -> {
+            setCurrentMap(task.getValue());
+            drawGrid();
+            seedInput.setText(seedText.isEmpty() ? Long.toString(usedSeed) : seedText);
+            generateButton.setDisable(false);
+            generationProgress.setVisible(false);
+            statusLabel.setText(mapType + " map generated (seed " + usedSeed + ").");
+            statusLabel.setTextFill(Color.web("#d3d3d3"));
+        });
+        task.setOnFailed(e -> {
+            generateButton.setDisable(false);
+            generationProgress.setVisible(false);
+            statusLabel.setText("Error generating map: " + task.getException().getMessage());
+            statusLabel.setTextFill(Color.RED);
+        });
 
-            for (int i = 0; i < 4; i++) {
-                if (random.nextDouble() < 0.5) {
-                    int nextX = roomX;
-                    int nextY = roomY;
-                    switch (i) {
-                        case 0: nextX = startX - 5; break;
-                        case 1: nextX = startX + roomWidth + 5; break;
-                        case 2: nextY = startY - 5; break;
-                        case 3: nextY = startY + roomHeight + 5; break;
-                    }
-                    if (nextX >= 0 && nextX < COL_COUNT && nextY >= 0 && nextY < ROW_COUNT &&
-                            currentMapData.get(nextY * COL_COUNT + nextX).equals("#333333")) {
-                        drawPath(roomX, roomY, nextX, nextY, 1, "#666666");
-                        roomsToGenerate.add(new int[]{nextX, nextY});
-                    }
-                }
-            }
-        }
-    }
-
-    private void drawPath(int startX, int startY, int endX, int endY, int thickness, String color) {
-        double dx = endX - startX;
-        double dy = endY - startY;
-        double steps = Math.max(Math.abs(dx), Math.abs(dy));
-        double xIncrement = dx / steps;
-        double yIncrement = dy / steps;
-        for (int i = 0; i <= steps; i++) {
-            int x = (int) (startX + i * xIncrement);
-            int y = (int) (startY + i * yIncrement);
-            drawCircle(x, y, thickness / 2, color);
-        }
-    }
-
-    private void drawCircle(int centerX, int centerY, int radius, String color) {
-        for (int y = centerY - radius; y <= centerY + radius; y++) {
-            for (int x = centerX - radius; x <= centerX + radius; x++) {
-                double distance = Math.sqrt(Math.pow(x - centerX, 2) + Math.pow(y - centerY, 2));
-                if (distance <= radius && x >= 0 && x < COL_COUNT && y >= 0 && y < ROW_COUNT) {
-                    currentMapData.set(y * COL_COUNT + x, color);
-                }
-            }
-        }
+        generateButton.setDisable(true);
+        generationProgress.progressProperty().bind(task.progressProperty());
+        generationProgress.setVisible(true);
+        statusLabel.setText("Generating " + mapType + " map...");
+        statusLabel.setTextFill(Color.web("#d3d3d3"));
+        Thread thread = new Thread(task, "map-generator");
+        thread.setDaemon(true);
+        thread.start();
     }
 
     private void saveMap() {
@@ -544,11 +348,10 @@ public class MapCreatorPage extends Application {
             }
         }
 
-        File file = new File(directory, mapName + ".json");
-        try (FileWriter writer = new FileWriter(file)) {
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            MapData mapData = new MapData(ROW_COUNT, COL_COUNT, currentMapData);
-            gson.toJson(mapData, writer);
+        File file = new File(directory, mapName + MapData.FILE_EXTENSION);
+        try {
+            // Saving back to the map's own file only rewrites the chunks painted since it was opened
+            currentMap.saveContainer(file);
             statusLabel.setText("Map saved successfully to " + file.getName());
             statusLabel.setTextFill(Color.GREEN);
         } catch (IOException ex) {
@@ -560,7 +363,7 @@ public class MapCreatorPage extends Application {
     private void loadMap() {
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Load Map File");
-        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("JSON Files", "*.json"));
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Map Files", "*" + MapData.FILE_EXTENSION, "*" + MapData.LEGACY_EXTENSION));
         File myMapsDir = new File(MY_MAPS_DIRECTORY);
         if (myMapsDir.exists() && myMapsDir.isDirectory()) {
             fileChooser.setInitialDirectory(myMapsDir);
@@ -568,19 +371,14 @@ public class MapCreatorPage extends Application {
         File file = fileChooser.showOpenDialog(primaryStage);
 
         if (file != null) {
-            try (FileReader reader = new FileReader(file)) {
-                Gson gson = new Gson();
-                MapData mapData = gson.fromJson(reader, MapData.class);
-
-                if (mapData != null && mapData.getGrid() != null && mapData.getGrid().size() == COL_COUNT * ROW_COUNT) {
-                    currentMapData = mapData.getGrid();
-                    drawGrid();
-                    statusLabel.setText("Map loaded successfully from " + file.getName());
-                    statusLabel.setTextFill(Color.GREEN);
-                } else {
-                    statusLabel.setText("Invalid map file format or size.");
-                    statusLabel.setTextFill(Color.RED);
-                }
+            try {
+                // Older JSON maps are converted to the binary format the first time they are opened
+                MapData mapData = MapData.load(MapData.migrate(file));
+
+                setCurrentMap(mapData);
+                drawGrid();
+                statusLabel.setText("Map loaded successfully from " + file.getName() + " (" + colCount + " x " + rowCount + ")");
+                statusLabel.setTextFill(Color.GREEN);
 
             } catch (IOException ex) {
                 statusLabel.setText("Error loading file: " + ex.getMessage());
@@ -1,19 +1,151 @@
 package org.example.dndapp;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
- * Data class to hold map information for saving and loading with Gson.
+ * A hex map of any size, stored as CHUNK_SIZE x CHUNK_SIZE chunks of palette indices.
+ *
+ * Every map starts with the standard terrain palette below, so generators and painting work
+ * with the constants (GRASS, WATER, ...) directly. Colours from loaded files that aren't in it
+ * are appended, up to 256 in total. The palette is kept as "#RRGGBB" strings so the server can
+ * decode maps without JavaFX; renderers draw through a MapColors, which parses each entry once.
+ *
+ * A chunk whose cells are all the same is only a fill value; a byte[] is allocated the first
+ * time one of its cells changes. Chunks of a map opened from a file are read when a cell in them
+ * is first needed (or through loadArea), so memory grows with the part of the map that has been
+ * looked at or edited, not with its total size. Not thread-safe; use a map from one thread.
+ *
+ * Maps are saved as ".dndmap" files:
+ * ["DMAP"][version:u8][headerLength:u32]
+ * [rowCount:varint][colCount:varint][chunkSize:varint]
+ * [paletteSize:varint] then per colour [length:varint][UTF-8 bytes]
+ * then per chunk, row-major over the chunk grid, [fill:varint][payloadLength:varint]
+ * then the payloads in the same order, each runs of [paletteIndex:varint][runLength:varint]
+ * covering the chunk's cells row-major. A chunk with no payload is entirely its fill value;
+ * otherwise fill is its most common value, used to draw it from afar without reading it.
+ * Version 1 files (one run list for the whole grid, no chunk table) and the older
+ * pretty-printed JSON are still read; JSON is migrated on load. Version 3 is the
+ * memory-mapped container the map editor saves to, see MapContainer.
  */
-public class MapData {
-    private int rowCount;
-    private int colCount;
-    private List<String> grid;
+public class MapData implements LineOfSight.Terrain {
+
+    private static final Logger LOGGER = Logger.getLogger(MapData.class.getName());
+
+    public static final String FILE_EXTENSION = ".dndmap";
+    public static final String LEGACY_EXTENSION = ".json";
+    static final byte[] MAGIC = {'D', 'M', 'A', 'P'};
+    private static final int FORMAT_VERSION = 2;
+    private static final int UNCHUNKED_FORMAT_VERSION = 1;
+    // Magic, version and header length
+    private static final int PREFIX_LENGTH = MAGIC.length + 1 + 4;
+    private static final int MAX_PALETTE_SIZE = 256;
+    // Most rows or columns of a map anyone else hands us, the largest size the map creator offers
+    public static final int MAX_SIZE = 5000;
+    // Longest encoding of such a map: runs take at most three bytes a cell, plus the header
+    public static final int MAX_ENCODED_LENGTH = 3 * MAX_SIZE * MAX_SIZE + (1 << 20);
+
+    private static final int CHUNK_SHIFT = 6;
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int CHUNK_CELLS = CHUNK_SIZE * CHUNK_SIZE;
 
-    public MapData(int rowCount, int colCount, List<String> grid) {
+    // Standard terrain, in palette order
+    public static final byte EMPTY = 0;
+    public static final byte GRASS = 1;
+    public static final byte WATER = 2;
+    public static final byte OUT_OF_BOUNDS = 3;
+    public static final byte DIRT = 4;
+    public static final byte HOUSE = 5;
+    public static final byte STONE = 6;
+    public static final byte CAVE_WALL = 7;
+    public static final byte CAVE_FLOOR = 8;
+    public static final byte DUNGEON_WALL = 9;
+    public static final byte DUNGEON_FLOOR = 10;
+    private static final String[] STANDARD_PALETTE = {
+            "#222222", "#008000", "#0000FF", "#000000", "#A52A2A", "#FF0000",
+            "#808080", "#444444", "#888888", "#333333", "#666666"
+    };
+    // Terrain that blocks line of sight; colours added from files don't
+    private static final byte[] OPAQUE_TERRAIN = {OUT_OF_BOUNDS, HOUSE, STONE, CAVE_WALL, DUNGEON_WALL};
+
+    private final int rowCount;
+    private final int colCount;
+    private final int chunkRowCount;
+    private final int chunkColCount;
+    // Cells of each chunk, or null while the chunk is uniform or not read yet
+    private final byte[][] chunks;
+    // Value of every cell of a chunk without cells; for a chunk not read yet, its most common value
+    private final byte[] chunkFill;
+    private final List<String> palette = new ArrayList<>();
+    private final Map<String, Byte> paletteIndex = new HashMap<>();
+    private final boolean[] opaque = new boolean[MAX_PALETTE_SIZE];
+
+    // Where chunks not read yet come from: their payload offsets (-1 once read, or if there is nothing
+    // to read) and lengths in the source, and the source's palette index -> our palette index
+    private ChunkSource source;
+    private long[] chunkOffsets;
+    private int[] chunkLengths;
+    private byte[] sourcePalette;
+    // Or: a container file whose mapping unchanged chunks are read from directly,
+    // and the chunks changed since it was last written
+    private MapContainer container;
+    private BitSet changedChunks;
+
+    // Shape of the JSON files written by older versions
+    private static class LegacyMapData {
+        int rowCount;
+        int colCount;
+        List<String> grid;
+    }
+
+    // Random access to the bytes of a saved map
+    private interface ChunkSource {
+        ByteBuffer read(long offset, int length) throws IOException;
+    }
+
+    /**
+     * Creates an empty map, every cell EMPTY.
+     */
+    public MapData(int rowCount, int colCount) {
+        if (rowCount < 0 || colCount < 0 || (long) rowCount * colCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid map size: " + rowCount + "x" + colCount);
+        }
         this.rowCount = rowCount;
         this.colCount = colCount;
-        this.grid = grid;
+        this.chunkRowCount = (rowCount + CHUNK_MASK) >> CHUNK_SHIFT;
+        this.chunkColCount = (colCount + CHUNK_MASK) >> CHUNK_SHIFT;
+        this.chunks = new byte[chunkRowCount * chunkColCount][];
+        this.chunkFill = new byte[chunks.length];
+        for (String colour : STANDARD_PALETTE) {
+            addColour(colour);
+        }
+        for (byte terrain : OPAQUE_TERRAIN) {
+            opaque[terrain] = true;
+        }
     }
 
     public int getRowCount() {
@@ -24,7 +156,679 @@ public class MapData {
         return colCount;
     }
 
-    public List<String> getGrid() {
-        return grid;
+    public int cellCount() {
+        return rowCount * colCount;
+    }
+
+    public byte get(int index) {
+        return get(index % colCount, index / colCount);
+    }
+
+    public byte get(int q, int r) {
+        int chunk = (r >> CHUNK_SHIFT) * chunkColCount + (q >> CHUNK_SHIFT);
+        byte[] cells = chunks[chunk];
+        int cell = ((r & CHUNK_MASK) << CHUNK_SHIFT) | (q & CHUNK_MASK);
+        if (cells == null) {
+            if (isInContainer(chunk)) {
+                return container.get(chunk, cell);
+            }
+            if (!isPending(chunk)) {
+                return chunkFill[chunk];
+            }
+            cells = loadChunk(chunk);
+        }
+        return cells[cell];
+    }
+
+    public void set(int index, byte terrain) {
+        set(index % colCount, index / colCount, terrain);
+    }
+
+    public void set(int q, int r, byte terrain) {
+        int chunk = (r >> CHUNK_SHIFT) * chunkColCount + (q >> CHUNK_SHIFT);
+        byte[] cells = chunks[chunk];
+        int cell = ((r & CHUNK_MASK) << CHUNK_SHIFT) | (q & CHUNK_MASK);
+        if (cells == null) {
+            if (isInContainer(chunk)) {
+                if (container.get(chunk, cell) == terrain) {
+                    return;
+                }
+                // Copy the chunk out of the read-only mapping; it is written back on the next save
+                cells = new byte[CHUNK_CELLS];
+                container.readChunk(chunk, cells);
+                chunks[chunk] = cells;
+            } else if (isPending(chunk)) {
+                cells = loadChunk(chunk);
+            } else if (chunkFill[chunk] == terrain) {
+                return;
+            } else {
+                cells = new byte[CHUNK_CELLS];
+                Arrays.fill(cells, chunkFill[chunk]);
+                chunks[chunk] = cells;
+            }
+        }
+        cells[cell] = terrain;
+        if (container != null) {
+            changedChunks.set(chunk);
+        }
+    }
+
+    public void fill(byte terrain) {
+        Arrays.fill(chunks, null);
+        Arrays.fill(chunkFill, terrain);
+        source = null;
+        if (container != null) {
+            changedChunks.set(0, chunks.length);
+        }
+    }
+
+    /**
+     * Replaces every cell of a chunk, taking ownership of the array (CHUNK_SIZE rows of
+     * CHUNK_SIZE cells). Meant for generators filling a new map: different chunks may be set
+     * from different threads at once, which is why maps read from a file are refused.
+     */
+    public void setChunk(int chunkCol, int chunkRow, byte[] cells) {
+        if (source != null || container != null) {
+            throw new IllegalStateException("Chunks can only be set on a map that is not backed by a file.");
+        }
+        if (cells.length != CHUNK_CELLS) {
+            throw new IllegalArgumentException("A chunk has " + CHUNK_CELLS + " cells, not " + cells.length);
+        }
+        int chunk = chunkRow * chunkColCount + chunkCol;
+        boolean uniform = true;
+        for (byte cell : cells) {
+            if (cell != cells[0]) {
+                uniform = false;
+                break;
+            }
+        }
+        chunks[chunk] = uniform ? null : cells;
+        chunkFill[chunk] = cells[0];
+    }
+
+    public int paletteSize() {
+        return palette.size();
+    }
+
+    /**
+     * The "#RRGGBB" colour of a palette entry.
+     */
+    public String paletteColour(int index) {
+        return palette.get(index);
+    }
+
+    public boolean isOpaque(byte terrain) {
+        return opaque[terrain & 0xFF];
+    }
+
+    @Override
+    public boolean isOpaque(int q, int r) {
+        return opaque[get(q, r) & 0xFF];
+    }
+
+    public int getChunkRowCount() {
+        return chunkRowCount;
+    }
+
+    public int getChunkColCount() {
+        return chunkColCount;
+    }
+
+    /**
+     * True unless the chunk still has to be read from the map's file.
+     */
+    public boolean isChunkLoaded(int chunkCol, int chunkRow) {
+        return !isPending(chunkRow * chunkColCount + chunkCol);
+    }
+
+    /**
+     * True if every cell of the chunk is known to hold the same terrain, its chunkFill.
+     */
+    public boolean isChunkUniform(int chunkCol, int chunkRow) {
+        int chunk = chunkRow * chunkColCount + chunkCol;
+        if (isInContainer(chunk)) {
+            return container.isChunkUniform(chunk);
+        }
+        return chunks[chunk] == null && !isPending(chunk);
+    }
+
+    /**
+     * The most common terrain of a chunk not read yet (exact for a uniform chunk), for drawing it from afar.
+     */
+    public byte chunkFill(int chunkCol, int chunkRow) {
+        int chunk = chunkRow * chunkColCount + chunkCol;
+        return isInContainer(chunk) ? container.chunkFill(chunk) : chunkFill[chunk];
+    }
+
+    /**
+     * Reads every chunk overlapping the given range of cells that hasn't been read yet,
+     * e.g. the part of the map about to come into view. The range may extend past the map.
+     */
+    public void loadArea(int firstCol, int firstRow, int lastCol, int lastRow) {
+        int firstChunkCol = Math.max(0, firstCol) >> CHUNK_SHIFT;
+        int lastChunkCol = Math.min(colCount - 1, lastCol) >> CHUNK_SHIFT;
+        int firstChunkRow = Math.max(0, firstRow) >> CHUNK_SHIFT;
+        int lastChunkRow = Math.min(rowCount - 1, lastRow) >> CHUNK_SHIFT;
+        for (int chunkRow = firstChunkRow; chunkRow <= lastChunkRow; chunkRow++) {
+            for (int chunkCol = firstChunkCol; chunkCol <= lastChunkCol; chunkCol++) {
+                int chunk = chunkRow * chunkColCount + chunkCol;
+                if (isPending(chunk)) {
+                    loadChunk(chunk);
+                }
+            }
+        }
+    }
+
+    private boolean isPending(int chunk) {
+        return source != null && chunkOffsets[chunk] >= 0;
+    }
+
+    // True if the chunk's cells are to be read from the container's mapping
+    private boolean isInContainer(int chunk) {
+        return container != null && chunks[chunk] == null && !changedChunks.get(chunk);
+    }
+
+    // The chunk's cells, decoding or copying them into scratch if they aren't in memory; null for a uniform chunk
+    private byte[] chunkCells(int chunk, byte[] scratch) {
+        if (chunks[chunk] != null) {
+            return chunks[chunk];
+        }
+        if (isInContainer(chunk)) {
+            container.readChunk(chunk, scratch);
+            return scratch;
+        }
+        if (isPending(chunk)) {
+            readChunk(chunk, scratch);
+            return scratch;
+        }
+        return null;
+    }
+
+    private byte[] loadChunk(int chunk) {
+        byte[] cells = new byte[CHUNK_CELLS];
+        readChunk(chunk, cells);
+        chunkOffsets[chunk] = -1;
+        chunks[chunk] = cells;
+        return cells;
+    }
+
+    // Decodes a chunk from the source into cells. A chunk that can't be read fails rather than
+    // being shown as blank terrain, so a corrupt or changed file doesn't pass for an empty map.
+    private void readChunk(int chunk, byte[] cells) {
+        try {
+            decodeRuns(source.read(chunkOffsets[chunk], chunkLengths[chunk]), cells, 0, CHUNK_CELLS, sourcePalette);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read map chunk " + chunk, e);
+        } catch (BufferUnderflowException e) {
+            throw new UncheckedIOException(new IOException("Corrupt map data in chunk " + chunk, e));
+        }
+    }
+
+    /**
+     * Returns the palette index for a "#RRGGBB" colour, adding it to the palette if needed.
+     */
+    public byte paletteIndex(String colour) {
+        Byte index = paletteIndex.get(colour);
+        return index != null ? index : addColour(colour);
+    }
+
+    private byte addColour(String colour) {
+        if (!isHexColour(colour)) {
+            throw new IllegalArgumentException("Invalid colour: " + colour);
+        }
+        if (palette.size() >= MAX_PALETTE_SIZE) {
+            throw new IllegalStateException("A map can use at most " + MAX_PALETTE_SIZE + " colours.");
+        }
+        byte index = (byte) palette.size();
+        palette.add(colour);
+        paletteIndex.put(colour, index);
+        return index;
+    }
+
+    private static boolean isHexColour(String colour) {
+        if (colour.length() != 7 || colour.charAt(0) != '#') {
+            return false;
+        }
+        for (int i = 1; i < colour.length(); i++) {
+            if (!HexFormat.isHexDigit(colour.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * True for file names either map format can be loaded from.
+     */
+    public static boolean isMapFile(String name) {
+        return name.endsWith(FILE_EXTENSION) || name.endsWith(LEGACY_EXTENSION);
+    }
+
+    /**
+     * True if the bytes are in the binary format rather than legacy JSON.
+     */
+    public static boolean isBinary(byte[] data) {
+        return data.length >= MAGIC.length && Arrays.equals(data, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    /**
+     * Opens a map in any format; the format is detected from the content, not the file name.
+     * Of a chunked map only the header is read here, the chunks are read as they are needed.
+     */
+    public static MapData load(File file) throws IOException {
+        Path path = file.toPath();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer prefix = readFully(channel, 0, (int) Math.min(PREFIX_LENGTH, channel.size()));
+            if (MapContainer.isContainer(prefix.array())) {
+                return fromContainer(MapContainer.open(path, CHUNK_SHIFT));
+            }
+            if (prefix.limit() < PREFIX_LENGTH || !isBinary(prefix.array()) || prefix.get(MAGIC.length) != FORMAT_VERSION) {
+                return fromBytes(Files.readAllBytes(path));
+            }
+            int headerLength = prefix.getInt(MAGIC.length + 1);
+            if (headerLength < PREFIX_LENGTH || headerLength > channel.size()) {
+                throw new IOException("Corrupt map data.");
+            }
+            ByteBuffer header = readFully(channel, 0, headerLength);
+            return readChunked(header, channel.size(), new FileChunkSource(path, channel.size()));
+        }
+    }
+
+    private static MapData fromContainer(MapContainer container) throws IOException {
+        MapData mapData = newMap(container.rowCount(), container.colCount());
+        // Cells are read from the mapping as they are, so the file's palette has to match ours index for index
+        List<String> palette = container.palette();
+        for (int i = 0; i < palette.size(); i++) {
+            if (mapData.paletteIndex(palette.get(i)) != (byte) i) {
+                throw new IOException("Unsupported map palette.");
+            }
+        }
+        mapData.container = container;
+        mapData.changedChunks = new BitSet(mapData.chunks.length);
+        return mapData;
+    }
+
+    /**
+     * Saves the map as a memory-mapped container (see MapContainer), the map editor's format.
+     * If the map was opened from that same file, only the chunks changed since are written,
+     * in place; otherwise the whole file is written and the map reads from it from then on.
+     */
+    public void saveContainer(File file) throws IOException {
+        MapContainer.ChunkWriter writer = new MapContainer.ChunkWriter() {
+            @Override
+            public byte[] cells(int chunk, byte[] scratch) {
+                return chunkCells(chunk, scratch);
+            }
+
+            @Override
+            public byte fill(int chunk) {
+                return chunkFill[chunk];
+            }
+        };
+
+        Path path = file.toPath();
+        if (container != null && container.isAt(path)) {
+            int[] changed = changedChunks.stream().toArray();
+            container.update(palette, changed, writer);
+            // The mapping shows the new content now, so the copies can go
+            for (int chunk : changed) {
+                chunks[chunk] = null;
+            }
+            changedChunks.clear();
+            return;
+        }
+
+        MapContainer.write(path, CHUNK_SHIFT, rowCount, colCount, palette, writer);
+        MapContainer written = MapContainer.open(path, CHUNK_SHIFT);
+        Arrays.fill(chunks, null);
+        source = null;
+        container = written;
+        changedChunks = new BitSet(chunks.length);
+    }
+
+    /**
+     * Writes the map to a file, replacing it in one step. The map keeps reading chunks it
+     * hasn't needed yet from wherever it was opened from, or from this file if that was the same one.
+     */
+    public void save(File file) throws IOException {
+        long[] offsets = new long[chunks.length];
+        int[] lengths = new int[chunks.length];
+        byte[] data = encode(offsets, lengths);
+
+        Path path = file.toPath().toAbsolutePath();
+        Path temp = Files.createTempFile(path.getParent(), file.getName(), ".part");
+        try {
+            Files.write(temp, data);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        // The file we may have been reading from has been replaced, so read the rest from the new one
+        if (source != null) {
+            for (int chunk = 0; chunk < chunks.length; chunk++) {
+                if (!isPending(chunk)) {
+                    offsets[chunk] = -1;
+                }
+            }
+            source = new FileChunkSource(path, data.length);
+            chunkOffsets = offsets;
+            chunkLengths = lengths;
+            sourcePalette = identityPalette(palette.size());
+        }
+    }
+
+    /**
+     * Rewrites a legacy JSON map as a ".dndmap" file next to it and deletes the JSON.
+     * If a ".dndmap" of that name already exists, the new file is numbered rather than
+     * replacing it. Returns the file to use from now on, which is the original file if it
+     * wasn't JSON or couldn't be converted.
+     */
+    public static File migrate(File file) {
+        if (!file.getName().endsWith(LEGACY_EXTENSION)) {
+            return file;
+        }
+        try {
+            byte[] data = Files.readAllBytes(file.toPath());
+            if (isBinary(data)) {
+                return file;
+            }
+            String baseName = file.getName().substring(0, file.getName().length() - LEGACY_EXTENSION.length());
+            File migrated = new File(file.getParentFile(), baseName + FILE_EXTENSION);
+            for (int copy = 2; migrated.exists(); copy++) {
+                migrated = new File(file.getParentFile(), baseName + " (" + copy + ")" + FILE_EXTENSION);
+            }
+            fromBytes(data).save(migrated);
+            Files.delete(file.toPath());
+            LOGGER.info("Migrated map '" + file.getName() + "' to " + migrated.getName());
+            return migrated;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not migrate map '" + file.getName() + "'", e);
+            return file;
+        }
+    }
+
+    /**
+     * Decodes a map in any format. Chunks of a chunked map are decoded as they are needed.
+     */
+    public static MapData fromBytes(byte[] data) throws IOException {
+        if (!isBinary(data)) {
+            return fromJson(data);
+        }
+        if (MapContainer.isContainer(data)) {
+            throw new IOException("Map containers can only be opened from a file.");
+        }
+        if (data.length > MAGIC.length && data[MAGIC.length] == FORMAT_VERSION) {
+            return readChunked(ByteBuffer.wrap(data), data.length, (offset, length) -> ByteBuffer.wrap(data, (int) offset, length));
+        }
+
+        try {
+            ByteBuffer in = ByteBuffer.wrap(data, MAGIC.length, data.length - MAGIC.length);
+            int version = Byte.toUnsignedInt(in.get());
+            if (version != UNCHUNKED_FORMAT_VERSION) {
+                throw new IOException("Unsupported map format version " + version);
+            }
+            MapData mapData = newMap(readVarint(in), readVarint(in));
+            byte[] remap = readPalette(in, mapData);
+
+            int cellCount = mapData.cellCount();
+            int filled = 0;
+            while (filled < cellCount) {
+                int index = readVarint(in);
+                int run = readVarint(in);
+                if (index >= remap.length || run <= 0 || run > cellCount - filled) {
+                    throw new IOException("Corrupt map data.");
+                }
+                for (int end = filled + run; filled < end; filled++) {
+                    mapData.set(filled, remap[index]);
+                }
+            }
+            return mapData;
+        } catch (BufferUnderflowException | IllegalStateException e) {
+            throw new IOException("Corrupt map data: " + e.getMessage(), e);
+        }
+    }
+
+    // Reads the header of a chunked map; its chunks are read from source later
+    private static MapData readChunked(ByteBuffer in, long sourceLength, ChunkSource source) throws IOException {
+        try {
+            in.position(MAGIC.length + 1);
+            int headerLength = in.getInt();
+            if (headerLength < PREFIX_LENGTH || headerLength > sourceLength) {
+                throw new IOException("Corrupt map data.");
+            }
+            in.limit(headerLength);
+            MapData mapData = newMap(readVarint(in), readVarint(in));
+            int chunkSize = readVarint(in);
+            if (chunkSize != CHUNK_SIZE) {
+                throw new IOException("Unsupported map chunk size " + chunkSize);
+            }
+            byte[] remap = readPalette(in, mapData);
+
+            int chunkCount = mapData.chunks.length;
+            long[] offsets = new long[chunkCount];
+            int[] lengths = new int[chunkCount];
+            long offset = headerLength;
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                int fill = readVarint(in);
+                int length = readVarint(in);
+                if (fill >= remap.length || length > sourceLength - offset) {
+                    throw new IOException("Corrupt map data.");
+                }
+                mapData.chunkFill[chunk] = remap[fill];
+                offsets[chunk] = length > 0 ? offset : -1;
+                lengths[chunk] = length;
+                offset += length;
+            }
+            mapData.source = source;
+            mapData.chunkOffsets = offsets;
+            mapData.chunkLengths = lengths;
+            mapData.sourcePalette = remap;
+            return mapData;
+        } catch (BufferUnderflowException | IllegalArgumentException | IllegalStateException e) {
+            throw new IOException("Corrupt map data: " + e.getMessage(), e);
+        }
+    }
+
+    private static MapData newMap(int rows, int cols) throws IOException {
+        if (rows > MAX_SIZE || cols > MAX_SIZE) {
+            throw new IOException("Map too large: " + rows + "x" + cols);
+        }
+        return new MapData(rows, cols);
+    }
+
+    // Reads a file palette into the map's palette; returns file palette index -> our palette index
+    private static byte[] readPalette(ByteBuffer in, MapData mapData) throws IOException {
+        int size = readVarint(in);
+        if (size > MAX_PALETTE_SIZE) {
+            throw new IOException("Corrupt map data.");
+        }
+        byte[] remap = new byte[size];
+        for (int i = 0; i < remap.length; i++) {
+            byte[] colour = new byte[readVarint(in)];
+            in.get(colour);
+            remap[i] = mapData.paletteIndex(new String(colour, StandardCharsets.UTF_8));
+        }
+        return remap;
+    }
+
+    private static void decodeRuns(ByteBuffer in, byte[] cells, int from, int to, byte[] remap) throws IOException {
+        int filled = from;
+        while (filled < to) {
+            int index = readVarint(in);
+            int run = readVarint(in);
+            if (index >= remap.length || run <= 0 || run > to - filled) {
+                throw new IOException("Corrupt map data.");
+            }
+            Arrays.fill(cells, filled, filled + run, remap[index]);
+            filled += run;
+        }
+    }
+
+    private static byte[] identityPalette(int size) {
+        byte[] identity = new byte[size];
+        for (int i = 0; i < size; i++) {
+            identity[i] = (byte) i;
+        }
+        return identity;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Map file ends early.");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static MapData fromJson(byte[] data) throws IOException {
+        LegacyMapData legacy;
+        try {
+            legacy = new Gson().fromJson(new String(data, StandardCharsets.UTF_8), LegacyMapData.class);
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid map file format: " + e.getMessage(), e);
+        }
+        if (legacy == null || legacy.grid == null || legacy.grid.size() != legacy.rowCount * legacy.colCount) {
+            throw new IOException("Invalid map file format or size.");
+        }
+        try {
+            MapData mapData = newMap(legacy.rowCount, legacy.colCount);
+            for (int i = 0; i < legacy.grid.size(); i++) {
+                mapData.set(i, mapData.paletteIndex(legacy.grid.get(i)));
+            }
+            return mapData;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new IOException("Invalid map colour: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Encodes the map in the chunked binary format. Chunks not read yet are decoded one at a
+     * time to be written and not kept, so saving doesn't pull the whole map into memory.
+     */
+    public byte[] toBytes() {
+        return encode(new long[chunks.length], new int[chunks.length]);
+    }
+
+    // Encodes the map and reports where each chunk's payload ended up
+    private byte[] encode(long[] offsets, int[] lengths) {
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        ByteArrayOutputStream payloads = new ByteArrayOutputStream();
+        ByteArrayOutputStream runs = new ByteArrayOutputStream();
+        byte[] scratch = new byte[CHUNK_CELLS];
+        int[] counts = new int[MAX_PALETTE_SIZE];
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            byte[] cells = chunks[chunk];
+            if (cells == null) {
+                cells = chunkCells(chunk, scratch);
+            }
+            runs.reset();
+            int fill = chunkFill[chunk] & 0xFF;
+            if (cells != null) {
+                fill = encodeRuns(cells, runs, counts);
+            }
+            // A single run is a uniform chunk, which the fill value alone describes
+            if (runs.size() > 0 && counts[fill] == CHUNK_CELLS) {
+                runs.reset();
+            }
+            writeVarint(table, fill);
+            writeVarint(table, runs.size());
+            offsets[chunk] = payloads.size();
+            lengths[chunk] = runs.size();
+            payloads.writeBytes(runs.toByteArray());
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        writeVarint(header, rowCount);
+        writeVarint(header, colCount);
+        writeVarint(header, CHUNK_SIZE);
+        writeVarint(header, palette.size());
+        for (String colour : palette) {
+            byte[] bytes = colour.getBytes(StandardCharsets.UTF_8);
+            writeVarint(header, bytes.length);
+            header.writeBytes(bytes);
+        }
+        header.writeBytes(table.toByteArray());
+
+        int headerLength = PREFIX_LENGTH + header.size();
+        ByteBuffer out = ByteBuffer.allocate(headerLength + payloads.size());
+        out.put(MAGIC).put((byte) FORMAT_VERSION).putInt(headerLength);
+        out.put(header.toByteArray()).put(payloads.toByteArray());
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            offsets[chunk] = lengths[chunk] > 0 ? offsets[chunk] + headerLength : -1;
+        }
+        return out.array();
+    }
+
+    // Writes cells as runs and counts each value; returns the most common one
+    private static int encodeRuns(byte[] cells, ByteArrayOutputStream runs, int[] counts) {
+        Arrays.fill(counts, 0);
+        int mostCommon = 0;
+        int i = 0;
+        while (i < cells.length) {
+            byte terrain = cells[i];
+            int end = i + 1;
+            while (end < cells.length && cells[end] == terrain) {
+                end++;
+            }
+            int index = terrain & 0xFF;
+            writeVarint(runs, index);
+            writeVarint(runs, end - i);
+            counts[index] += end - i;
+            if (counts[index] > counts[mostCommon]) {
+                mostCommon = index;
+            }
+            i = end;
+        }
+        return mostCommon;
+    }
+
+    // Unsigned LEB128: 7 bits per byte, high bit set on every byte but the last
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = Byte.toUnsignedInt(in.get());
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("Corrupt map data.");
+                }
+                return value;
+            }
+        }
+        throw new IOException("Corrupt map data.");
+    }
+
+    private static final class FileChunkSource implements ChunkSource {
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+
+        FileChunkSource(Path path, long size) throws IOException {
+            this.path = path;
+            this.size = size;
+            this.lastModified = Files.getLastModifiedTime(path).toMillis();
+        }
+
+        @Override
+        public ByteBuffer read(long offset, int length) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                // Offsets are only valid for the file as it was when the map was opened
+                if (channel.size() != size || Files.getLastModifiedTime(path).toMillis() != lastModified) {
+                    throw new IOException("Map file " + path.getFileName() + " changed on disk.");
+                }
+                return readFully(channel, offset, length);
+            }
+        }
     }
 }
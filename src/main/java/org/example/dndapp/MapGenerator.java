@@ -0,0 +1,588 @@
+package org.example.dndapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Procedural map generation, independent of the UI and meant to run off the FX thread.
+ *
+ * A map is a base terrain plus stamps, rectangles and discs of terrain painted over it in order.
+ * Generation happens in two steps. First the passes of a map type (rivers, lakes, settlements,
+ * ...) plan their stamps, each from its own Random seeded from the map seed and the pass name,
+ * so independent passes are planned in parallel and the map depends on the seed alone. Then
+ * every 64x64 chunk is painted on the fork-join pool from the stamps that touch it, in plan
+ * order, and handed to the map in one piece. The same seed, type and size always give the same map.
+ *
+ * Caves and dungeons are laid out as a FloorPlan, one bit per hex, and painted from that.
+ *
+ * The realistic overworld is computed instead of stamped: elevation and moisture come from
+ * seeded fractal simplex noise, evaluated a chunk at a time over primitive arrays, and each hex
+ * gets the biome of its elevation and moisture.
+ */
+public final class MapGenerator {
+
+    public static final List<String> TYPES = List.of("Town", "City", "Overworld", "Realistic Overworld", "Battle", "Cave", "Dungeon");
+
+    /**
+     * Told how far generation has got, from 0 to 1. Called from worker threads.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void progress(double done);
+    }
+
+    // Overworld and cave features are scaled by the map's size relative to the original 100 x 100 maps
+    private static final int BASE_AREA = 100 * 100;
+    private static final int CHUNK_SIZE = MapData.CHUNK_SIZE;
+    // Share of the progress bar given to planning; painting gets the rest
+    private static final double PLAN_SHARE = 0.2;
+    // Colours of the biomes the standard palette has no terrain for
+    private static final String SHALLOW_WATER = "#3C78D8";
+    private static final String SAND = "#E8D8A0";
+    private static final String DESERT = "#E3C16F";
+    private static final String FOREST = "#1F5F2A";
+    private static final String SWAMP = "#4A5D3A";
+    private static final String HILLS = "#7A8B5A";
+    private static final String SNOW = "#FFFFFF";
+    // Hexes per unit of noise for the largest landforms, as a share of the map's longer side,
+    // and the smallest detail worth adding octaves for
+    private static final double CONTINENT_SHARE = 0.25;
+    private static final double FINEST_DETAIL = 4;
+    // Octaves with wavelengths of at least COARSE_WAVELENGTH hexes are sampled every COARSE_STEP
+    // hexes and interpolated; 8 samples per wave keep the error under 8% of that octave's amplitude
+    private static final int COARSE_STEP = 8;
+    private static final double COARSE_WAVELENGTH = 8 * COARSE_STEP;
+    private static final int COARSE_POINTS = CHUNK_SIZE / COARSE_STEP + 1;
+    private static final double SQRT3 = Math.sqrt(3);
+
+    private final long seed;
+    private final int colCount;
+    private final int rowCount;
+    private final double scale;
+
+    public MapGenerator(long seed, int colCount, int rowCount) {
+        if (colCount <= 0 || rowCount <= 0) {
+            throw new IllegalArgumentException("Invalid map size " + colCount + " x " + rowCount);
+        }
+        this.seed = seed;
+        this.colCount = colCount;
+        this.rowCount = rowCount;
+        this.scale = Math.max(1.0, (double) colCount * rowCount / BASE_AREA);
+    }
+
+    /**
+     * Generates a map of one of TYPES.
+     */
+    public MapData generate(String type, ProgressListener progress) {
+        if (type.equals("Realistic Overworld")) {
+            return generateBiomes(progress);
+        }
+        if (type.equals("Cave")) {
+            FloorPlan plan = FloorPlan.cave(passSeed("cave"), colCount, rowCount);
+            return paint(plan, MapData.CAVE_FLOOR, MapData.CAVE_WALL, progress);
+        }
+        if (type.equals("Dungeon")) {
+            FloorPlan plan = FloorPlan.dungeon(random("dungeon"), colCount, rowCount);
+            return paint(plan, MapData.DUNGEON_FLOOR, MapData.DUNGEON_WALL, progress);
+        }
+        byte base;
+        List<Callable<Stamps>> passes = new ArrayList<>();
+        switch (type) {
+            case "Town" -> {
+                base = MapData.GRASS;
+                passes.add(this::planTown);
+            }
+            case "City" -> {
+                base = MapData.GRASS;
+                passes.add(this::planCity);
+            }
+            case "Overworld" -> {
+                base = MapData.GRASS;
+                passes.add(this::planRivers);
+                passes.add(this::planLakes);
+                passes.add(this::planSettlements);
+            }
+            case "Battle" -> {
+                base = MapData.GRASS;
+                passes.add(this::planBattle);
+            }
+            default -> throw new IllegalArgumentException("Unknown map type " + type);
+        }
+
+        Stamps stamps = new Stamps();
+        try {
+            for (Future<Stamps> pass : ForkJoinPool.commonPool().invokeAll(passes)) {
+                stamps.addAll(pass.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Map generation was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Map generation failed: " + e.getCause().getMessage(), e.getCause());
+        }
+        progress.progress(PLAN_SHARE);
+
+        MapData map = new MapData(rowCount, colCount);
+        map.fill(base);
+        paint(map, base, stamps, progress);
+        progress.progress(1);
+        return map;
+    }
+
+    private void paint(MapData map, byte base, Stamps stamps, ProgressListener progress) {
+        int chunkColCount = map.getChunkColCount();
+        int chunkCount = chunkColCount * map.getChunkRowCount();
+        // Stamp indices per chunk, in plan order
+        int[][] buckets = new int[chunkCount][];
+        int[] bucketSizes = new int[chunkCount];
+        for (int i = 0; i < stamps.count; i++) {
+            int firstCol = Math.max(0, stamps.minX(i)) / CHUNK_SIZE;
+            int lastCol = Math.min(colCount - 1, stamps.maxX(i)) / CHUNK_SIZE;
+            int firstRow = Math.max(0, stamps.minY(i)) / CHUNK_SIZE;
+            int lastRow = Math.min(rowCount - 1, stamps.maxY(i)) / CHUNK_SIZE;
+            for (int chunkRow = firstRow; chunkRow <= lastRow; chunkRow++) {
+                for (int chunkCol = firstCol; chunkCol <= lastCol; chunkCol++) {
+                    int chunk = chunkRow * chunkColCount + chunkCol;
+                    if (buckets[chunk] == null) {
+                        buckets[chunk] = new int[8];
+                    } else if (bucketSizes[chunk] == buckets[chunk].length) {
+                        buckets[chunk] = Arrays.copyOf(buckets[chunk], bucketSizes[chunk] * 2);
+                    }
+                    buckets[chunk][bucketSizes[chunk]++] = i;
+                }
+            }
+        }
+
+        AtomicInteger painted = new AtomicInteger();
+        int reportEvery = Math.max(1, chunkCount / 100);
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+            if (buckets[chunk] != null) {
+                int x0 = chunk % chunkColCount * CHUNK_SIZE;
+                int y0 = chunk / chunkColCount * CHUNK_SIZE;
+                byte[] cells = new byte[CHUNK_SIZE * CHUNK_SIZE];
+                Arrays.fill(cells, base);
+                for (int i = 0; i < bucketSizes[chunk]; i++) {
+                    stamps.paint(buckets[chunk][i], cells, x0, y0, colCount, rowCount);
+                }
+                map.setChunk(chunk % chunkColCount, chunk / chunkColCount, cells);
+            }
+            int done = painted.incrementAndGet();
+            if (done % reportEvery == 0) {
+                progress.progress(PLAN_SHARE + (1 - PLAN_SHARE) * done / chunkCount);
+            }
+        });
+    }
+
+    private MapData paint(FloorPlan plan, byte floor, byte wall, ProgressListener progress) {
+        progress.progress(PLAN_SHARE);
+        MapData map = new MapData(rowCount, colCount);
+        int chunkColCount = map.getChunkColCount();
+        int chunkCount = chunkColCount * map.getChunkRowCount();
+        AtomicInteger painted = new AtomicInteger();
+        int reportEvery = Math.max(1, chunkCount / 100);
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+            int x0 = chunk % chunkColCount * CHUNK_SIZE;
+            int y0 = chunk / chunkColCount * CHUNK_SIZE;
+            byte[] cells = new byte[CHUNK_SIZE * CHUNK_SIZE];
+            Arrays.fill(cells, wall);
+            for (int y = y0; y < Math.min(y0 + CHUNK_SIZE, rowCount); y++) {
+                for (int x = x0; x < Math.min(x0 + CHUNK_SIZE, colCount); x++) {
+                    if (plan.isFloor(x, y)) {
+                        cells[(y - y0) * CHUNK_SIZE + x - x0] = floor;
+                    }
+                }
+            }
+            map.setChunk(chunk % chunkColCount, chunk / chunkColCount, cells);
+            int done = painted.incrementAndGet();
+            if (done % reportEvery == 0) {
+                progress.progress(PLAN_SHARE + (1 - PLAN_SHARE) * done / chunkCount);
+            }
+        });
+        progress.progress(1);
+        return map;
+    }
+
+    /**
+     * Elevation and moisture from fractal noise, classified into biomes. Hexes are sampled at
+     * their centres in hex-size units, so landforms don't stretch along either axis, and the
+     * land sinks towards the map's edges so the map reads as a continent with coasts.
+     */
+    private MapData generateBiomes(ProgressListener progress) {
+        MapData map = new MapData(rowCount, colCount);
+        // Palette entries are added up front; the workers only read them
+        byte deepWater = MapData.WATER;
+        byte shallowWater = map.paletteIndex(SHALLOW_WATER);
+        byte sand = map.paletteIndex(SAND);
+        byte desert = map.paletteIndex(DESERT);
+        byte grass = MapData.GRASS;
+        byte forest = map.paletteIndex(FOREST);
+        byte swamp = map.paletteIndex(SWAMP);
+        byte hills = map.paletteIndex(HILLS);
+        byte mountain = MapData.STONE;
+        byte snow = map.paletteIndex(SNOW);
+
+        SimplexNoise elevationNoise = new SimplexNoise(passSeed("elevation"));
+        SimplexNoise moistureNoise = new SimplexNoise(passSeed("moisture"));
+        double continentSize = Math.max(colCount, rowCount) * CONTINENT_SHARE;
+        double frequency = 1 / continentSize;
+        int octaves = octavesDownTo(continentSize, FINEST_DETAIL);
+        int coarseOctaves = Math.min(octaves, octavesDownTo(continentSize, COARSE_WAVELENGTH));
+        // Moisture varies more slowly: fewer layers, starting at a shorter wavelength
+        double moistureSize = continentSize / 1.5;
+        int moistureOctaves = Math.max(1, octaves - 3);
+        int moistureCoarseOctaves = Math.min(moistureOctaves, octavesDownTo(moistureSize, COARSE_WAVELENGTH));
+        double elevationScale = 1 / SimplexNoise.amplitudeSum(octaves, 0.5);
+        double moistureScale = 1 / SimplexNoise.amplitudeSum(moistureOctaves, 0.5);
+        // Pixel size of the map in hex-size units, for the edge falloff
+        double width = colCount * 1.5;
+        double height = rowCount * SQRT3;
+
+        int chunkColCount = map.getChunkColCount();
+        int chunkCount = chunkColCount * map.getChunkRowCount();
+        int cells = CHUNK_SIZE * CHUNK_SIZE;
+        AtomicInteger painted = new AtomicInteger();
+        int reportEvery = Math.max(1, chunkCount / 100);
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+            int x0 = chunk % chunkColCount * CHUNK_SIZE;
+            int y0 = chunk / chunkColCount * CHUNK_SIZE;
+            double[] xs = new double[cells];
+            double[] ys = new double[cells];
+            for (int i = 0; i < cells; i++) {
+                int q = x0 + (i & (CHUNK_SIZE - 1));
+                int r = y0 + i / CHUNK_SIZE;
+                xs[i] = q * 1.5;
+                ys[i] = (r + 0.5 * (q & 1)) * SQRT3;
+            }
+            double[] elevation = new double[cells];
+            double[] moisture = new double[cells];
+            addCoarseOctaves(elevationNoise, x0, y0, elevation, coarseOctaves, frequency);
+            elevationNoise.addOctaves(xs, ys, elevation, cells, coarseOctaves, octaves, frequency, 0.5);
+            addCoarseOctaves(moistureNoise, x0, y0, moisture, moistureCoarseOctaves, 1 / moistureSize);
+            moistureNoise.addOctaves(xs, ys, moisture, cells, moistureCoarseOctaves, moistureOctaves, 1 / moistureSize, 0.5);
+
+            byte[] terrain = new byte[cells];
+            for (int i = 0; i < cells; i++) {
+                // 0 in the middle of the map, 1 at its edges
+                double dx = 2 * xs[i] / width - 1;
+                double dy = 2 * ys[i] / height - 1;
+                double edge = Math.max(Math.abs(dx), Math.abs(dy));
+                double e = elevation[i] * elevationScale + 0.15 - 0.6 * edge * edge * edge * edge;
+                double m = moisture[i] * moistureScale;
+                byte biome;
+                if (e < -0.15) {
+                    biome = deepWater;
+                } else if (e < 0) {
+                    biome = shallowWater;
+                } else if (e < 0.04) {
+                    biome = sand;
+                } else if (e > 0.55) {
+                    biome = snow;
+                } else if (e > 0.42) {
+                    biome = mountain;
+                } else if (e > 0.3) {
+                    biome = hills;
+                } else if (m < -0.25) {
+                    biome = desert;
+                } else if (m < 0.1) {
+                    biome = grass;
+                } else if (m < 0.4) {
+                    biome = forest;
+                } else {
+                    biome = swamp;
+                }
+                terrain[i] = biome;
+            }
+            map.setChunk(chunk % chunkColCount, chunk / chunkColCount, terrain);
+            int done = painted.incrementAndGet();
+            if (done % reportEvery == 0) {
+                progress.progress((double) done / chunkCount);
+            }
+        });
+        progress.progress(1);
+        return map;
+    }
+
+    // Octaves needed to go from waves of size hexes down to waves of detail hexes
+    private static int octavesDownTo(double size, double detail) {
+        return Math.max(0, (int) Math.ceil(StrictMath.log(size / detail) / StrictMath.log(2)));
+    }
+
+    /**
+     * Adds the first octaves of the noise to the chunk whose top-left hex is (x0, y0), sampling
+     * them on a lattice every COARSE_STEP hexes and interpolating in between.
+     */
+    private static void addCoarseOctaves(SimplexNoise noise, int x0, int y0, double[] out, int octaves, double frequency) {
+        if (octaves == 0) {
+            return;
+        }
+        // The lattice is laid out in (column, row + half for odd columns), which is linear in map pixels
+        int points = COARSE_POINTS * COARSE_POINTS;
+        double[] xs = new double[points];
+        double[] ys = new double[points];
+        double[] values = new double[points];
+        for (int i = 0; i < points; i++) {
+            xs[i] = (x0 + i % COARSE_POINTS * COARSE_STEP) * 1.5;
+            ys[i] = (y0 + i / COARSE_POINTS * COARSE_STEP) * SQRT3;
+        }
+        noise.addOctaves(xs, ys, values, points, 0, octaves, frequency, 0.5);
+
+        for (int i = 0; i < CHUNK_SIZE * CHUNK_SIZE; i++) {
+            int q = i & (CHUNK_SIZE - 1);
+            double r = i / CHUNK_SIZE + 0.5 * ((x0 + q) & 1);
+            int gx = q / COARSE_STEP;
+            int gy = (int) (r / COARSE_STEP);
+            double fx = (double) (q - gx * COARSE_STEP) / COARSE_STEP;
+            double fy = (r - gy * COARSE_STEP) / COARSE_STEP;
+            int at = gy * COARSE_POINTS + gx;
+            double top = values[at] + (values[at + 1] - values[at]) * fx;
+            double bottom = values[at + COARSE_POINTS] + (values[at + COARSE_POINTS + 1] - values[at + COARSE_POINTS]) * fx;
+            out[i] += top + (bottom - top) * fy;
+        }
+    }
+
+    // Each pass draws from its own sequence, so passes can run in any order or at once
+    private Random random(String pass) {
+        return new Random(passSeed(pass));
+    }
+
+    // The seed of one pass, derived from the map seed and the pass name
+    private long passSeed(String pass) {
+        return seed * 0x9E3779B97F4A7C15L + pass.hashCode();
+    }
+
+    // --- Passes ---
+
+    private Stamps planTown() {
+        Random random = random("town");
+        Stamps stamps = new Stamps();
+        int houseCount = random.nextInt(6) + 5; // 5 to 10 houses
+        int houses = 0;
+        int attempts = 0;
+
+        int townSizeX = 40;
+        int townSizeY = 40;
+        int townStartX = colCount / 2 - townSizeX / 2;
+        int townStartY = rowCount / 2 - townSizeY / 2;
+        // Stone paths everywhere in town the houses don't cover
+        stamps.rect(townStartX, townStartY, townSizeX, townSizeY, MapData.STONE);
+        // Hexes of the town already built on, so a new house is checked against its own area only
+        BitSet built = new BitSet(townSizeX * townSizeY);
+
+        while (houses < houseCount && attempts < 100) {
+            int houseWidth = random.nextInt(7) + 4;
+            int houseHeight = random.nextInt(7) + 4;
+            int startX = townStartX + random.nextInt(townSizeX - houseWidth);
+            int startY = townStartY + random.nextInt(townSizeY - houseHeight);
+
+            boolean overlaps = false;
+            for (int y = startY - townStartY; y < startY - townStartY + houseHeight && !overlaps; y++) {
+                int from = y * townSizeX + startX - townStartX;
+                int next = built.nextSetBit(from);
+                overlaps = next >= 0 && next < from + houseWidth;
+            }
+
+            if (!overlaps) {
+                for (int y = startY - townStartY; y < startY - townStartY + houseHeight; y++) {
+                    int from = y * townSizeX + startX - townStartX;
+                    built.set(from, from + houseWidth);
+                }
+                stamps.rect(startX, startY, houseWidth, houseHeight, MapData.HOUSE);
+                houses++;
+            }
+            attempts++;
+        }
+        return stamps;
+    }
+
+    private Stamps planCity() {
+        Stamps stamps = new Stamps();
+        int castleSize = 15;
+        int castleStartX = colCount / 2 - castleSize / 2;
+        int castleStartY = rowCount / 2 - castleSize / 2;
+        // Moat around the castle, with a 2 hex gap facing south
+        stamps.rect(castleStartX - 1, castleStartY - 1, castleSize + 2, castleSize + 2, MapData.WATER);
+        stamps.rect(castleStartX, castleStartY, castleSize, castleSize, MapData.STONE);
+        stamps.rect(castleStartX + castleSize / 2 - 1, castleStartY + castleSize, 2, 1, MapData.STONE);
+        return stamps;
+    }
+
+    private Stamps planRivers() {
+        Random random = random("rivers");
+        Stamps stamps = new Stamps();
+        int riverCount = (int) ((random.nextInt(3) + 2) * Math.sqrt(scale));
+        for (int i = 0; i < riverCount; i++) {
+            int startX = random.nextInt(colCount);
+            int endX = random.nextInt(colCount);
+            stamps.path(startX, 0, endX, rowCount - 1, random.nextInt(3) + 2, MapData.WATER);
+        }
+        return stamps;
+    }
+
+    private Stamps planLakes() {
+        Random random = random("lakes");
+        Stamps stamps = new Stamps();
+        int lakeCount = (int) ((random.nextInt(4) + 3) * scale);
+        for (int i = 0; i < lakeCount; i++) {
+            int x = random.nextInt(colCount);
+            int y = random.nextInt(rowCount);
+            stamps.disc(x, y, random.nextInt(4) + 3, MapData.WATER);
+        }
+        return stamps;
+    }
+
+    // Towns and cities, each joined by a dirt path to its nearest neighbour
+    private Stamps planSettlements() {
+        Random random = random("settlements");
+        Stamps stamps = new Stamps();
+        int townCount = (int) ((random.nextInt(6) + 10) * scale);
+        int cityCount = (int) ((random.nextInt(3) + 3) * scale);
+        int[] xs = new int[townCount + cityCount];
+        int[] ys = new int[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = random.nextInt(colCount);
+            ys[i] = random.nextInt(rowCount);
+        }
+        PointGrid grid = new PointGrid(xs, ys, colCount, rowCount);
+        // Paths go down first, so the settlements stay visible on top of them
+        for (int i = 0; i < xs.length; i++) {
+            int nearest = grid.nearest(i, other -> true);
+            if (nearest >= 0) {
+                stamps.path(xs[i], ys[i], xs[nearest], ys[nearest], 1, MapData.DIRT);
+            }
+        }
+        for (int i = 0; i < xs.length; i++) {
+            stamps.rect(xs[i], ys[i], 1, 1, i < townCount ? MapData.HOUSE : MapData.STONE);
+        }
+        return stamps;
+    }
+
+    private Stamps planBattle() {
+        Random random = random("battle");
+        Stamps stamps = new Stamps();
+        int hazardRows = rowCount;
+        if (random.nextDouble() < 0.1) {
+            // A river across the field with a ford through it; hazards stay north of it
+            int startY = rowCount / 2 - 5;
+            stamps.rect(0, startY, colCount, 10, MapData.WATER);
+            stamps.rect(colCount / 2 - 2, 0, 4, rowCount, MapData.DIRT);
+            hazardRows = Math.max(1, startY);
+        }
+        int hazardCount = random.nextInt(7) + 4;
+        for (int i = 0; i < hazardCount; i++) {
+            stamps.rect(random.nextInt(colCount), random.nextInt(hazardRows), 1, 1, MapData.HOUSE);
+        }
+        return stamps;
+    }
+
+    // Rectangles [x, y, width, height] and discs [centreX, centreY, radius] of terrain, in flat arrays
+    private static final class Stamps {
+        private static final int RECT = 0;
+        private static final int DISC = 1;
+        // Ints per stamp: kind and up to four parameters
+        private static final int STRIDE = 5;
+
+        private int[] shapes = new int[STRIDE * 64];
+        private byte[] terrain = new byte[64];
+        private int count;
+
+        void rect(int x, int y, int width, int height, byte value) {
+            add(RECT, x, y, width, height, value);
+        }
+
+        void disc(int centerX, int centerY, int radius, byte value) {
+            add(DISC, centerX, centerY, radius, 0, value);
+        }
+
+        // A line of discs from start to end, thickness hexes wide
+        void path(int startX, int startY, int endX, int endY, int thickness, byte value) {
+            int dx = endX - startX;
+            int dy = endY - startY;
+            int steps = Math.max(Math.abs(dx), Math.abs(dy));
+            for (int i = 0; i <= steps; i++) {
+                int x = steps == 0 ? startX : (int) (startX + (double) i * dx / steps);
+                int y = steps == 0 ? startY : (int) (startY + (double) i * dy / steps);
+                disc(x, y, thickness / 2, value);
+            }
+        }
+
+        void addAll(Stamps other) {
+            for (int i = 0; i < other.count; i++) {
+                int at = i * STRIDE;
+                add(other.shapes[at], other.shapes[at + 1], other.shapes[at + 2], other.shapes[at + 3], other.shapes[at + 4], other.terrain[i]);
+            }
+        }
+
+        int minX(int i) {
+            int at = i * STRIDE;
+            return shapes[at] == DISC ? shapes[at + 1] - shapes[at + 3] : shapes[at + 1];
+        }
+
+        int minY(int i) {
+            int at = i * STRIDE;
+            return shapes[at] == DISC ? shapes[at + 2] - shapes[at + 3] : shapes[at + 2];
+        }
+
+        int maxX(int i) {
+            int at = i * STRIDE;
+            return shapes[at] == DISC ? shapes[at + 1] + shapes[at + 3] : shapes[at + 1] + shapes[at + 3] - 1;
+        }
+
+        int maxY(int i) {
+            int at = i * STRIDE;
+            return shapes[at] == DISC ? shapes[at + 2] + shapes[at + 3] : shapes[at + 2] + shapes[at + 4] - 1;
+        }
+
+        boolean covers(int i, int x, int y) {
+            int at = i * STRIDE;
+            if (shapes[at] == RECT) {
+                return x >= minX(i) && x <= maxX(i) && y >= minY(i) && y <= maxY(i);
+            }
+            long dx = x - shapes[at + 1];
+            long dy = y - shapes[at + 2];
+            long radius = shapes[at + 3];
+            return dx * dx + dy * dy <= radius * radius;
+        }
+
+        // Paints stamp i into the cells of the chunk whose top-left cell is (x0, y0), clipped to the map
+        void paint(int i, byte[] cells, int x0, int y0, int colCount, int rowCount) {
+            int fromX = Math.max(x0, minX(i));
+            int toX = Math.min(Math.min(x0 + CHUNK_SIZE, colCount) - 1, maxX(i));
+            int fromY = Math.max(y0, minY(i));
+            int toY = Math.min(Math.min(y0 + CHUNK_SIZE, rowCount) - 1, maxY(i));
+            byte value = terrain[i];
+            boolean rect = shapes[i * STRIDE] == RECT;
+            for (int y = fromY; y <= toY; y++) {
+                int row = (y - y0) * CHUNK_SIZE - x0;
+                for (int x = fromX; x <= toX; x++) {
+                    if (rect || covers(i, x, y)) {
+                        cells[row + x] = value;
+                    }
+                }
+            }
+        }
+
+        private void add(int kind, int a, int b, int c, int d, byte value) {
+            if (count == terrain.length) {
+                shapes = Arrays.copyOf(shapes, count * 2 * STRIDE);
+                terrain = Arrays.copyOf(terrain, count * 2);
+            }
+            int at = count * STRIDE;
+            shapes[at] = kind;
+            shapes[at + 1] = a;
+            shapes[at + 2] = b;
+            shapes[at + 3] = c;
+            shapes[at + 4] = d;
+            terrain[count] = value;
+            count++;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package org.example.dndapp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Sends and receives maps as content-addressed chunks.
+ *
+ * The sender announces a manifest (name, size, map hash and the SHA-256 of every chunk).
+ * Receivers keep chunks on disk under their hash, ask only for the ones they don't have
+ * and rebuild the map once all are present. An interrupted transfer resumes from the
+ * chunks already stored, and a chunk shared by two maps is only downloaded once.
+ * A player who already has the map in their maps directory just answers MAP_HAVE.
+ *
+ * The sender keeps a map's chunks until every player who asked for them has answered MAP_HAVE,
+ * or until it is no longer in the room. Receivers delete a map's chunk files once it is assembled.
+ *
+ * Messages:
+ * MAP_MANIFEST:room:name:size:mapHash:hash,hash,...   (sender -> room)
+ * MAP_WANT:room:mapHash:hash,hash,...                 (receiver -> sender, via the server)
+ * MAP_CHUNK:room:target:hash:base64                   (sender -> receiver, via the server)
+ * MAP_HAVE:room:mapHash                               (receiver -> sender, once it holds the map)
+ */
+public class MapTransfer {
+
+    private static final Logger LOGGER = Logger.getLogger(MapTransfer.class.getName());
+    public static final int CHUNK_SIZE = 32 * 1024;
+    // Keeps MAP_WANT and manifest fields well under the protocol's 64 KB field limit
+    private static final int HASHES_PER_REQUEST = 256;
+    private static final String MAPS_DIRECTORY = "src/main/resources/maps";
+    private static final String CHUNK_DIRECTORY = MAPS_DIRECTORY + "/.chunks";
+
+    private final WebSocketService webSocketService;
+    // Maps we have offered, by map hash, so we can answer MAP_WANT requests
+    private final Map<String, Offer> outgoing = new ConcurrentHashMap<>();
+    // Manifests of maps we are still receiving, by map hash
+    private final Map<String, Manifest> incoming = new ConcurrentHashMap<>();
+    // Content hashes of files in the maps directory, reused until a file's size or modified time changes
+    private final Map<Path, SavedMap> savedMaps = new ConcurrentHashMap<>();
+    private BiConsumer<String, byte[]> onMapReceived;
+
+    private record SavedMap(long size, FileTime modified, String hash) {
+    }
+
+    private static class Manifest {
+        final String name;
+        final int size;
+        final String mapHash;
+        final List<String> chunkHashes;
+
+        Manifest(String name, int size, String mapHash, List<String> chunkHashes) {
+            this.name = name;
+            this.size = size;
+            this.mapHash = mapHash;
+            this.chunkHashes = chunkHashes;
+        }
+    }
+
+    private static class Offer {
+        final String room;
+        // Chunks by hash; filled before the offer is published and only read after
+        final Map<String, byte[]> chunks = new HashMap<>();
+        // Session ids of players who asked for chunks and have not yet said they hold the map
+        final Set<String> receivers = ConcurrentHashMap.newKeySet();
+
+        Offer(String room) {
+            this.room = room;
+        }
+    }
+
+    public MapTransfer(WebSocketService webSocketService) {
+        this.webSocketService = webSocketService;
+        webSocketService.addMessageListener(this::handleMessage);
+    }
+
+    /**
+     * Called with the file name and content once a map has been fully received.
+     */
+    public void setOnMapReceived(BiConsumer<String, byte[]> onMapReceived) {
+        this.onMapReceived = onMapReceived;
+    }
+
+    /**
+     * Offers a map to everyone in the current room. Returns false if we are not in a room.
+     */
+    public boolean sendMap(String name, byte[] data) {
+        String room = webSocketService.getCurrentRoom();
+        if (room == null) {
+            return false;
+        }
+        dropOffersOutside(room);
+        Offer offer = new Offer(room);
+        List<String> hashes = new ArrayList<>();
+        for (int offset = 0; offset < data.length; offset += CHUNK_SIZE) {
+            byte[] chunk = Arrays.copyOfRange(data, offset, Math.min(data.length, offset + CHUNK_SIZE));
+            String hash = GameProtocol.contentHash(chunk);
+            offer.chunks.put(hash, chunk);
+            hashes.add(hash);
+        }
+        String mapHash = GameProtocol.contentHash(data);
+        outgoing.put(mapHash, offer);
+        webSocketService.mapManifest(room, name, data.length, mapHash, hashes);
+        LOGGER.info("Offered map '" + name + "' (" + data.length + " bytes, " + hashes.size() + " chunks).");
+        return true;
+    }
+
+    private void handleMessage(GameProtocol.Message message) {
+        dropOffersOutside(webSocketService.getCurrentRoom());
+        try {
+            switch (message.opcode()) {
+                case GameProtocol.MAP_MANIFEST -> {
+                    // [name, size, mapHash, chunkHashes]
+                    String chunkHashes = message.field(3);
+                    List<String> hashes = chunkHashes.isEmpty() ? List.of() : Arrays.asList(chunkHashes.split(","));
+                    Manifest manifest = new Manifest(message.field(0), Integer.parseInt(message.field(1)), message.field(2), hashes);
+                    if (!GameProtocol.isContentHash(manifest.mapHash) || !hashes.stream().allMatch(GameProtocol::isContentHash)) {
+                        LOGGER.warning("Ignoring manifest for map '" + manifest.name + "' with malformed hashes.");
+                        return;
+                    }
+                    if (findSavedMap(manifest) != null) {
+                        acknowledge(manifest);
+                        return;
+                    }
+                    incoming.put(manifest.mapHash, manifest);
+                    requestMissing(manifest);
+                }
+                // [requester, mapHash, chunkHashes]
+                case GameProtocol.MAP_WANT -> sendChunks(message.field(0), message.field(1), message.field(2).split(","));
+                // [chunkHash, data]
+                case GameProtocol.MAP_CHUNK -> storeChunk(message.field(0), message.bytes(1));
+                // [sessionId, mapHash]
+                case GameProtocol.MAP_HAVE -> receiverDone(message.field(0), message.field(1));
+                case GameProtocol.SUCCESS -> {
+                    // Back in a room (e.g. after a reconnect): resume anything left unfinished
+                    for (Manifest manifest : incoming.values()) {
+                        requestMissing(manifest);
+                    }
+                }
+                default -> {
+                }
+            }
+        } catch (RuntimeException | IOException e) {
+            LOGGER.severe("Error handling map transfer message: " + e.getMessage());
+        }
+    }
+
+    private void requestMissing(Manifest manifest) throws IOException {
+        List<String> missing = new ArrayList<>();
+        for (String hash : manifest.chunkHashes) {
+            if (!Files.isRegularFile(chunkPath(hash))) {
+                missing.add(hash);
+            }
+        }
+        if (missing.isEmpty()) {
+            complete(manifest);
+            return;
+        }
+        String room = webSocketService.getCurrentRoom();
+        if (room == null) {
+            return;
+        }
+        for (int i = 0; i < missing.size(); i += HASHES_PER_REQUEST) {
+            List<String> batch = missing.subList(i, Math.min(missing.size(), i + HASHES_PER_REQUEST));
+            webSocketService.mapWant(room, manifest.mapHash, batch);
+        }
+    }
+
+    /**
+     * A file in the maps directory with exactly this map's content, under any name, or null.
+     * E.g. the DM sent it last session. Only files of the right size are hashed.
+     */
+    private Path findSavedMap(Manifest manifest) throws IOException {
+        Path directory = Paths.get(MAPS_DIRECTORY);
+        if (!Files.isDirectory(directory)) {
+            return null;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (Files.isRegularFile(file) && Files.size(file) == manifest.size && manifest.mapHash.equals(savedHash(file))) {
+                    return file;
+                }
+            }
+        }
+        return null;
+    }
+
+    private String savedHash(Path file) throws IOException {
+        long size = Files.size(file);
+        FileTime modified = Files.getLastModifiedTime(file);
+        SavedMap saved = savedMaps.get(file);
+        if (saved == null || saved.size() != size || !saved.modified().equals(modified)) {
+            saved = new SavedMap(size, modified, GameProtocol.contentHash(Files.readAllBytes(file)));
+            savedMaps.put(file, saved);
+        }
+        return saved.hash();
+    }
+
+    private void acknowledge(Manifest manifest) {
+        String room = webSocketService.getCurrentRoom();
+        if (room != null) {
+            webSocketService.mapHave(room, manifest.mapHash);
+        }
+    }
+
+    private void sendChunks(String requester, String mapHash, String[] hashes) {
+        String room = webSocketService.getCurrentRoom();
+        Offer offer = outgoing.get(mapHash);
+        if (room == null || offer == null) {
+            return;
+        }
+        // The server fetches a copy for itself but never answers MAP_HAVE
+        if (!requester.equals(GameProtocol.SERVER_REQUESTER)) {
+            offer.receivers.add(requester);
+        }
+        for (String hash : hashes) {
+            if (!GameProtocol.isContentHash(hash)) {
+                continue;
+            }
+            byte[] chunk = offer.chunks.get(hash);
+            if (chunk != null) {
+                webSocketService.mapChunk(room, requester, hash, chunk);
+            }
+        }
+    }
+
+    // A player holds the whole map; once everyone who fetched chunks does, they are no longer needed
+    private void receiverDone(String sessionId, String mapHash) {
+        LOGGER.info("Player " + sessionId + " has map " + mapHash + ".");
+        Offer offer = outgoing.get(mapHash);
+        if (offer != null && offer.receivers.remove(sessionId) && offer.receivers.isEmpty()) {
+            outgoing.remove(mapHash, offer);
+            LOGGER.info("Every player has map " + mapHash + "; released its chunks.");
+        }
+    }
+
+    // Nobody can ask for chunks of a map offered to a room we have left
+    private void dropOffersOutside(String room) {
+        outgoing.values().removeIf(offer -> !offer.room.equals(room));
+    }
+
+    private void storeChunk(String hash, byte[] data) throws IOException {
+        if (!GameProtocol.isContentHash(hash) || !hash.equals(GameProtocol.contentHash(data))) {
+            LOGGER.warning("Dropping map chunk whose content does not match its hash " + hash);
+            return;
+        }
+        Path path = chunkPath(hash);
+        if (!Files.exists(path)) {
+            Files.createDirectories(path.getParent());
+            // Write then rename, so an interrupted write never leaves a partial chunk behind
+            Path temp = Files.createTempFile(path.getParent(), hash, ".part");
+            Files.write(temp, data);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        for (Manifest manifest : incoming.values()) {
+            if (manifest.chunkHashes.contains(hash) && hasAllChunks(manifest)) {
+                complete(manifest);
+            }
+        }
+    }
+
+    private boolean hasAllChunks(Manifest manifest) {
+        for (String hash : manifest.chunkHashes) {
+            if (!Files.isRegularFile(chunkPath(hash))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void complete(Manifest manifest) throws IOException {
+        if (incoming.remove(manifest.mapHash) == null) {
+            return; // Already assembled by another chunk arriving at the same time
+        }
+        ByteArrayOutputStream data = new ByteArrayOutputStream(manifest.size);
+        for (String hash : manifest.chunkHashes) {
+            data.write(Files.readAllBytes(chunkPath(hash)));
+        }
+        byte[] bytes = data.toByteArray();
+        if (!manifest.mapHash.equals(GameProtocol.contentHash(bytes))) {
+            LOGGER.severe("Map '" + manifest.name + "' failed its integrity check.");
+            return;
+        }
+        deleteChunks(manifest);
+        LOGGER.info("Map '" + manifest.name + "' received.");
+        acknowledge(manifest);
+        if (onMapReceived != null) {
+            onMapReceived.accept(manifest.name, bytes);
+        }
+    }
+
+    // Removes the map's chunk files, except those another map still being received needs
+    private void deleteChunks(Manifest manifest) {
+        for (String hash : manifest.chunkHashes) {
+            boolean shared = incoming.values().stream().anyMatch(other -> other.chunkHashes.contains(hash));
+            try {
+                if (!shared) {
+                    Files.deleteIfExists(chunkPath(hash));
+                }
+            } catch (IOException e) {
+                LOGGER.warning("Could not delete map chunk " + hash + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Only ever called with hashes that passed GameProtocol.isContentHash
+    private static Path chunkPath(String hash) {
+        return Paths.get(CHUNK_DIRECTORY, hash);
+    }
+}
@@ -14,20 +14,22 @@ import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.stage.Stage;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
 
 public class MapsPage {
 
     private final Stage primaryStage;
     private final Scene playerScene;
+    private final WebSocketService webSocketService;
     private static final String MAPS_DIRECTORY = "src/main/resources/maps";
     private static final double PREVIEW_SIZE = 150;
     private GridPane mapGrid;
 
-    public MapsPage(Stage primaryStage, Scene playerScene) {
+    public MapsPage(Stage primaryStage, Scene playerScene, WebSocketService webSocketService) {
         this.primaryStage = primaryStage;
         this.playerScene = playerScene;
+        this.webSocketService = webSocketService;
     }
 
     public Scene createScene() {
@@ -70,7 +72,7 @@ public class MapsPage {
             return;
         }
 
-        File[] files = folder.listFiles((dir, name) -> name.endsWith(".json"));
+        File[] files = folder.listFiles((dir, name) -> MapData.isMapFile(name));
         if (files == null || files.length == 0) {
             Label noMapsLabel = new Label("No maps found in the 'maps' directory.");
             noMapsLabel.setTextFill(Color.web("#d3d3d3"));
@@ -81,7 +83,7 @@ public class MapsPage {
         int col = 0;
         int row = 0;
         for (File file : files) {
-            VBox mapItem = createMapItem(file);
+            VBox mapItem = createMapItem(MapData.migrate(file));
             mapGrid.add(mapItem, col, row);
             col++;
             if (col > 2) { // 3 maps per row
@@ -107,7 +109,7 @@ public class MapsPage {
 
         Button viewButton = new Button("View Map");
         viewButton.setOnAction(e -> {
-            PlayerMapViewerPage viewerPage = new PlayerMapViewerPage(primaryStage, createScene(), file.getName());
+            PlayerMapViewerPage viewerPage = new PlayerMapViewerPage(primaryStage, createScene(), file.getName(), webSocketService);
             primaryStage.setScene(viewerPage.createScene());
             primaryStage.setTitle("Map Viewer");
         });
@@ -120,9 +122,9 @@ public class MapsPage {
      * Receives a map file from the server and saves it to the maps directory.
      * This function is for player-side use only.
      * @param fileName The name of the map file.
-     * @param mapDataJson The JSON content of the map file as a string.
+     * @param mapBytes The content of the map file, in the binary or the older JSON format.
      */
-    public void receiveMap(String fileName, String mapDataJson) {
+    public void receiveMap(String fileName, byte[] mapBytes) {
         try {
             File directory = new File(MAPS_DIRECTORY);
             if (!directory.exists()) {
@@ -132,11 +134,12 @@ public class MapsPage {
                 }
             }
 
-            File file = new File(directory, fileName);
-            try (FileWriter writer = new FileWriter(file)) {
-                writer.write(mapDataJson);
-            }
-            System.out.println("Map '" + fileName + "' received and saved successfully.");
+            // Only the name is taken from the sender, never a path
+            File file = new File(directory, new File(fileName).getName());
+            Files.write(file.toPath(), mapBytes);
+            // A JSON map from an older client is stored in the binary format like any other
+            file = MapData.migrate(file);
+            System.out.println("Map '" + file.getName() + "' received and saved successfully.");
 
             // Reload the maps page to display the new map
             if (mapGrid != null) {
@@ -1,6 +1,4 @@
 package org.example.dndapp;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -16,22 +14,20 @@ import javafx.scene.text.FontWeight;
 import javafx.stage.Stage;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.List;
 
 public class MyMapsPage {
 
     private final Stage primaryStage;
     private final Scene previousScene;
-    private final WebSocketService client; // Corrected class name
+    private final MapTransfer mapTransfer;
     private static final String MY_MAPS_DIRECTORY = "src/main/resources/my-maps";
     private static final double PREVIEW_SIZE = 150;
 
-    public MyMapsPage(Stage primaryStage, Scene previousScene, WebSocketService client) { // Corrected constructor parameter
+    public MyMapsPage(Stage primaryStage, Scene previousScene, MapTransfer mapTransfer) {
         this.primaryStage = primaryStage;
         this.previousScene = previousScene;
-        this.client = client;
+        this.mapTransfer = mapTransfer;
     }
 
     public Scene createScene() {
@@ -73,7 +69,7 @@ public class MyMapsPage {
             return;
         }
 
-        File[] files = folder.listFiles((dir, name) -> name.endsWith(".json"));
+        File[] files = folder.listFiles((dir, name) -> MapData.isMapFile(name));
         if (files == null || files.length == 0) {
             Label noMapsLabel = new Label("No maps found in the 'my-maps' directory.");
             noMapsLabel.setTextFill(Color.web("#d3d3d3"));
@@ -84,7 +80,7 @@ public class MyMapsPage {
         int col = 0;
         int row = 0;
         for (File file : files) {
-            VBox mapItem = createMapItem(file);
+            VBox mapItem = createMapItem(MapData.migrate(file));
             mapGrid.add(mapItem, col, row);
             col++;
             if (col > 2) { // 3 maps per row
@@ -108,39 +104,29 @@ public class MyMapsPage {
         mapCanvas.getGraphicsContext2D().setStroke(Color.web("#ff0000"));
         mapCanvas.getGraphicsContext2D().strokeRect(0, 0, PREVIEW_SIZE, PREVIEW_SIZE);
 
+        Label statusLabel = new Label();
+        statusLabel.setWrapText(true);
+        statusLabel.setMaxWidth(PREVIEW_SIZE);
+
         Button sendButton = new Button("Send Map");
         sendButton.setStyle("-fx-background-color: #28a745; -fx-text-fill: white;");
         sendButton.setOnAction(e -> {
             try {
-                // Read the map file content
-                Gson gson = new Gson();
-                FileReader reader = new FileReader(file);
-                MapData mapData = gson.fromJson(reader, MapData.class);
-                reader.close();
-
-                // Convert map data to a JSON string and send it
-                String mapJson = new Gson().toJson(mapData);
-                client.sendMessage("MAP:" + file.getName() + ":" + mapJson);
-
-                System.out.println("Map '" + file.getName() + "' sent to players.");
+                // Send the compact form of the editor's file; MapTransfer splits it into chunks players only fetch if missing
+                if (mapTransfer.sendMap(file.getName(), MapData.load(file).toBytes())) {
+                    statusLabel.setText("Map sent to players.");
+                    statusLabel.setTextFill(Color.web("#d3d3d3"));
+                } else {
+                    statusLabel.setText("Join a campaign before sending a map.");
+                    statusLabel.setTextFill(Color.RED);
+                }
             } catch (IOException ex) {
-                ex.printStackTrace();
+                statusLabel.setText("Error sending map: " + ex.getMessage());
+                statusLabel.setTextFill(Color.RED);
             }
         });
 
-        mapItem.getChildren().addAll(nameLabel, mapCanvas, sendButton);
+        mapItem.getChildren().addAll(nameLabel, mapCanvas, sendButton, statusLabel);
         return mapItem;
     }
-
-    private static class MapData {
-        private int rowCount;
-        private int colCount;
-        private List<String> grid;
-
-        public MapData(int rowCount, int colCount, List<String> grid) {
-            this.rowCount = rowCount;
-            this.colCount = colCount;
-            this.grid = grid;
-        }
-    }
 }
\ No newline at end of file
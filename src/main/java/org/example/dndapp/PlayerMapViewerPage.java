@@ -1,8 +1,9 @@
 package org.example.dndapp;
 
 
-import com.google.gson.Gson;
 import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -12,48 +13,114 @@ import javafx.scene.control.*;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyCodeCombination;
 import javafx.scene.input.KeyCombination;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.Pane;
+import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.stage.Stage;
 import javafx.scene.input.MouseButton;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.logging.Logger;
 
 public class PlayerMapViewerPage {
 
+    private static final Logger LOGGER = Logger.getLogger(PlayerMapViewerPage.class.getName());
+
     private final Stage primaryStage;
     private final Scene mapsScene;
     private final String mapFileName;
+    private final WebSocketService webSocketService; // May be null when viewing offline
+    // The map is drawn in three stacked, window-sized layers so a move only repaints what changed:
+    // terrain is repainted when the camera moves, fog is updated per hex, tokens are redrawn on their own.
+    // mapCanvas is the top layer; it receives input and is where DOOM mode renders.
+    private Pane viewport;
+    private Canvas terrainCanvas;
+    private Canvas fogCanvas;
     private Canvas mapCanvas;
     private Label statusLabel;
     private MapData mapData;
-
-    // Hex grid parameters, aligned with MapCreatorPage
-    private static final int COL_COUNT = 100;
-    private static final int ROW_COUNT = 100;
+    private MapColors mapColors;
+    // Hash of mapData as a map transfer sends it, which the room's fog messages name their map by.
+    // Worked out in the background after loading; null until then, and room fog is ignored meanwhile
+    private String mapHash;
+
+    // Hex grid parameters, aligned with MapCreatorPage; the grid size comes from the loaded map
+    private int colCount;
+    private int rowCount;
     private static final int HEX_SIZE = 10;
-    private final double hexHeight = HEX_SIZE * Math.sqrt(3);
-    private final double hexWidth = HEX_SIZE * 2;
+    private static final HexGeometry GEOMETRY = new HexGeometry(HEX_SIZE);
     private static final String MAPS_DIRECTORY = "src/main/resources/maps";
+    // Scratch buffers reused by drawHex; only touched on the FX thread
+    private final double[] xPoints = new double[6];
+    private final double[] yPoints = new double[6];
+    private static final Color GRID_LINE_COLOR = Color.web("#555");
+    private static final Color PLAYER_TOKEN_COLOR = Color.web("#ffd700"); // Gold
+    private static final Color OTHER_TOKEN_COLOR = Color.web("#00bfff");
+    private static final Color TOKEN_BORDER_COLOR = Color.web("#8b0000");
+
+    // Camera: the map pixel shown at the top-left of the view, and screen pixels per map pixel
+    private double cameraX = 0;
+    private double cameraY = 0;
+    private double zoom = 1;
+    private static final double MIN_ZOOM = 0.02;
+    private static final double MAX_ZOOM = 4;
+    private static final double ZOOM_STEP = 1.25;
+    // Level of detail, by on-screen hex size: below OVERVIEW_HEX_PIXELS the map is drawn a chunk at a
+    // time from one-pixel-per-hex images, below OUTLINE_HEX_PIXELS grid lines are skipped
+    private static final double OVERVIEW_HEX_PIXELS = 3;
+    private static final double OUTLINE_HEX_PIXELS = 6;
+    // Chunks within this many hexes of the view or the player's token are read ahead of time
+    private static final int PRELOAD_MARGIN = MapData.CHUNK_SIZE / 2;
+    // Overview images, by chunk index, only for chunks that have been read or revealed
+    private final Map<Integer, WritableImage> terrainChunkImages = new HashMap<>();
+    private final Map<Integer, WritableImage> fogChunkImages = new HashMap<>();
+    // Hexes overlapping the view, recomputed when the camera moves
+    private int firstVisibleCol;
+    private int lastVisibleCol;
+    private int firstVisibleRow;
+    private int lastVisibleRow;
+    private double dragStartX;
+    private double dragStartY;
 
     // Player token properties
     private int playerHexQ = 0; // Column coordinate (q)
     private int playerHexR = 0; // Row coordinate (r)
 
+    // Other players' tokens as last reported by the server, keyed "sessionId.slot"
+    private final Map<String, int[]> otherTokens = new HashMap<>();
+    private final Consumer<GameProtocol.Message> serverListener = this::handleServerMessage;
+
     // Fog of War controls
     private ToggleGroup fogTypeGroup;
     private Slider fogStrengthSlider;
-    private boolean[][] revealedTiles = new boolean[COL_COUNT][ROW_COUNT];
-
-    // Added fields for canvas resizing and mode switching
-    private double originalCanvasWidth;
-    private double originalCanvasHeight;
+    // What the player sees now and has seen before, and what walls let them see
+    private FogOfWar fog;
+    private LineOfSight lineOfSight;
+    // Hexes (r * colCount + q) whose reveal state changed since the fog layer was last updated
+    private int[] dirtyFog = new int[64];
+    private int dirtyFogCount = 0;
+    private boolean fogNeedsFullRedraw = true;
+    // Set once the room's server sends fog for this map; from then on the server decides what is seen
+    private boolean serverFog = false;
+    // Pieces of a FOG_VISIBLE update, collected until its last piece arrives
+    private int[] incomingVisible = new int[0];
+
+    // Added fields for mode switching
     private boolean isDoomModeActive = false; // Flag to track the current state
 
     // Core DOOM Integration
@@ -62,10 +129,14 @@ public class PlayerMapViewerPage {
     private long lastFrameTime = 0;
 
 
-    public PlayerMapViewerPage(Stage primaryStage, Scene mapsScene, String mapFileName) {
+    public PlayerMapViewerPage(Stage primaryStage, Scene mapsScene, String mapFileName, WebSocketService webSocketService) {
         this.primaryStage = primaryStage;
         this.mapsScene = mapsScene;
         this.mapFileName = mapFileName;
+        this.webSocketService = webSocketService;
+        if (webSocketService != null) {
+            webSocketService.addMessageListener(serverListener);
+        }
 
         // Initialize the external DOOM engine
         this.doomEngine = new DoomEngine();
@@ -100,7 +171,15 @@ public class PlayerMapViewerPage {
 
         Button backButton = new Button("Go Back");
         backButton.setStyle("-fx-padding: 12 24; -fx-font-size: 16px; -fx-cursor: hand; -fx-border-radius: 8px; -fx-background-color: #007bff; -fx-text-fill: white; -fx-effect: dropshadow(gaussian, rgba(0,0,0,0.5), 10, 0, 0, 0);");
-        backButton.setOnAction(e -> primaryStage.setScene(mapsScene));
+        backButton.setOnAction(e -> {
+            if (webSocketService != null) {
+                webSocketService.removeMessageListener(serverListener);
+            }
+            // The page is dropped, so nothing may keep running for it
+            doomLoop.stop();
+            doomEngine.stop();
+            primaryStage.setScene(mapsScene);
+        });
 
         VBox fogControls = new VBox(5);
         fogControls.setAlignment(Pos.CENTER_LEFT);
@@ -136,23 +215,22 @@ public class PlayerMapViewerPage {
 
         topControls.getChildren().addAll(backButton, fogControls, strengthControls, statusLabel);
 
-        // Initialize canvas and save original dimensions
-        originalCanvasWidth = (COL_COUNT * 1.5 + 0.5) * HEX_SIZE;
-        originalCanvasHeight = (ROW_COUNT + 0.5) * hexHeight;
-        mapCanvas = new Canvas(originalCanvasWidth, originalCanvasHeight);
-
-        GraphicsContext gc = mapCanvas.getGraphicsContext2D();
-        gc.clearRect(0, 0, mapCanvas.getWidth(), mapCanvas.getHeight());
-
-        mainContent.getChildren().addAll(topControls, title, mapCanvas);
-
-        ScrollPane scrollPane = new ScrollPane();
-        scrollPane.setContent(mainContent);
-        scrollPane.setStyle("-fx-background-color: #1a1a1a;");
-        scrollPane.setFitToWidth(true);
-        scrollPane.setFitToHeight(true);
-
-        Scene scene = new Scene(scrollPane, 900, 800);
+        // The canvases are only as big as the window; scroll to zoom, drag with the right button to pan
+        terrainCanvas = new Canvas();
+        fogCanvas = new Canvas();
+        mapCanvas = new Canvas();
+        viewport = new Pane(terrainCanvas, fogCanvas, mapCanvas);
+        Rectangle viewportClip = new Rectangle();
+        viewportClip.widthProperty().bind(viewport.widthProperty());
+        viewportClip.heightProperty().bind(viewport.heightProperty());
+        viewport.setClip(viewportClip);
+        viewport.widthProperty().addListener((observable, oldValue, newValue) -> resizeView());
+        viewport.heightProperty().addListener((observable, oldValue, newValue) -> resizeView());
+        VBox.setVgrow(viewport, Priority.ALWAYS);
+
+        mainContent.getChildren().addAll(topControls, title, viewport);
+
+        Scene scene = new Scene(mainContent, 900, 800);
         setupMouseEvents();
         setupKeyEvents(scene);
         loadMap();
@@ -171,28 +249,54 @@ public class PlayerMapViewerPage {
                 return;
             }
 
+            if (e.getButton() != MouseButton.PRIMARY) {
+                dragStartX = e.getX();
+                dragStartY = e.getY();
+                return;
+            }
+
             // Click to move functionality (original map logic)
-            int[] hex = screenToHex(e.getX(), e.getY());
+            int[] hex = GEOMETRY.hexAt(cameraX + e.getX() / zoom, cameraY + e.getY() / zoom);
 
-            if (hex[0] >= 0 && hex[0] < COL_COUNT && hex[1] >= 0 && hex[1] < ROW_COUNT) {
+            if (hex[0] >= 0 && hex[0] < colCount && hex[1] >= 0 && hex[1] < rowCount) {
                 playerHexQ = hex[0];
                 playerHexR = hex[1];
                 updateRevealedTiles();
                 drawMap();
+                sendMove();
+            }
+        });
+
+        // Pan with the right (or middle) button
+        mapCanvas.setOnMouseDragged(e -> {
+            if (isDoomModeActive || e.getButton() == MouseButton.PRIMARY) {
+                return;
+            }
+            cameraX -= (e.getX() - dragStartX) / zoom;
+            cameraY -= (e.getY() - dragStartY) / zoom;
+            dragStartX = e.getX();
+            dragStartY = e.getY();
+            redrawView();
+        });
+
+        // Zoom around the cursor, so the hex under it stays put
+        mapCanvas.setOnScroll(e -> {
+            if (isDoomModeActive || e.getDeltaY() == 0) {
+                return;
             }
+            double newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, e.getDeltaY() > 0 ? zoom * ZOOM_STEP : zoom / ZOOM_STEP));
+            cameraX += e.getX() / zoom - e.getX() / newZoom;
+            cameraY += e.getY() / zoom - e.getY() / newZoom;
+            zoom = newZoom;
+            redrawView();
         });
 
         fogTypeGroup.selectedToggleProperty().addListener((observable, oldValue, newValue) -> {
             if (isDoomModeActive) return; // Ignore changes in doom mode
 
             if (newValue != null) {
-                if ("Fog".equals(((RadioButton) newValue).getText())) {
-                    for (int q = 0; q < COL_COUNT; q++) {
-                        for (int r = 0; r < ROW_COUNT; r++) {
-                            revealedTiles[q][r] = false;
-                        }
-                    }
-                }
+                // Fog appears or disappears everywhere, so repaint the whole fog layer
+                fogNeedsFullRedraw = true;
                 updateRevealedTiles();
                 drawMap();
             }
@@ -202,6 +306,7 @@ public class PlayerMapViewerPage {
 
             updateRevealedTiles();
             drawMap();
+            sendSight();
         });
     }
 
@@ -239,11 +344,14 @@ public class PlayerMapViewerPage {
                 newQ = playerHexQ + 1;
             }
 
-            if (newQ >= 0 && newQ < COL_COUNT && newR >= 0 && newR < ROW_COUNT) {
+            if (newQ >= 0 && newQ < colCount && newR >= 0 && newR < rowCount) {
                 playerHexQ = newQ;
                 playerHexR = newR;
                 updateRevealedTiles();
-                drawMap();
+                if (!followPlayer()) {
+                    drawMap();
+                }
+                sendMove();
             }
         });
 
@@ -259,25 +367,27 @@ public class PlayerMapViewerPage {
         isDoomModeActive = !isDoomModeActive;
 
         if (isDoomModeActive) {
-            // Switch to DOOM Mode
-            double doomWidth = 640;
-            double doomHeight = 480;
-
-            mapCanvas.setWidth(doomWidth);
-            mapCanvas.setHeight(doomHeight);
+            // Switch to DOOM Mode, rendered at the full size of the view
+            mapCanvas.setWidth(viewport.getWidth());
+            mapCanvas.setHeight(viewport.getHeight());
+            terrainCanvas.setVisible(false);
+            fogCanvas.setVisible(false);
 
             statusLabel.setText("!!! Ripping and Tearing on the Map Canvas !!!");
             statusLabel.setTextFill(Color.web("#ff0000"));
 
         } else {
-            // Switch back to Map Mode
+            // Switch back to Map Mode; the game only advances while it is shown
+            doomEngine.setSimulationThread(false);
 
             // Restore original status label
             statusLabel.setText("Map mode restored.");
             statusLabel.setTextFill(Color.web("#d3d3d3"));
 
-            // Redraw the map, which will handle size restoration
-            drawMap();
+            // Give the token layer back the size of the view; terrain and fog were left untouched underneath
+            terrainCanvas.setVisible(true);
+            fogCanvas.setVisible(true);
+            resizeView();
         }
     }
 
@@ -296,16 +406,136 @@ public class PlayerMapViewerPage {
         );
     }
 
-    private int[] screenToHex(double x, double y) {
-        // Step 1: Invert the drawing logic to get approximate odd-q coordinates.
-        double approxQ = x / (HEX_SIZE * 1.5);
-        double approxR = (y - (approxQ % 2) * hexHeight / 2) / hexHeight;
+    /**
+     * Reports our token position to the room we are in, if any. The server applies it on its next tick.
+     */
+    private void sendMove() {
+        if (webSocketService == null || webSocketService.getCurrentRoom() == null) {
+            return;
+        }
+        webSocketService.move(webSocketService.getCurrentRoom(), playerHexQ, playerHexR);
+    }
 
-        // Step 2: Round to the nearest integer coordinates.
-        int finalQ = (int) Math.round(approxQ);
-        int finalR = (int) Math.round(approxR);
+    /**
+     * Tells the room how far our tokens see. The server answers with the fog explored so far,
+     * and keeps our fog up to date from then on.
+     */
+    private void sendSight() {
+        if (webSocketService == null || webSocketService.getCurrentRoom() == null || mapData == null) {
+            return;
+        }
+        webSocketService.sight(webSocketService.getCurrentRoom(), sightRadius());
+    }
 
-        return new int[]{finalQ, finalR};
+    private int sightRadius() {
+        return Math.max(0, (int) (10 - fogStrengthSlider.getValue()));
+    }
+
+    /**
+     * Applies "FOG:mapHash:cols,rows,last:cells" (hexes newly explored by anyone in the room) and
+     * "FOG_VISIBLE:mapHash:cols,rows,last:cells" (what our tokens see now) from the server. Fog
+     * for any map but the one we have open is ignored.
+     */
+    private void handleFogMessage(GameProtocol.Message message) {
+        boolean visibleArea = message.opcode() == GameProtocol.FOG_VISIBLE;
+        String fogMapHash = message.field(0);
+        String[] header = message.field(1).split(",");
+        int cols = Integer.parseInt(header[0]);
+        int rows = Integer.parseInt(header[1]);
+        boolean last = header.length < 3 || header[2].equals("1");
+        int[] cells;
+        try {
+            cells = FogOfWar.decodeCells(message.bytes(2), cols, rows);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning("Ignoring malformed fog update: " + e.getMessage());
+            return;
+        }
+
+        Platform.runLater(() -> {
+            if (fog == null || !fogMapHash.equals(mapHash) || cols != colCount || rows != rowCount) {
+                return;
+            }
+            serverFog = true;
+            if (!visibleArea) {
+                FogOfWar.Diff diff = fog.addRevealed(cells, cells.length);
+                for (int i = 0; i < diff.revealedCount(); i++) {
+                    markFogDirty(diff.revealed()[i]);
+                }
+            } else {
+                int[] visible = Arrays.copyOf(incomingVisible, incomingVisible.length + cells.length);
+                System.arraycopy(cells, 0, visible, incomingVisible.length, cells.length);
+                if (!last) {
+                    incomingVisible = visible;
+                    return;
+                }
+                incomingVisible = new int[0];
+                FogOfWar.Diff diff = fog.setVisible(visible, visible.length);
+                for (int i = 0; i < diff.enteredCount(); i++) {
+                    markFogDirty(diff.entered()[i]);
+                }
+                for (int i = 0; i < diff.leftCount(); i++) {
+                    markFogDirty(diff.left()[i]);
+                }
+            }
+            drawMap();
+        });
+    }
+
+    /**
+     * "FOG_UNAVAILABLE:mapHash:reason": the server has no fog for that map, so if it is ours we
+     * go back to working out fog from our own token.
+     */
+    private void handleFogUnavailable(String fogMapHash, String reason) {
+        Platform.runLater(() -> {
+            if (fog == null || !fogMapHash.equals(mapHash)) {
+                return;
+            }
+            serverFog = false;
+            incomingVisible = new int[0];
+            updateRevealedTiles();
+            drawMap();
+            statusLabel.setText("Room fog of war unavailable: " + reason);
+            statusLabel.setTextFill(Color.ORANGE);
+        });
+    }
+
+    /**
+     * Applies "TOKENS:tick:token,q,r;token;..." deltas and "TOKEN_SNAPSHOT:tick:..." snapshots from the server.
+     * A bare token key in a delta means the token was removed. Our own tokens are drawn locally and skipped.
+     */
+    private void handleServerMessage(GameProtocol.Message message) {
+        if (message.opcode() == GameProtocol.FOG || message.opcode() == GameProtocol.FOG_VISIBLE) {
+            handleFogMessage(message);
+            return;
+        }
+        if (message.opcode() == GameProtocol.FOG_UNAVAILABLE) {
+            handleFogUnavailable(message.field(0), message.field(1));
+            return;
+        }
+        boolean snapshot = message.opcode() == GameProtocol.TOKEN_SNAPSHOT;
+        if (!snapshot && message.opcode() != GameProtocol.TOKENS) {
+            return;
+        }
+        String entries = message.field(1);
+        String ownPrefix = webSocketService.getSessionId() + ".";
+
+        Platform.runLater(() -> {
+            if (snapshot) {
+                otherTokens.clear();
+            }
+            for (String entry : entries.split(";")) {
+                if (entry.isEmpty() || entry.startsWith(ownPrefix)) {
+                    continue;
+                }
+                String[] fields = entry.split(",");
+                if (fields.length < 3) {
+                    otherTokens.remove(fields[0]);
+                } else {
+                    otherTokens.put(fields[0], new int[]{Integer.parseInt(fields[1]), Integer.parseInt(fields[2])});
+                }
+            }
+            drawMap();
+        });
     }
 
     private void loadMap() {
@@ -317,49 +547,97 @@ public class PlayerMapViewerPage {
             return;
         }
 
-        try (FileReader reader = new FileReader(file)) {
-            Gson gson = new Gson();
-            mapData = gson.fromJson(reader, MapData.class);
-
-            if (mapData != null && mapData.getGrid() != null &&
-                    mapData.getGrid().size() == COL_COUNT * ROW_COUNT) {
-                updateRevealedTiles(); // Initial reveal
-                drawMap();
-                statusLabel.setText("Map loaded successfully.");
-                statusLabel.setTextFill(Color.web("#d3d3d3"));
-            } else {
-                statusLabel.setText("Invalid map file format or size.");
-                statusLabel.setTextFill(Color.RED);
+        try {
+            mapData = MapData.load(file);
+            if (mapData.cellCount() == 0) {
+                throw new IOException("The map is empty.");
             }
-        } catch (IOException ex) {
+            mapColors = new MapColors(mapData);
+            mapHash = null;
+            hashMap(file, mapData);
+
+            colCount = mapData.getColCount();
+            rowCount = mapData.getRowCount();
+            fog = new FogOfWar(colCount, rowCount);
+            lineOfSight = new LineOfSight(mapData);
+            serverFog = false;
+            incomingVisible = new int[0];
+            terrainChunkImages.clear();
+            fogChunkImages.clear();
+            fogNeedsFullRedraw = true;
+            updateRevealedTiles(); // Initial reveal
+            redrawView();
+            sendSight();
+            statusLabel.setText("Map loaded successfully.");
+            statusLabel.setTextFill(Color.web("#d3d3d3"));
+        } catch (IOException | UncheckedIOException ex) {
             statusLabel.setText("Error loading file: " + ex.getMessage());
             statusLabel.setTextFill(Color.RED);
         }
     }
 
+    /**
+     * Works out the hash of the map as MapTransfer would send it, off the FX thread, then asks the
+     * server for the room's fog again now that its messages can be matched to our map. The file is
+     * read into a separate MapData so the one being shown keeps decoding only what is on screen.
+     */
+    private void hashMap(File file, MapData loaded) {
+        Task<String> task = new Task<>() {
+            @Override
+            protected String call() throws IOException {
+                return GameProtocol.contentHash(MapData.load(file).toBytes());
+            }
+        };
+        task.setOnSucceeded(e -> {
+            if (mapData == loaded) {
+                mapHash = task.getValue();
+                sendSight();
+            }
+        });
+        task.setOnFailed(e -> LOGGER.warning("Could not hash map '" + file.getName() + "': " + task.getException().getMessage()));
+        Thread thread = new Thread(task, "map-hash");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     private void updateRevealedTiles() {
-        // ... (existing implementation)
-        String selectedFog = ((RadioButton) fogTypeGroup.getSelectedToggle()).getText();
-        int revealRadius = (int) (10 - fogStrengthSlider.getValue());
-        if (revealRadius < 0) revealRadius = 0;
-
-        if ("Fog".equals(selectedFog)) {
-            for (int q = 0; q < COL_COUNT; q++) {
-                for (int r = 0; r < ROW_COUNT; r++) {
-                    revealedTiles[q][r] = false;
-                }
+        if (mapData == null) {
+            return;
+        }
+        // In a room the server works out the fog from all our tokens and sends it as it changes
+        if (!serverFog) {
+            // Hexes entering or leaving sight change in "Fog" mode; in "Fog of War" only the newly
+            // seen ones do, and the others are simply redrawn the same
+            int[] visible = lineOfSight.visibleFrom(playerHexQ, playerHexR, sightRadius());
+            FogOfWar.Diff diff = fog.setVisible(visible, visible.length);
+            for (int i = 0; i < diff.enteredCount(); i++) {
+                markFogDirty(diff.entered()[i]);
+            }
+            for (int i = 0; i < diff.leftCount(); i++) {
+                markFogDirty(diff.left()[i]);
             }
         }
 
-        for (int q = -revealRadius; q <= revealRadius; q++) {
-            for (int r = -revealRadius; r <= revealRadius; r++) {
-                int hexQ = playerHexQ + q;
-                int hexR = playerHexR + r;
-                if (hexQ >= 0 && hexQ < COL_COUNT && hexR >= 0 && hexR < ROW_COUNT) {
-                    revealedTiles[hexQ][hexR] = true;
-                }
-            }
+        // Read the chunks around the token before it walks into them
+        mapData.loadArea(playerHexQ - PRELOAD_MARGIN, playerHexR - PRELOAD_MARGIN, playerHexQ + PRELOAD_MARGIN, playerHexR + PRELOAD_MARGIN);
+    }
+
+    // False if the hex is under fog in the selected mode ("None" is handled by isFogActive)
+    private boolean isClear(int q, int r) {
+        RadioButton selectedRadio = (RadioButton) fogTypeGroup.getSelectedToggle();
+        boolean currentOnly = selectedRadio != null && "Fog".equals(selectedRadio.getText());
+        return currentOnly ? fog.isVisible(q, r) : fog.isRevealed(q, r);
+    }
+
+    private int chunkIndex(int q, int r) {
+        return r / MapData.CHUNK_SIZE * mapData.getChunkColCount() + q / MapData.CHUNK_SIZE;
+    }
+
+    private void markFogDirty(int index) {
+        if (dirtyFogCount == dirtyFog.length) {
+            dirtyFog = Arrays.copyOf(dirtyFog, dirtyFogCount * 2);
         }
+        dirtyFog[dirtyFogCount++] = index;
     }
 
     private void drawMap() {
@@ -368,73 +646,296 @@ public class PlayerMapViewerPage {
             // The AnimationTimer handles the drawing, no need to redraw statically here
             return;
         }
+        if (mapData == null) {
+            return;
+        }
 
-        // Restore original size
-        mapCanvas.setWidth(originalCanvasWidth);
-        mapCanvas.setHeight(originalCanvasHeight);
+        updateFogLayer();
+        drawTokens();
+    }
 
-        if (mapData == null) {
+    // Matches the canvases to the window and redraws for the new view
+    private void resizeView() {
+        if (isDoomModeActive) {
+            // Only the game's canvas follows the window; the map layers are hidden
+            mapCanvas.setWidth(viewport.getWidth());
+            mapCanvas.setHeight(viewport.getHeight());
             return;
         }
+        for (Canvas layer : new Canvas[]{terrainCanvas, fogCanvas, mapCanvas}) {
+            layer.setWidth(viewport.getWidth());
+            layer.setHeight(viewport.getHeight());
+        }
+        redrawView();
+    }
 
-        GraphicsContext gc = mapCanvas.getGraphicsContext2D();
-        gc.clearRect(0, 0, mapCanvas.getWidth(), mapCanvas.getHeight());
+    // Redraws every layer after the camera or the view size changed
+    private void redrawView() {
+        if (isDoomModeActive || mapData == null) {
+            return;
+        }
+        double viewWidth = mapCanvas.getWidth() / zoom;
+        double viewHeight = mapCanvas.getHeight() / zoom;
+        firstVisibleCol = Math.max(0, GEOMETRY.firstColumnIn(cameraX));
+        lastVisibleCol = Math.min(colCount - 1, GEOMETRY.lastColumnIn(cameraX + viewWidth));
+        firstVisibleRow = Math.max(0, GEOMETRY.firstRowIn(cameraY));
+        lastVisibleRow = Math.min(rowCount - 1, GEOMETRY.lastRowIn(cameraY + viewHeight));
+        if (!isOverview()) {
+            // Zoomed out, unread chunks are drawn in their summary colour instead of being read
+            mapData.loadArea(firstVisibleCol - PRELOAD_MARGIN, firstVisibleRow - PRELOAD_MARGIN,
+                    lastVisibleCol + PRELOAD_MARGIN, lastVisibleRow + PRELOAD_MARGIN);
+        }
 
-        drawGridAndFog();
-        drawPlayerToken(gc);
+        drawTerrain();
+        fogNeedsFullRedraw = true;
+        drawMap();
     }
 
-    private void drawGridAndFog() {
-        GraphicsContext gc = mapCanvas.getGraphicsContext2D();
-        RadioButton selectedRadio = (RadioButton) fogTypeGroup.getSelectedToggle();
-        String selectedFog = (selectedRadio != null) ? selectedRadio.getText() : "None";
+    /**
+     * Recentres the camera if the player's token has left the view. Returns true if it redrew.
+     */
+    private boolean followPlayer() {
+        double x = (GEOMETRY.centerX(playerHexQ) - cameraX) * zoom;
+        double y = (GEOMETRY.centerY(playerHexQ, playerHexR) - cameraY) * zoom;
+        if (x >= 0 && y >= 0 && x <= mapCanvas.getWidth() && y <= mapCanvas.getHeight()) {
+            return false;
+        }
+        cameraX = GEOMETRY.centerX(playerHexQ) - mapCanvas.getWidth() / zoom / 2;
+        cameraY = GEOMETRY.centerY(playerHexQ, playerHexR) - mapCanvas.getHeight() / zoom / 2;
+        redrawView();
+        return true;
+    }
+
+    private boolean isOverview() {
+        return GEOMETRY.size() * zoom < OVERVIEW_HEX_PIXELS;
+    }
+
+    // Puts a layer's drawing in map coordinates for the current camera
+    private void applyCamera(GraphicsContext gc) {
+        gc.setTransform(zoom, 0, 0, zoom, -cameraX * zoom, -cameraY * zoom);
+    }
+
+    /**
+     * Draws the visible chunks of one layer, each as a single rectangle or image. A chunk the
+     * layer has no image for is filled with the colour chunkFill gives, if any.
+     */
+    private void drawOverview(GraphicsContext gc, Map<Integer, WritableImage> images, IntFunction<Color> chunkFill,
+                              IntFunction<WritableImage> chunkImage) {
+        int chunkSize = MapData.CHUNK_SIZE;
+        double hexSize = GEOMETRY.size();
+        double hexHeight = GEOMETRY.hexHeight();
+        gc.setImageSmoothing(false);
+        for (int chunkRow = firstVisibleRow / chunkSize; chunkRow <= lastVisibleRow / chunkSize; chunkRow++) {
+            for (int chunkCol = firstVisibleCol / chunkSize; chunkCol <= lastVisibleCol / chunkSize; chunkCol++) {
+                // Column q spans centerX(q) +- 0.75 hex sizes and row r one hex height, ignoring the odd-column shift
+                int q = chunkCol * chunkSize;
+                int r = chunkRow * chunkSize;
+                double x = GEOMETRY.centerX(q) - hexSize * 0.75;
+                double y = r * hexHeight;
+                double width = Math.min(chunkSize, colCount - q) * hexSize * 1.5;
+                double height = Math.min(chunkSize, rowCount - r) * hexHeight;
+
+                int chunk = chunkRow * mapData.getChunkColCount() + chunkCol;
+                Color fill = chunkFill.apply(chunk);
+                if (fill != null) {
+                    gc.setFill(fill);
+                    gc.fillRect(x, y, width, height);
+                } else {
+                    gc.drawImage(images.computeIfAbsent(chunk, chunkImage::apply), x, y, width, height);
+                }
+            }
+        }
+    }
 
-        for (int q = 0; q < COL_COUNT; q++) {
-            for (int r = 0; r < ROW_COUNT; r++) {
-                int index = r * COL_COUNT + q;
-                if (index < mapData.getGrid().size()) {
-                    Color color = Color.web(mapData.getGrid().get(index));
-                    drawHex(gc, q, r, color);
+    // A chunk that hasn't been read, or is all one terrain, is one rectangle of its colour
+    private Color terrainChunkFill(int chunk) {
+        int chunkCol = chunk % mapData.getChunkColCount();
+        int chunkRow = chunk / mapData.getChunkColCount();
+        boolean simple = !mapData.isChunkLoaded(chunkCol, chunkRow) || mapData.isChunkUniform(chunkCol, chunkRow);
+        return simple ? mapColors.chunkColor(chunkCol, chunkRow) : null;
+    }
 
-                    if (!"None".equals(selectedFog) && !revealedTiles[q][r]) {
-                        drawHex(gc, q, r, Color.web("black"));
+    private WritableImage buildTerrainChunkImage(int chunk) {
+        int firstQ = chunk % mapData.getChunkColCount() * MapData.CHUNK_SIZE;
+        int firstR = chunk / mapData.getChunkColCount() * MapData.CHUNK_SIZE;
+        WritableImage image = new WritableImage(Math.min(MapData.CHUNK_SIZE, colCount - firstQ), Math.min(MapData.CHUNK_SIZE, rowCount - firstR));
+        PixelWriter pixels = image.getPixelWriter();
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                pixels.setColor(x, y, mapColors.colorAt(firstQ + x, firstR + y));
+            }
+        }
+        return image;
+    }
+
+    // A chunk nothing has been seen in is entirely fogged
+    private Color fogChunkFill(int chunk) {
+        int chunkCols = mapData.getChunkColCount();
+        return fog.isBlockUnexplored(chunk % chunkCols, chunk / chunkCols) ? Color.BLACK : null;
+    }
+
+    private WritableImage buildFogChunkImage(int chunk) {
+        int firstQ = chunk % mapData.getChunkColCount() * MapData.CHUNK_SIZE;
+        int firstR = chunk / mapData.getChunkColCount() * MapData.CHUNK_SIZE;
+        WritableImage image = new WritableImage(Math.min(MapData.CHUNK_SIZE, colCount - firstQ), Math.min(MapData.CHUNK_SIZE, rowCount - firstR));
+        PixelWriter pixels = image.getPixelWriter();
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                pixels.setArgb(x, y, isClear(firstQ + x, firstR + y) ? 0 : 0xFF000000);
+            }
+        }
+        return image;
+    }
+
+    // Paints the terrain in view; only needed when the camera moves or a map is loaded
+    private void drawTerrain() {
+        GraphicsContext gc = terrainCanvas.getGraphicsContext2D();
+        gc.setTransform(1, 0, 0, 1, 0, 0);
+        gc.clearRect(0, 0, terrainCanvas.getWidth(), terrainCanvas.getHeight());
+        applyCamera(gc);
+        if (isOverview()) {
+            drawOverview(gc, terrainChunkImages, this::terrainChunkFill, this::buildTerrainChunkImage);
+            return;
+        }
+        boolean outlines = GEOMETRY.size() * zoom >= OUTLINE_HEX_PIXELS;
+        for (int q = firstVisibleCol; q <= lastVisibleCol; q++) {
+            for (int r = firstVisibleRow; r <= lastVisibleRow; r++) {
+                drawHex(gc, q, r, mapColors.colorAt(q, r), outlines);
+            }
+        }
+    }
+
+    // Brings the fog layer in line with the revealed hexes. Normally only the hexes marked dirty are touched.
+    private void updateFogLayer() {
+        GraphicsContext gc = fogCanvas.getGraphicsContext2D();
+        boolean fogActive = isFogActive();
+        boolean overview = isOverview();
+        boolean outlines = GEOMETRY.size() * zoom >= OUTLINE_HEX_PIXELS;
+
+        if (fogNeedsFullRedraw) {
+            fogNeedsFullRedraw = false;
+            dirtyFogCount = 0;
+            fogChunkImages.clear();
+            gc.setTransform(1, 0, 0, 1, 0, 0);
+            gc.clearRect(0, 0, fogCanvas.getWidth(), fogCanvas.getHeight());
+            if (!fogActive) {
+                return;
+            }
+            applyCamera(gc);
+            if (overview) {
+                drawOverview(gc, fogChunkImages, this::fogChunkFill, this::buildFogChunkImage);
+                return;
+            }
+            for (int q = firstVisibleCol; q <= lastVisibleCol; q++) {
+                for (int r = firstVisibleRow; r <= lastVisibleRow; r++) {
+                    if (!isClear(q, r)) {
+                        drawHex(gc, q, r, Color.BLACK, outlines);
                     }
                 }
             }
+            return;
         }
+
+        applyCamera(gc);
+        for (int i = 0; i < dirtyFogCount; i++) {
+            int q = dirtyFog[i] % colCount;
+            int r = dirtyFog[i] / colCount;
+            boolean fogged = fogActive && !isClear(q, r);
+            WritableImage fogImage = fogChunkImages.get(chunkIndex(q, r));
+            if (fogImage != null) {
+                fogImage.getPixelWriter().setArgb(q % MapData.CHUNK_SIZE, r % MapData.CHUNK_SIZE, fogged ? 0xFF000000 : 0);
+            }
+            if (overview || q < firstVisibleCol || q > lastVisibleCol || r < firstVisibleRow || r > lastVisibleRow) {
+                continue;
+            }
+            if (fogged) {
+                drawHex(gc, q, r, Color.BLACK, outlines);
+            } else {
+                clearHex(gc, q, r);
+            }
+        }
+        if (overview && dirtyFogCount > 0) {
+            gc.setTransform(1, 0, 0, 1, 0, 0);
+            gc.clearRect(0, 0, fogCanvas.getWidth(), fogCanvas.getHeight());
+            applyCamera(gc);
+            drawOverview(gc, fogChunkImages, this::fogChunkFill, this::buildFogChunkImage);
+        }
+        dirtyFogCount = 0;
     }
 
-    private void drawHex(GraphicsContext gc, int q, int r, Color fill) {
-        // ... (existing implementation)
-        double xCenter = HEX_SIZE * 1.5 * q;
-        double yCenter = hexHeight * r + hexHeight * (q % 2) / 2;
+    private boolean isFogActive() {
+        RadioButton selectedRadio = (RadioButton) fogTypeGroup.getSelectedToggle();
+        return selectedRadio != null && !"None".equals(selectedRadio.getText());
+    }
 
-        double[] xPoints = new double[6];
-        double[] yPoints = new double[6];
-        for (int i = 0; i < 6; i++) {
-            double angleDeg = 60 * i;
-            double angleRad = Math.toRadians(angleDeg);
-            xPoints[i] = xCenter + HEX_SIZE * Math.cos(angleRad);
-            yPoints[i] = yCenter + HEX_SIZE * Math.sin(angleRad);
+    // Erases one hex (and the inner half of its outline) from a layer
+    private void clearHex(GraphicsContext gc, int q, int r) {
+        GEOMETRY.corners(q, r, xPoints, yPoints);
+        gc.save();
+        gc.beginPath();
+        gc.moveTo(xPoints[0], yPoints[0]);
+        for (int i = 1; i < 6; i++) {
+            gc.lineTo(xPoints[i], yPoints[i]);
         }
+        gc.closePath();
+        gc.clip();
+        gc.clearRect(xPoints[3] - 1, yPoints[5] - 1, GEOMETRY.hexWidth() + 2, GEOMETRY.hexHeight() + 2);
+        gc.restore();
+    }
+
+    private void drawHex(GraphicsContext gc, int q, int r, Color fill, boolean outline) {
+        GEOMETRY.corners(q, r, xPoints, yPoints);
 
         gc.setFill(fill);
-        gc.setStroke(Color.web("#555"));
-        gc.setLineWidth(1);
         gc.fillPolygon(xPoints, yPoints, 6);
-        gc.strokePolygon(xPoints, yPoints, 6);
+        if (outline) {
+            gc.setStroke(GRID_LINE_COLOR);
+            gc.setLineWidth(1);
+            gc.strokePolygon(xPoints, yPoints, 6);
+        }
+    }
+
+    // Tokens are drawn in screen space so they stay visible when zoomed far out
+    private void drawTokens() {
+        GraphicsContext gc = mapCanvas.getGraphicsContext2D();
+        gc.setTransform(1, 0, 0, 1, 0, 0);
+        gc.clearRect(0, 0, mapCanvas.getWidth(), mapCanvas.getHeight());
+        drawOtherTokens(gc);
+        drawPlayerToken(gc);
+    }
+
+    private void drawOtherTokens(GraphicsContext gc) {
+        boolean fogActive = isFogActive();
+        for (int[] token : otherTokens.values()) {
+            int q = token[0];
+            int r = token[1];
+            if (q < 0 || q >= colCount || r < 0 || r >= rowCount) {
+                continue;
+            }
+            // Players hidden by the fog stay hidden
+            if (fogActive && !isClear(q, r)) {
+                continue;
+            }
+            drawToken(gc, q, r, OTHER_TOKEN_COLOR);
+        }
     }
 
     private void drawPlayerToken(GraphicsContext gc) {
-        // ... (existing implementation)
-        double xCenter = HEX_SIZE * 1.5 * playerHexQ;
-        double yCenter = hexHeight * playerHexR + hexHeight * (playerHexQ % 2) / 2;
+        drawToken(gc, playerHexQ, playerHexR, PLAYER_TOKEN_COLOR);
+    }
+
+    private void drawToken(GraphicsContext gc, int q, int r, Color fill) {
+        double xCenter = (GEOMETRY.centerX(q) - cameraX) * zoom;
+        double yCenter = (GEOMETRY.centerY(q, r) - cameraY) * zoom;
 
-        // Draw the player token slightly smaller
-        double tokenSize = HEX_SIZE * 0.8;
-        gc.setFill(Color.web("#ffd700")); // Gold color for the token
+        // Draw the token slightly smaller than the hex, but never too small to spot
+        double tokenSize = Math.max(HEX_SIZE * 0.8 * zoom, 6);
+        if (xCenter + tokenSize < 0 || yCenter + tokenSize < 0 || xCenter - tokenSize > mapCanvas.getWidth() || yCenter - tokenSize > mapCanvas.getHeight()) {
+            return;
+        }
+        gc.setFill(fill);
         gc.fillOval(xCenter - tokenSize / 2, yCenter - tokenSize / 2, tokenSize, tokenSize);
-        gc.setStroke(Color.web("#8b0000"));
+        gc.setStroke(TOKEN_BORDER_COLOR);
         gc.setLineWidth(2);
         gc.strokeOval(xCenter - tokenSize / 2, yCenter - tokenSize / 2, tokenSize, tokenSize);
     }
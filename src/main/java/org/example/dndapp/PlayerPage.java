@@ -15,10 +15,12 @@ import javafx.stage.Stage;
 public class PlayerPage {
     private final Stage primaryStage;
     private final Scene homeScene;
+    private final WebSocketService webSocketService;
 
-    public PlayerPage(Stage primaryStage, Scene homeScene) {
+    public PlayerPage(Stage primaryStage, Scene homeScene, WebSocketService webSocketService) {
         this.primaryStage = primaryStage;
         this.homeScene = homeScene;
+        this.webSocketService = webSocketService;
     }
 
     public Scene createScene() {
@@ -48,7 +50,7 @@ public class PlayerPage {
         backButton.setStyle(buttonStyle);
 
         mapsButton.setOnAction(e -> {
-            MapsPage mapsPage = new MapsPage(primaryStage, createScene());
+            MapsPage mapsPage = new MapsPage(primaryStage, createScene(), webSocketService);
             primaryStage.setScene(mapsPage.createScene());
             primaryStage.setTitle("Maps");
         });
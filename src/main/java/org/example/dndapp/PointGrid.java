@@ -0,0 +1,85 @@
+package org.example.dndapp;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Uniform-grid spatial index over a fixed set of points, for nearest-neighbour queries during
+ * map generation. Points are bucketed into square cells sized to hold about two points each, and
+ * a query searches rings of cells outwards from its point until nothing closer can remain.
+ */
+final class PointGrid {
+
+    private final int[] xs;
+    private final int[] ys;
+    private final int cellSize;
+    private final int gridCols;
+    private final int gridRows;
+    private final int[][] cells;
+    private final int[] cellSizes;
+
+    /**
+     * Indexes points (xs[i], ys[i]), all inside a width x height area.
+     */
+    PointGrid(int[] xs, int[] ys, int width, int height) {
+        this.xs = xs;
+        this.ys = ys;
+        this.cellSize = Math.max(8, (int) Math.sqrt(2.0 * width * height / Math.max(1, xs.length)));
+        this.gridCols = width / cellSize + 1;
+        this.gridRows = height / cellSize + 1;
+        this.cells = new int[gridCols * gridRows][];
+        this.cellSizes = new int[cells.length];
+        for (int i = 0; i < xs.length; i++) {
+            int cell = ys[i] / cellSize * gridCols + xs[i] / cellSize;
+            if (cells[cell] == null) {
+                cells[cell] = new int[4];
+            } else if (cellSizes[cell] == cells[cell].length) {
+                cells[cell] = Arrays.copyOf(cells[cell], cellSizes[cell] * 2);
+            }
+            cells[cell][cellSizes[cell]++] = i;
+        }
+    }
+
+    /**
+     * Index of the point closest to point i among those accepted (lowest index on ties), or -1.
+     * Point i itself is never returned.
+     */
+    int nearest(int point, IntPredicate accept) {
+        int cx = xs[point] / cellSize;
+        int cy = ys[point] / cellSize;
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        int maxRing = Math.max(gridCols, gridRows);
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // Everything in this ring is at least (ring - 1) cells away
+            long reach = (long) Math.max(0, ring - 1) * cellSize;
+            if (best >= 0 && reach * reach > bestDistance) {
+                break;
+            }
+            for (int gy = Math.max(0, cy - ring); gy <= Math.min(gridRows - 1, cy + ring); gy++) {
+                // Inner rows of the ring only have their two end cells
+                int step = gy == cy - ring || gy == cy + ring ? 1 : Math.max(1, 2 * ring);
+                for (int gx = cx - ring; gx <= cx + ring; gx += step) {
+                    if (gx < 0 || gx >= gridCols) {
+                        continue;
+                    }
+                    int cell = gy * gridCols + gx;
+                    for (int i = 0; i < cellSizes[cell]; i++) {
+                        int other = cells[cell][i];
+                        if (other == point || !accept.test(other)) {
+                            continue;
+                        }
+                        long dx = xs[other] - xs[point];
+                        long dy = ys[other] - ys[point];
+                        long distance = dx * dx + dy * dy;
+                        if (distance < bestDistance || (distance == bestDistance && other < best)) {
+                            bestDistance = distance;
+                            best = other;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+}
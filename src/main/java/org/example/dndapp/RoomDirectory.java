@@ -0,0 +1,86 @@
+package org.example.dndapp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Versioned list of open rooms. Every published change bumps the sequence number and goes
+ * out as a ROOM_ADDED/ROOM_REMOVED delta, so clients only need a full ROOMLIST snapshot
+ * when they first connect or notice they have missed a sequence number.
+ *
+ * Changes are not published as they happen. add/remove only mark the directory dirty and
+ * flush() publishes the net difference since the last flush, so a burst of creates and
+ * removals becomes a single message. A room created and removed between two flushes is
+ * never published at all.
+ */
+public class RoomDirectory {
+
+    private final Set<String> names = new LinkedHashSet<>();
+    private final Set<String> published = new LinkedHashSet<>();
+    private long sequence = 0;
+    private boolean dirty = false;
+
+    public synchronized void add(String name) {
+        dirty |= names.add(name);
+    }
+
+    public synchronized void remove(String name) {
+        dirty |= names.remove(name);
+    }
+
+    /**
+     * Publishes everything that changed since the last flush. A single change is sent as
+     * ROOM_ADDED/ROOM_REMOVED; several are sent as one "ROOM_BATCH:firstSequence:+a:-b..."
+     * message in which each entry takes the next sequence number. The publisher runs under
+     * the directory lock so messages reach the sockets in sequence order.
+     */
+    public synchronized void flush(Consumer<GameProtocol.Message> publisher) {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+
+        List<String> changes = new ArrayList<>();
+        for (String name : published) {
+            if (!names.contains(name)) {
+                changes.add("-" + name);
+            }
+        }
+        for (String name : names) {
+            if (!published.contains(name)) {
+                changes.add("+" + name);
+            }
+        }
+        published.clear();
+        published.addAll(names);
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        long firstSequence = sequence + 1;
+        sequence += changes.size();
+        if (changes.size() == 1) {
+            String change = changes.get(0);
+            byte opcode = change.charAt(0) == '+' ? GameProtocol.ROOM_ADDED : GameProtocol.ROOM_REMOVED;
+            publisher.accept(GameProtocol.message(opcode, 0, Long.toString(firstSequence), change.substring(1)));
+            return;
+        }
+
+        String[] fields = new String[changes.size() + 1];
+        fields[0] = Long.toString(firstSequence);
+        for (int i = 0; i < changes.size(); i++) {
+            fields[i + 1] = changes.get(i);
+        }
+        publisher.accept(GameProtocol.message(GameProtocol.ROOM_BATCH, 0, fields));
+    }
+
+    /**
+     * Returns the last published list as "ROOMLIST:sequence:room,room,...".
+     */
+    public synchronized GameProtocol.Message snapshot() {
+        return GameProtocol.message(GameProtocol.ROOMLIST, 0, Long.toString(sequence), String.join(",", published));
+    }
+}
@@ -0,0 +1,154 @@
+package org.example.dndapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Authoritative fog of war for one room.
+ *
+ * The room's exploration is shared: a hex any player has seen is revealed for the whole table.
+ * What each player sees right now is worked out from all of their tokens, with walls blocking
+ * sight, once the room's map is known. Clients are sent only the hexes newly revealed to the
+ * table ("FOG:mapHash:cols,rows,last:cells") and each player their own visible area when it changes
+ * ("FOG_VISIBLE:mapHash:cols,rows,last:cells"); mapHash is the manifest hash of the map the fog
+ * belongs to, cells use FogOfWar's block bitset encoding and a set too large for one message is
+ * split, "last" being 1 on its final piece.
+ *
+ * Not thread-safe: a room's RoomFog is only used from that room's mailbox.
+ */
+public class RoomFog {
+
+    public static final int DEFAULT_SIGHT_RADIUS = 5;
+    public static final int MAX_SIGHT_RADIUS = 10;
+    // Leaves room under the protocol's field limit
+    private static final int MAX_PIECE_LENGTH = 60 * 1024;
+
+    private final Map<Integer, Integer> sightRadii = new HashMap<>();
+    private final Map<Integer, FogOfWar> playerSight = new HashMap<>();
+    private LineOfSight.Terrain terrain;
+    private byte[] mapHash;
+    private LineOfSight lineOfSight;
+    private FogOfWar explored;
+    // Union of a player's token sight, and the cells newly revealed since the last FOG message
+    private int[] visible = new int[64];
+    private int visibleCount;
+    private int[] revealed = new int[64];
+    private int revealedCount;
+
+    /**
+     * Switches to a new map, identified by its manifest hash. Exploration and sight start over.
+     */
+    public void setTerrain(LineOfSight.Terrain terrain, String mapHash) {
+        this.terrain = terrain;
+        this.mapHash = GameProtocol.utf8(mapHash);
+        this.lineOfSight = new LineOfSight(terrain);
+        this.explored = new FogOfWar(terrain.getColCount(), terrain.getRowCount());
+        playerSight.clear();
+        revealedCount = 0;
+    }
+
+    public boolean hasTerrain() {
+        return terrain != null;
+    }
+
+    /**
+     * True if the hex is on the room's map, or could be on any map while it isn't known yet.
+     */
+    public boolean isOnMap(int q, int r) {
+        int colCount = terrain != null ? terrain.getColCount() : MapData.MAX_SIZE;
+        int rowCount = terrain != null ? terrain.getRowCount() : MapData.MAX_SIZE;
+        return q >= 0 && r >= 0 && q < colCount && r < rowCount;
+    }
+
+    /**
+     * Sets how far a player's tokens see, clamped to 0..MAX_SIGHT_RADIUS.
+     */
+    public void setSightRadius(int sessionId, int radius) {
+        sightRadii.put(sessionId, Math.max(0, Math.min(MAX_SIGHT_RADIUS, radius)));
+    }
+
+    public void removePlayer(int sessionId) {
+        sightRadii.remove(sessionId);
+        playerSight.remove(sessionId);
+    }
+
+    /**
+     * Recomputes what a player sees from their tokens. Returns the FOG_VISIBLE messages for
+     * them, or none if their visible area did not change. Newly revealed hexes are kept for
+     * takeRevealed().
+     */
+    public List<GameProtocol.Message> updatePlayer(int roomId, int sessionId, TokenState tokens) {
+        if (terrain == null) {
+            return List.of();
+        }
+        int radius = sightRadii.getOrDefault(sessionId, DEFAULT_SIGHT_RADIUS);
+        visibleCount = 0;
+        tokens.forEachOwned(sessionId, (q, r) -> {
+            int[] cells = lineOfSight.visibleFrom(q, r, radius);
+            if (visibleCount + cells.length > visible.length) {
+                visible = Arrays.copyOf(visible, Math.max(visible.length * 2, visibleCount + cells.length));
+            }
+            System.arraycopy(cells, 0, visible, visibleCount, cells.length);
+            visibleCount += cells.length;
+        });
+
+        FogOfWar sight = playerSight.computeIfAbsent(sessionId, id -> new FogOfWar(terrain.getColCount(), terrain.getRowCount()));
+        if (sight.setVisible(visible, visibleCount).isEmpty()) {
+            return List.of();
+        }
+        FogOfWar.Diff diff = explored.addRevealed(sight.visibleCells(), sight.visibleCount());
+        if (revealedCount + diff.revealedCount() > revealed.length) {
+            revealed = Arrays.copyOf(revealed, Math.max(revealed.length * 2, revealedCount + diff.revealedCount()));
+        }
+        System.arraycopy(diff.revealed(), 0, revealed, revealedCount, diff.revealedCount());
+        revealedCount += diff.revealedCount();
+        return messages(GameProtocol.FOG_VISIBLE, roomId, sight.visibleCells(), sight.visibleCount(), true);
+    }
+
+    /**
+     * Returns the FOG messages for the hexes revealed since the last call, for everyone in the room.
+     */
+    public List<GameProtocol.Message> takeRevealed(int roomId) {
+        if (terrain == null || revealedCount == 0) {
+            return List.of();
+        }
+        List<GameProtocol.Message> messages = messages(GameProtocol.FOG, roomId, revealed, revealedCount, false);
+        revealedCount = 0;
+        return messages;
+    }
+
+    /**
+     * Returns everything explored so far and what the player sees now, for a player who joined
+     * or opened the map mid-session.
+     */
+    public List<GameProtocol.Message> snapshot(int roomId, int sessionId) {
+        if (terrain == null) {
+            return List.of();
+        }
+        int[] cells = explored.revealedCells();
+        List<GameProtocol.Message> messages = new ArrayList<>(messages(GameProtocol.FOG, roomId, cells, cells.length, false));
+        FogOfWar sight = playerSight.get(sessionId);
+        if (sight != null) {
+            messages.addAll(messages(GameProtocol.FOG_VISIBLE, roomId, sight.visibleCells(), sight.visibleCount(), true));
+        }
+        return messages;
+    }
+
+    // A visible area is always sent, even when empty, so the client can clear what it had
+    private List<GameProtocol.Message> messages(byte opcode, int roomId, int[] cells, int count, boolean sendEmpty) {
+        int colCount = terrain.getColCount();
+        List<byte[]> pieces = FogOfWar.encodeCells(cells, count, colCount, MAX_PIECE_LENGTH);
+        if (pieces.isEmpty() && sendEmpty) {
+            pieces = List.of(new byte[0]);
+        }
+        List<GameProtocol.Message> messages = new ArrayList<>(pieces.size());
+        for (int i = 0; i < pieces.size(); i++) {
+            String header = colCount + "," + terrain.getRowCount() + "," + (i == pieces.size() - 1 ? 1 : 0);
+            messages.add(new GameProtocol.Message(opcode, roomId, mapHash, GameProtocol.utf8(header), pieces.get(i)));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,134 @@
+package org.example.dndapp;
+
+import java.util.Random;
+
+/**
+ * Seeded 2D simplex noise (after Stefan Gustavson's reference implementation), with fractal
+ * Brownian motion summed over whole arrays of points at once.
+ *
+ * Values lie roughly in [-1, 1] and vary smoothly over about one unit. The permutation table
+ * is shuffled from the seed, so the same seed always gives the same field. StrictMath rather
+ * than Math keeps that true on every machine, since seeds are shared between players.
+ * Instances are immutable after construction and can be shared between threads.
+ */
+final class SimplexNoise {
+
+    private static final double F2 = 0.5 * (Math.sqrt(3) - 1);
+    private static final double G2 = (3 - Math.sqrt(3)) / 6;
+    // Twelve gradients evenly around the circle
+    private static final double[] GRADIENT_X = new double[12];
+    private static final double[] GRADIENT_Y = new double[12];
+
+    static {
+        for (int i = 0; i < 12; i++) {
+            GRADIENT_X[i] = StrictMath.cos(Math.PI * i / 6);
+            GRADIENT_Y[i] = StrictMath.sin(Math.PI * i / 6);
+        }
+    }
+
+    // Permutation of 0..255 repeated twice, so lookups need no wrapping; and each entry mod 12
+    private final int[] perm = new int[512];
+    private final int[] gradientIndex = new int[512];
+
+    SimplexNoise(long seed) {
+        int[] shuffled = new int[256];
+        for (int i = 0; i < 256; i++) {
+            shuffled[i] = i;
+        }
+        Random random = new Random(seed);
+        for (int i = 255; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = swap;
+        }
+        for (int i = 0; i < 512; i++) {
+            perm[i] = shuffled[i & 255];
+            gradientIndex[i] = perm[i] % 12;
+        }
+    }
+
+    double noise(double x, double y) {
+        // Skew into the simplex grid and find which of the cell's two triangles holds the point
+        double s = (x + y) * F2;
+        int i = floor(x + s);
+        int j = floor(y + s);
+        double t = (i + j) * G2;
+        double x0 = x - (i - t);
+        double y0 = y - (j - t);
+        int i1 = x0 > y0 ? 1 : 0;
+        int j1 = 1 - i1;
+        double x1 = x0 - i1 + G2;
+        double y1 = y0 - j1 + G2;
+        double x2 = x0 - 1 + 2 * G2;
+        double y2 = y0 - 1 + 2 * G2;
+
+        int ii = i & 255;
+        int jj = j & 255;
+        return 70 * (corner(gradientIndex[ii + perm[jj]], x0, y0)
+                + corner(gradientIndex[ii + i1 + perm[jj + j1]], x1, y1)
+                + corner(gradientIndex[ii + 1 + perm[jj + 1]], x2, y2));
+    }
+
+    /**
+     * Writes fractal noise at the first count points (xs[i], ys[i]) into out: octaves layers of
+     * noise, each at twice the frequency and gain times the amplitude of the one before,
+     * normalised back to about [-1, 1].
+     */
+    void fbm(double[] xs, double[] ys, double[] out, int count, int octaves, double frequency, double gain) {
+        for (int i = 0; i < count; i++) {
+            out[i] = 0;
+        }
+        addOctaves(xs, ys, out, count, 0, octaves, frequency, gain);
+        double scale = 1 / amplitudeSum(octaves, gain);
+        for (int i = 0; i < count; i++) {
+            out[i] *= scale;
+        }
+    }
+
+    /**
+     * Adds octaves first (inclusive) to last (exclusive) of fbm's layers, not normalised, to out.
+     * Works a layer at a time over the whole array, so the low octaves of a field can be taken
+     * on fewer points than the high ones.
+     */
+    void addOctaves(double[] xs, double[] ys, double[] out, int count, int first, int last, double frequency, double gain) {
+        double amplitude = StrictMath.pow(gain, first);
+        frequency *= StrictMath.pow(2, first);
+        for (int octave = first; octave < last; octave++) {
+            // Shift each layer so their lattices don't line up at the origin
+            double offset = octave * 31.7;
+            for (int i = 0; i < count; i++) {
+                out[i] += amplitude * noise(xs[i] * frequency + offset, ys[i] * frequency - offset);
+            }
+            amplitude *= gain;
+            frequency *= 2;
+        }
+    }
+
+    /**
+     * What fbm divides by: the sum of the amplitudes of the first octaves layers.
+     */
+    static double amplitudeSum(int octaves, double gain) {
+        double total = 0;
+        double amplitude = 1;
+        for (int octave = 0; octave < octaves; octave++) {
+            total += amplitude;
+            amplitude *= gain;
+        }
+        return total;
+    }
+
+    private static double corner(int gradient, double x, double y) {
+        double t = 0.5 - x * x - y * y;
+        if (t < 0) {
+            return 0;
+        }
+        t *= t;
+        return t * t * (GRADIENT_X[gradient] * x + GRADIENT_Y[gradient] * y);
+    }
+
+    private static int floor(double value) {
+        int truncated = (int) value;
+        return value < truncated ? truncated - 1 : truncated;
+    }
+}
@@ -0,0 +1,129 @@
+package org.example.dndapp;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Authoritative token positions for one room.
+ *
+ * MOVE commands are only queued; advance() applies them once per server tick, keeping the last
+ * move per token, and returns a delta holding just the tokens that changed. Tokens are keyed
+ * "sessionId.slot" so a player can own up to MAX_SLOTS of them. Entries too long for one
+ * message are split over several, each still a valid delta for the same tick.
+ *
+ * Not thread-safe: a room's TokenState is only used from that room's mailbox.
+ */
+public class TokenState {
+
+    public static final int MAX_SLOTS = 16;
+    // Leaves room under the protocol's field limit
+    private static final int MAX_ENTRIES_LENGTH = 60 * 1024;
+
+    private final Map<String, int[]> positions = new LinkedHashMap<>();
+    private final Map<String, int[]> pendingMoves = new LinkedHashMap<>();
+    private final Set<String> removed = new LinkedHashSet<>();
+    private long tick = 0;
+
+    public static String tokenKey(int sessionId, int slot) {
+        return sessionId + "." + slot;
+    }
+
+    public void queueMove(String token, int q, int r) {
+        pendingMoves.put(token, new int[]{q, r});
+        removed.remove(token);
+    }
+
+    /**
+     * Drops every token owned by a session, e.g. when the player leaves the room.
+     */
+    public void removeOwner(int sessionId) {
+        String prefix = sessionId + ".";
+        pendingMoves.keySet().removeIf(token -> token.startsWith(prefix));
+        Iterator<String> tokens = positions.keySet().iterator();
+        while (tokens.hasNext()) {
+            String token = tokens.next();
+            if (token.startsWith(prefix)) {
+                tokens.remove();
+                removed.add(token);
+            }
+        }
+    }
+
+    /**
+     * Visits the current position of every token owned by a session.
+     */
+    public void forEachOwned(int sessionId, HexGeometry.HexVisitor visitor) {
+        String prefix = sessionId + ".";
+        for (Map.Entry<String, int[]> token : positions.entrySet()) {
+            if (token.getKey().startsWith(prefix)) {
+                visitor.visit(token.getValue()[0], token.getValue()[1]);
+            }
+        }
+    }
+
+    /**
+     * Applies the queued moves. Returns "TOKENS:tick:token,q,r;token;..." messages listing the
+     * changed tokens (a bare token key means it was removed), or none if nothing changed this tick.
+     */
+    public List<GameProtocol.Message> advance(int roomId) {
+        List<String> changes = new ArrayList<>();
+        for (Map.Entry<String, int[]> move : pendingMoves.entrySet()) {
+            int[] target = move.getValue();
+            int[] current = positions.get(move.getKey());
+            if (current != null && current[0] == target[0] && current[1] == target[1]) {
+                continue;
+            }
+            positions.put(move.getKey(), target);
+            changes.add(entry(move.getKey(), target));
+        }
+        changes.addAll(removed);
+        pendingMoves.clear();
+        removed.clear();
+
+        if (changes.isEmpty()) {
+            return List.of();
+        }
+        tick++;
+        return messages(GameProtocol.TOKENS, roomId, changes);
+    }
+
+    /**
+     * Returns every token position as "TOKEN_SNAPSHOT:tick:token,q,r;...", for players joining
+     * mid-session. If it takes more than one message, the rest follow as TOKENS for the same tick.
+     */
+    public List<GameProtocol.Message> snapshot(int roomId) {
+        List<String> entries = new ArrayList<>(positions.size());
+        for (Map.Entry<String, int[]> token : positions.entrySet()) {
+            entries.add(entry(token.getKey(), token.getValue()));
+        }
+        return messages(GameProtocol.TOKEN_SNAPSHOT, roomId, entries);
+    }
+
+    private static String entry(String token, int[] position) {
+        return token + "," + position[0] + "," + position[1];
+    }
+
+    // Joins entries into messages of at most MAX_ENTRIES_LENGTH; always at least one
+    private List<GameProtocol.Message> messages(byte opcode, int roomId, List<String> entries) {
+        String tickField = Long.toString(tick);
+        List<GameProtocol.Message> messages = new ArrayList<>(1);
+        StringBuilder piece = new StringBuilder();
+        for (String entry : entries) {
+            if (piece.length() > 0 && piece.length() + 1 + entry.length() > MAX_ENTRIES_LENGTH) {
+                messages.add(GameProtocol.message(messages.isEmpty() ? opcode : GameProtocol.TOKENS, roomId, tickField, piece.toString()));
+                piece.setLength(0);
+            }
+            if (piece.length() > 0) {
+                piece.append(';');
+            }
+            piece.append(entry);
+        }
+        messages.add(GameProtocol.message(messages.isEmpty() ? opcode : GameProtocol.TOKENS, roomId, tickField, piece.toString()));
+        return messages;
+    }
+}
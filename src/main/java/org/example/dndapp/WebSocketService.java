@@ -6,6 +6,11 @@ import org.java_websocket.enums.ReadyState;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 
@@ -13,9 +18,19 @@ public class WebSocketService {
 
     private static final Logger LOGGER = Logger.getLogger(WebSocketService.class.getName());
     private static final String WS_URL = "wss://dnd-game-server.onrender.com";
+    // Binary frames are used once the server's WELCOME says it reads them, so servers that predate
+    // them keep working over text; -Ddndapp.binaryProtocol=false stays on text frames regardless
+    private static final boolean BINARY_PROTOCOL_ALLOWED = !"false".equalsIgnoreCase(System.getProperty("dndapp.binaryProtocol"));
 
     private WebSocketClient webSocketClient;
-    private Consumer<String> onMessageReceived;
+    private Consumer<GameProtocol.Message> onMessageReceived;
+    // Extra consumers (e.g. an open map viewer) that want to see server messages too
+    private final List<Consumer<GameProtocol.Message>> messageListeners = new CopyOnWriteArrayList<>();
+    private volatile String currentRoom;
+    private volatile int sessionId = -1;
+    private volatile boolean binaryProtocol;
+    // Room ids learned from binary SUCCESS frames, needed to address LEAVE/CHAT in the binary protocol
+    private final Map<String, Integer> roomIds = new ConcurrentHashMap<>();
 
     public void connect() {
         if (webSocketClient != null && (webSocketClient.getReadyState().equals(ReadyState.OPEN) || webSocketClient.getReadyState().equals(ReadyState.NOT_YET_CONNECTED))) {
@@ -27,13 +42,30 @@ public class WebSocketService {
                 @Override
                 public void onOpen(ServerHandshake handshakedata) {
                     LOGGER.info("WebSocket connection opened.");
+                    // A new connection is in no room, and ids from the last one may belong to other rooms now
+                    currentRoom = null;
+                    roomIds.clear();
+                    binaryProtocol = false;
                 }
 
                 @Override
-                public void onMessage(String message) {
-                    if (onMessageReceived != null) {
-                        onMessageReceived.accept(message);
+                public void onMessage(String text) {
+                    GameProtocol.Message message = GameProtocol.Message.fromServerText(text);
+                    if (message == null) {
+                        LOGGER.warning("Received unknown text message: " + text);
+                        return;
                     }
+                    deliver(message);
+                }
+
+                @Override
+                public void onMessage(ByteBuffer bytes) {
+                    GameProtocol.Message message = GameProtocol.Message.decode(bytes);
+                    if (message == null) {
+                        LOGGER.warning("Received malformed binary frame.");
+                        return;
+                    }
+                    deliver(message);
                 }
 
                 @Override
@@ -73,15 +105,146 @@ public class WebSocketService {
         }
     }
 
-    public void sendMessage(String message) {
-        if (webSocketClient != null && webSocketClient.getReadyState().equals(ReadyState.OPEN)) {
-            webSocketClient.send(message);
-        } else {
-            LOGGER.warning("Failed to send message: WebSocket not connected.");
+    // --- Commands ---
+
+    public void createRoom(String roomName, String password) {
+        send(GameProtocol.message(GameProtocol.CREATE, 0, roomName, password));
+    }
+
+    public void joinRoom(String roomName, String password) {
+        // A known id lets the server skip the name lookup; it still checks the name matches
+        send(GameProtocol.message(GameProtocol.JOIN, roomIds.getOrDefault(roomName, 0), roomName, password));
+    }
+
+    public void leaveRoom(String roomName) {
+        sendToRoom(GameProtocol.LEAVE, roomName);
+        if (roomName.equals(currentRoom)) {
+            currentRoom = null;
         }
     }
 
-    public void setOnMessageReceived(Consumer<String> consumer) {
+    public void chat(String roomName, String text) {
+        sendToRoom(GameProtocol.CHAT, roomName, GameProtocol.utf8(text));
+    }
+
+    /**
+     * Moves our token to hex (q, r); the server applies it on its next tick.
+     */
+    public void move(String roomName, int q, int r) {
+        sendToRoom(GameProtocol.MOVE, roomName, GameProtocol.utf8(q + "," + r));
+    }
+
+    /**
+     * Sets how far our tokens see; the server answers with the room's fog so far.
+     */
+    public void sight(String roomName, int radius) {
+        sendToRoom(GameProtocol.SIGHT, roomName, GameProtocol.utf8(Integer.toString(radius)));
+    }
+
+    public void syncRoomList() {
+        send(GameProtocol.message(GameProtocol.ROOMLIST_SYNC, 0));
+    }
+
+    public void mapManifest(String roomName, String mapName, int size, String mapHash, List<String> chunkHashes) {
+        sendToRoom(GameProtocol.MAP_MANIFEST, roomName, GameProtocol.utf8(mapName), GameProtocol.utf8(Integer.toString(size)),
+                GameProtocol.utf8(mapHash), GameProtocol.utf8(String.join(",", chunkHashes)));
+    }
+
+    public void mapWant(String roomName, String mapHash, List<String> chunkHashes) {
+        sendToRoom(GameProtocol.MAP_WANT, roomName, GameProtocol.utf8(mapHash), GameProtocol.utf8(String.join(",", chunkHashes)));
+    }
+
+    /**
+     * Sends a chunk to one player, by session id, or to everyone else in the room with target "*".
+     */
+    public void mapChunk(String roomName, String target, String chunkHash, byte[] data) {
+        sendToRoom(GameProtocol.MAP_CHUNK, roomName, GameProtocol.utf8(target), GameProtocol.utf8(chunkHash), data);
+    }
+
+    public void mapHave(String roomName, String mapHash) {
+        sendToRoom(GameProtocol.MAP_HAVE, roomName, GameProtocol.utf8(mapHash));
+    }
+
+    public void setOnMessageReceived(Consumer<GameProtocol.Message> consumer) {
         this.onMessageReceived = consumer;
     }
+
+    public void addMessageListener(Consumer<GameProtocol.Message> listener) {
+        messageListeners.add(listener);
+    }
+
+    public void removeMessageListener(Consumer<GameProtocol.Message> listener) {
+        messageListeners.remove(listener);
+    }
+
+    /**
+     * The room we last created or joined, or null if we haven't joined one or have left it.
+     */
+    public String getCurrentRoom() {
+        return currentRoom;
+    }
+
+    /**
+     * Our id on the server, sent in the WELCOME message; -1 until it arrives.
+     */
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    private void deliver(GameProtocol.Message message) {
+        // Listeners read fields by position, so short messages never reach them
+        if (message.fieldCount() < Math.max(1, GameProtocol.serverFieldCount(message.opcode()))) {
+            LOGGER.warning("Dropping " + GameProtocol.name(message.opcode()) + " message with too few fields.");
+            return;
+        }
+        if (message.opcode() == GameProtocol.SUCCESS) {
+            currentRoom = message.field(1);
+            if (message.roomId() != 0) {
+                roomIds.put(currentRoom, message.roomId());
+            }
+        } else if (message.opcode() == GameProtocol.WELCOME) {
+            // "WELCOME:sessionId:protocolVersion"
+            sessionId = Integer.parseInt(message.field(0));
+            binaryProtocol = BINARY_PROTOCOL_ALLOWED && message.field(1).equals(Integer.toString(GameProtocol.VERSION));
+        }
+        if (onMessageReceived != null) {
+            onMessageReceived.accept(message);
+        }
+        for (Consumer<GameProtocol.Message> listener : messageListeners) {
+            listener.accept(message);
+        }
+    }
+
+    /**
+     * Sends a command that names a room. In binary frames the room goes in the header as its id,
+     * which we only learn once the server has put us in it; until then, and whenever binary frames
+     * are not in use, the command goes out as "COMMAND:room:field:...".
+     */
+    private void sendToRoom(byte opcode, String roomName, byte[]... fields) {
+        Integer roomId = roomIds.get(roomName);
+        if (binaryProtocol && roomId != null) {
+            send(new GameProtocol.Message(opcode, roomId, fields));
+            return;
+        }
+        byte[][] textFields = new byte[fields.length + 1][];
+        textFields[0] = GameProtocol.utf8(roomName);
+        System.arraycopy(fields, 0, textFields, 1, fields.length);
+        sendFrame(new GameProtocol.Message(opcode, 0, textFields), false);
+    }
+
+    private void send(GameProtocol.Message message) {
+        sendFrame(message, binaryProtocol);
+    }
+
+    private void sendFrame(GameProtocol.Message message, boolean binary) {
+        if (webSocketClient != null && webSocketClient.getReadyState().equals(ReadyState.OPEN)) {
+            if (binary) {
+                webSocketClient.send(message.toBinary());
+            } else {
+                webSocketClient.send(message.toText());
+            }
+        } else {
+            LOGGER.warning("Failed to send " + GameProtocol.name(message.opcode()) + ": WebSocket not connected.");
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+package org.example.dndapp;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Collision lookups that cross cell borders or reach past the edge of the map.
+ */
+class CellGridTest {
+
+    private final DoomEngine.CellGrid grid = new DoomEngine.CellGrid(10, 10);
+
+    @Test
+    void findsAnEntityJustAcrossACellBorder() {
+        DoomEngine.Entity enemy = enemy(2.99, 5.5);
+        grid.add(enemy);
+
+        assertSame(enemy, grid.findTouching(3.01, 5.5, 0.05));
+    }
+
+    @Test
+    void findsAnEntityAcrossACellCorner() {
+        DoomEngine.Entity enemy = enemy(1.95, 1.95);
+        grid.add(enemy);
+
+        assertSame(enemy, grid.findTouching(2.05, 2.05, 0.05));
+    }
+
+    @Test
+    void missesAnEntityInANeighbouringCellThatIsOutOfReach() {
+        grid.add(enemy(4.9, 3.0));
+
+        assertNull(grid.findTouching(3.0, 3.0, 0.1));
+    }
+
+    @Test
+    void entitiesPastTheEdgeAreKeptInTheEdgeCells() {
+        DoomEngine.Entity left = enemy(-0.1, 0.5);
+        DoomEngine.Entity right = enemy(10.0, 9.5);
+        grid.add(left);
+        grid.add(right);
+
+        assertSame(left, grid.findTouching(0.1, 0.5, 0.05));
+        assertSame(right, grid.findTouching(9.9, 9.5, 0.05));
+    }
+
+    @Test
+    void removedAndClearedEntitiesAreNotFound() {
+        DoomEngine.Entity removed = enemy(5.0, 5.0);
+        removed.removed = true;
+        grid.add(removed);
+        assertNull(grid.findTouching(5.0, 5.0, 0.1));
+
+        grid.add(enemy(6.0, 6.0));
+        grid.clear();
+        assertNull(grid.findTouching(6.0, 6.0, 0.1));
+    }
+
+    private static DoomEngine.Entity enemy(double x, double y) {
+        return new DoomEngine.Entity(x, y, 0, 0, "NormalEnemy", 0.5, 0.4, 10, 0);
+    }
+}
@@ -0,0 +1,50 @@
+package org.example.dndapp;
+
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.MouseButton;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A game's seed and input log are enough to play it again to the same state.
+ */
+class DoomEngineTest {
+
+    @Test
+    void replayReachesTheRecordedState() {
+        DoomEngine game = new DoomEngine(1234);
+        long now = 0;
+        game.update(now);
+        for (int frame = 0; frame < 600; frame++) {
+            switch (frame) {
+                // Face down the corridor first, so the enemies have room to spawn
+                case 0 -> game.handleKeyPress(KeyCode.A);
+                case 44 -> game.handleKeyRelease(KeyCode.A);
+                case 45 -> game.handleKeyPress(KeyCode.DIGIT4);
+                case 50 -> game.handleKeyPress(KeyCode.DIGIT6);
+                case 65 -> game.handleKeyPress(KeyCode.DIGIT2); // The shotgun, whose spread comes from the seed
+                case 70, 300 -> game.handleKeyPress(KeyCode.W);
+                case 100 -> game.handleKeyPress(KeyCode.A);
+                case 120 -> game.handleKeyRelease(KeyCode.A);
+                case 200 -> game.handleKeyRelease(KeyCode.W);
+                case 400 -> game.handleKeyPress(KeyCode.R);
+                default -> {
+                }
+            }
+            if (frame % 25 == 0) {
+                game.handleMouseClick(MouseButton.PRIMARY);
+            }
+            // Uneven frames, so several inputs can land in one tick and some frames run no tick at all
+            now += frame % 3 == 0 ? 40_000_000L : 7_000_000L;
+            game.update(now);
+        }
+
+        DoomEngine replay = DoomEngine.replay(game.getSeed(), game.getInputLog(), game.getTick());
+
+        assertTrue(game.getTick() > 0);
+        assertTrue(game.describeState().contains("GunEnemy"));
+        assertEquals(game.describeState(), replay.describeState());
+    }
+}
@@ -0,0 +1,75 @@
+package org.example.dndapp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Caves and dungeons come out as one connected floor, walled in at the border.
+ */
+class FloorPlanTest {
+
+    private static final int COLS = 150;
+    private static final int ROWS = 90;
+
+    @Test
+    void caveFloorIsOneRegion() {
+        for (long seed = 0; seed < 10; seed++) {
+            assertOneWalledRegion(FloorPlan.cave(seed, COLS, ROWS), "cave seed " + seed);
+        }
+    }
+
+    @Test
+    void dungeonFloorIsOneRegion() {
+        for (long seed = 0; seed < 10; seed++) {
+            assertOneWalledRegion(FloorPlan.dungeon(new Random(seed), COLS, ROWS), "dungeon seed " + seed);
+        }
+    }
+
+    // Flood fills from one floor hex, over the six hex neighbours, and checks it reached all of the floor
+    private static void assertOneWalledRegion(FloorPlan plan, String name) {
+        int floorCount = 0;
+        int first = -1;
+        for (int y = 0; y < ROWS; y++) {
+            for (int x = 0; x < COLS; x++) {
+                if (plan.isFloor(x, y)) {
+                    assertFalse(x == 0 || y == 0 || x == COLS - 1 || y == ROWS - 1, name + ": floor on the border");
+                    floorCount++;
+                    first = first < 0 ? y * COLS + x : first;
+                }
+            }
+        }
+        assertTrue(floorCount > 0, name + ": no floor");
+
+        boolean[] reached = new boolean[COLS * ROWS];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        reached[first] = true;
+        queue.add(first);
+        int reachedCount = 0;
+        while (!queue.isEmpty()) {
+            int hex = queue.poll();
+            reachedCount++;
+            int x = hex % COLS;
+            int y = hex / COLS;
+            // Odd columns sit half a hex lower, so their side neighbours are in this row and the one below
+            int side = (x & 1) == 0 ? -1 : 1;
+            int[][] neighbours = {{x, y - 1}, {x, y + 1}, {x - 1, y}, {x + 1, y}, {x - 1, y + side}, {x + 1, y + side}};
+            for (int[] n : neighbours) {
+                if (n[0] < 0 || n[1] < 0 || n[0] >= COLS || n[1] >= ROWS) {
+                    continue;
+                }
+                int next = n[1] * COLS + n[0];
+                if (!reached[next] && plan.isFloor(n[0], n[1])) {
+                    reached[next] = true;
+                    queue.add(next);
+                }
+            }
+        }
+        assertEquals(floorCount, reachedCount, name + ": floor hexes not reachable from the rest");
+    }
+}
@@ -0,0 +1,181 @@
+package org.example.dndapp;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips of both wire forms, and frames a misbehaving peer could send.
+ */
+class GameProtocolTest {
+
+    @Test
+    void binaryFrameDecodesToTheSameMessage() {
+        byte[] raw = {0, (byte) 0xFF, ':', 0x7F, (byte) 0x80};
+        GameProtocol.Message sent = new GameProtocol.Message(GameProtocol.MAP_CHUNK, 42,
+                GameProtocol.utf8("abc123"), raw);
+
+        GameProtocol.Message received = GameProtocol.Message.decode(sent.toBinary());
+
+        assertNotNull(received);
+        assertEquals(GameProtocol.MAP_CHUNK, received.opcode());
+        assertEquals(42, received.roomId());
+        assertEquals(2, received.fieldCount());
+        assertEquals("abc123", received.field(0));
+        assertArrayEquals(raw, received.bytes(1));
+    }
+
+    @Test
+    void binaryFrameCanBeDecodedAgain() {
+        GameProtocol.Message message = GameProtocol.message(GameProtocol.CHAT_MESSAGE, 7, "room", "hi");
+        message.toBinary().position(3);
+
+        GameProtocol.Message received = GameProtocol.Message.decode(message.toBinary());
+
+        assertNotNull(received);
+        assertEquals("hi", received.field(1));
+    }
+
+    @Test
+    void serverTextFrameRoundTrips() {
+        GameProtocol.Message fog = new GameProtocol.Message(GameProtocol.FOG, 0,
+                GameProtocol.utf8("hash"), GameProtocol.utf8("10,20,1"), new byte[]{1, 2, 3, (byte) 0xFE});
+
+        GameProtocol.Message received = GameProtocol.Message.fromServerText(fog.toText());
+
+        assertNotNull(received);
+        assertEquals(GameProtocol.FOG, received.opcode());
+        assertEquals("hash", received.field(0));
+        assertEquals("10,20,1", received.field(1));
+        assertArrayEquals(new byte[]{1, 2, 3, (byte) 0xFE}, received.bytes(2));
+        assertEquals(fog.toText(), received.toText());
+    }
+
+    @Test
+    void chatSenderAddressKeepsItsColon() {
+        GameProtocol.Message received = GameProtocol.Message.fromServerText("CHAT_MESSAGE:/1.2.3.4:5678:see you at 10:30");
+
+        assertNotNull(received);
+        assertEquals(2, received.fieldCount());
+        assertEquals("/1.2.3.4:5678", received.field(0));
+        assertEquals("see you at 10:30", received.field(1));
+        assertEquals("CHAT_MESSAGE:/1.2.3.4:5678:see you at 10:30", received.toText());
+    }
+
+    @Test
+    void chatSenderMayBeAnIpv6Address() {
+        GameProtocol.Message received = GameProtocol.Message.fromServerText("CHAT_MESSAGE:/[0:0:0:0:0:0:0:1]:5678:hi");
+
+        assertNotNull(received);
+        assertEquals("/[0:0:0:0:0:0:0:1]:5678", received.field(0));
+        assertEquals("hi", received.field(1));
+    }
+
+    @Test
+    void lastTextFieldKeepsItsColons() {
+        GameProtocol.Message received = GameProtocol.Message.fromServerText("SUCCESS:PLAYER:table 10:30");
+
+        assertNotNull(received);
+        assertEquals(2, received.fieldCount());
+        assertEquals("table 10:30", received.field(1));
+    }
+
+    @Test
+    void welcomeCarriesTheProtocolVersion() {
+        GameProtocol.Message received = GameProtocol.Message.fromServerText("WELCOME:12:" + GameProtocol.VERSION);
+
+        assertNotNull(received);
+        assertEquals("12", received.field(0));
+        assertEquals(Integer.toString(GameProtocol.VERSION), received.field(1));
+    }
+
+    @Test
+    void fieldsFromTextSplitsEveryColonWithoutACount() {
+        byte[][] fields = GameProtocol.fieldsFromText(GameProtocol.ROOM_BATCH, "a:b:c", -1);
+
+        assertEquals(3, fields.length);
+        assertEquals("c", new String(fields[2], StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void unknownTextCommandIsRejected() {
+        assertNull(GameProtocol.Message.fromServerText("NOT_A_COMMAND:x"));
+        assertNull(GameProtocol.Message.fromServerText(""));
+    }
+
+    @Test
+    void invalidBase64IsRejected() {
+        assertNull(GameProtocol.Message.fromServerText("MAP_CHUNK:hash:not base64!"));
+    }
+
+    @Test
+    void frameWithTheWrongVersionIsRejected() {
+        ByteBuffer frame = copy(GameProtocol.message(GameProtocol.CHAT, 1, "hi").toBinary());
+        frame.put(0, (byte) (GameProtocol.VERSION + 1));
+
+        assertNull(GameProtocol.Message.decode(frame));
+    }
+
+    @Test
+    void truncatedFrameIsRejected() {
+        ByteBuffer frame = GameProtocol.message(GameProtocol.CHAT, 1, "hello").toBinary();
+
+        assertNull(GameProtocol.Message.decode(frame.slice(0, GameProtocol.HEADER_SIZE - 1)));
+        assertNull(GameProtocol.Message.decode(frame.slice(0, frame.remaining() - 1)));
+    }
+
+    @Test
+    void negativePayloadLengthIsRejected() {
+        ByteBuffer frame = copy(GameProtocol.message(GameProtocol.CHAT, 1, "hi").toBinary());
+        frame.putInt(6, -1);
+
+        assertNull(GameProtocol.Message.decode(frame));
+    }
+
+    @Test
+    void fieldLongerThanItsPayloadIsNotReadPastTheFrame() {
+        ByteBuffer frame = ByteBuffer.allocate(GameProtocol.HEADER_SIZE + 2 + 2 + 1);
+        frame.put(GameProtocol.VERSION).put(GameProtocol.CHAT).putInt(1).putInt(5);
+        frame.putShort((short) 0).putShort((short) 100).put((byte) 'x');
+        frame.flip();
+
+        GameProtocol.Message received = GameProtocol.Message.decode(frame);
+
+        assertNotNull(received);
+        assertEquals(2, received.fieldCount());
+        assertEquals(0, received.bytes(1).length);
+    }
+
+    @Test
+    void fieldOverTheLengthLimitIsRefused() {
+        byte[] tooLong = new byte[GameProtocol.MAX_FIELD_LENGTH + 1];
+
+        assertThrows(IllegalArgumentException.class, () -> new GameProtocol.Message(GameProtocol.MAP_CHUNK, 0, tooLong));
+    }
+
+    @Test
+    void onlyContentHashesLookLikeHashes() {
+        String hash = GameProtocol.contentHash(new byte[]{1, 2, 3});
+
+        assertTrue(GameProtocol.isContentHash(hash));
+        assertFalse(GameProtocol.isContentHash(hash.toUpperCase()));
+        assertFalse(GameProtocol.isContentHash(hash.substring(1)));
+        assertFalse(GameProtocol.isContentHash("../../" + hash.substring(6)));
+        assertFalse(GameProtocol.isContentHash(""));
+    }
+
+    private static ByteBuffer copy(ByteBuffer buffer) {
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate()).flip();
+        return copy;
+    }
+}
@@ -0,0 +1,138 @@
+package org.example.dndapp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * toBytes/fromBytes round trips, and map data that has to be refused rather than shown as terrain.
+ */
+class MapDataTest {
+
+    @Test
+    void mapRoundTripsThroughBytes() throws IOException {
+        // Not a whole number of chunks either way, with a colour outside the standard palette
+        MapData map = new MapData(70, 130);
+        map.fill(MapData.GRASS);
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            map.set(random.nextInt(130), random.nextInt(70), (byte) random.nextInt(MapData.DUNGEON_FLOOR + 1));
+        }
+        byte custom = map.paletteIndex("#123456");
+        map.set(129, 69, custom);
+
+        MapData decoded = MapData.fromBytes(map.toBytes());
+
+        assertEquals(70, decoded.getRowCount());
+        assertEquals(130, decoded.getColCount());
+        assertCellsEqual(map, decoded);
+        assertEquals("#123456", decoded.paletteColour(decoded.get(129, 69) & 0xFF));
+        assertArrayEquals(map.toBytes(), decoded.toBytes());
+    }
+
+    @Test
+    void uniformMapRoundTripsThroughBytes() throws IOException {
+        MapData map = new MapData(MapData.CHUNK_SIZE * 2, MapData.CHUNK_SIZE);
+        map.fill(MapData.WATER);
+
+        MapData decoded = MapData.fromBytes(map.toBytes());
+
+        assertCellsEqual(map, decoded);
+        assertEquals(MapData.WATER, decoded.chunkFill(0, 1));
+    }
+
+    @Test
+    void legacyJsonIsRead() throws IOException {
+        byte[] json = "{\"rowCount\":1,\"colCount\":2,\"grid\":[\"#0000FF\",\"#ABCDEF\"]}".getBytes(StandardCharsets.UTF_8);
+
+        MapData map = MapData.fromBytes(json);
+
+        assertEquals(MapData.WATER, map.get(0, 0));
+        assertEquals("#ABCDEF", map.paletteColour(map.get(1, 0) & 0xFF));
+    }
+
+    @Test
+    void invalidColourIsRefused() {
+        byte[] json = "{\"rowCount\":1,\"colCount\":1,\"grid\":[\"red\"]}".getBytes(StandardCharsets.UTF_8);
+
+        assertThrows(IOException.class, () -> MapData.fromBytes(json));
+    }
+
+    @Test
+    void truncatedMapIsRefused() {
+        MapData map = new MapData(MapData.CHUNK_SIZE, MapData.CHUNK_SIZE);
+        map.set(0, 0, MapData.STONE);
+        byte[] data = map.toBytes();
+
+        assertThrows(IOException.class, () -> MapData.fromBytes(Arrays.copyOf(data, 12)));
+        assertThrows(IOException.class, () -> MapData.fromBytes(Arrays.copyOf(data, data.length - 1)));
+    }
+
+    @Test
+    void unknownVersionIsRefused() {
+        byte[] data = {'D', 'M', 'A', 'P', 9, 0, 0, 0, 0};
+
+        assertThrows(IOException.class, () -> MapData.fromBytes(data));
+    }
+
+    @Test
+    void oversizedMapIsRefused() {
+        byte[] data = new MapData(1, MapData.MAX_SIZE + 1).toBytes();
+
+        assertThrows(IOException.class, () -> MapData.fromBytes(data));
+    }
+
+    @Test
+    void corruptChunkFailsWhenRead() throws IOException {
+        MapData map = new MapData(MapData.CHUNK_SIZE, MapData.CHUNK_SIZE);
+        map.fill(MapData.GRASS);
+        map.set(0, 0, MapData.STONE);
+        byte[] data = map.toBytes();
+        // The first run of the only chunk payload names a palette entry that doesn't exist
+        int headerLength = ByteBuffer.wrap(data).getInt(5);
+        data[headerLength] = 0x7F;
+
+        MapData decoded = MapData.fromBytes(data);
+
+        assertThrows(UncheckedIOException.class, () -> decoded.get(1, 1));
+    }
+
+    @Test
+    void migrationDoesNotReplaceAnExistingMap(@TempDir Path directory) throws IOException {
+        MapData existing = new MapData(1, 1);
+        existing.fill(MapData.STONE);
+        File existingFile = directory.resolve("keep" + MapData.FILE_EXTENSION).toFile();
+        existing.save(existingFile);
+        File json = directory.resolve("keep" + MapData.LEGACY_EXTENSION).toFile();
+        Files.writeString(json.toPath(), "{\"rowCount\":1,\"colCount\":1,\"grid\":[\"#0000FF\"]}");
+
+        File migrated = MapData.migrate(json);
+
+        assertEquals("keep (2)" + MapData.FILE_EXTENSION, migrated.getName());
+        assertFalse(json.exists());
+        assertEquals(MapData.STONE, MapData.load(existingFile).get(0, 0));
+        assertEquals(MapData.WATER, MapData.load(migrated).get(0, 0));
+    }
+
+    private static void assertCellsEqual(MapData expected, MapData actual) {
+        for (int r = 0; r < expected.getRowCount(); r++) {
+            for (int q = 0; q < expected.getColCount(); q++) {
+                assertEquals(expected.get(q, r), actual.get(q, r), "cell " + q + "," + r);
+            }
+        }
+    }
+}
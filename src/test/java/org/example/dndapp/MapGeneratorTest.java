@@ -0,0 +1,50 @@
+package org.example.dndapp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Every map type depends on its seed alone, however its passes are scheduled and wherever it runs.
+ */
+class MapGeneratorTest {
+
+    private static final int COLS = 150;
+    private static final int ROWS = 130;
+
+    @Test
+    void sameSeedGivesTheSameMap() {
+        for (String type : MapGenerator.TYPES) {
+            byte[] first = generate(type, 42);
+            byte[] second = generate(type, 42);
+
+            assertArrayEquals(first, second, type);
+        }
+    }
+
+    @Test
+    void otherSeedGivesAnotherMap() {
+        for (String type : MapGenerator.TYPES) {
+            if (type.equals("City")) {
+                continue; // Always the same castle
+            }
+            assertFalse(Arrays.equals(generate(type, 1), generate(type, 2)), type);
+        }
+    }
+
+    @Test
+    void realisticOverworldIsTheSameOnEveryMachine() {
+        // Recorded once; the noise uses StrictMath, so any JVM on any hardware gives this map
+        String recorded = "5464694f6044dce69aaee789023e0649629a346c01b2be67a1a4bd5245ca331b";
+
+        assertEquals(recorded, GameProtocol.contentHash(generate("Realistic Overworld", 42)));
+    }
+
+    private static byte[] generate(String type, long seed) {
+        return new MapGenerator(seed, COLS, ROWS).generate(type, done -> { }).toBytes();
+    }
+}
@@ -0,0 +1,76 @@
+package org.example.dndapp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Deltas and snapshots, including rooms with more tokens than fit in one message.
+ */
+class TokenStateTest {
+
+    @Test
+    void advanceReportsOnlyChangedTokens() {
+        TokenState tokens = new TokenState();
+        tokens.queueMove(TokenState.tokenKey(1, 0), 3, 4);
+        tokens.queueMove(TokenState.tokenKey(2, 0), 5, 6);
+        assertEquals(1, tokens.advance(7).size());
+
+        tokens.queueMove(TokenState.tokenKey(1, 0), 3, 4);
+        assertTrue(tokens.advance(7).isEmpty());
+
+        tokens.removeOwner(2);
+        List<GameProtocol.Message> delta = tokens.advance(7);
+        assertEquals(1, delta.size());
+        assertEquals(GameProtocol.TOKENS, delta.get(0).opcode());
+        assertEquals("2.0", delta.get(0).field(1));
+    }
+
+    @Test
+    void emptySnapshotIsStillSent() {
+        List<GameProtocol.Message> snapshot = new TokenState().snapshot(1);
+
+        assertEquals(1, snapshot.size());
+        assertEquals(GameProtocol.TOKEN_SNAPSHOT, snapshot.get(0).opcode());
+        assertEquals("", snapshot.get(0).field(1));
+    }
+
+    @Test
+    void largeSnapshotIsSplitUnderTheFieldLimit() {
+        TokenState tokens = new TokenState();
+        int count = 0;
+        for (int session = 1; session <= 400; session++) {
+            for (int slot = 0; slot < TokenState.MAX_SLOTS; slot++) {
+                tokens.queueMove(TokenState.tokenKey(session, slot), 4999, 4999);
+                count++;
+            }
+        }
+        List<GameProtocol.Message> delta = tokens.advance(1);
+        List<GameProtocol.Message> snapshot = tokens.snapshot(1);
+
+        assertTrue(snapshot.size() > 1);
+        assertEquals(GameProtocol.TOKEN_SNAPSHOT, snapshot.get(0).opcode());
+        assertEquals(count, countEntries(snapshot));
+        assertEquals(count, countEntries(delta));
+        for (int i = 1; i < snapshot.size(); i++) {
+            assertEquals(GameProtocol.TOKENS, snapshot.get(i).opcode());
+            assertEquals(snapshot.get(0).field(0), snapshot.get(i).field(0));
+        }
+    }
+
+    private static int countEntries(List<GameProtocol.Message> messages) {
+        Set<String> tokens = new HashSet<>();
+        for (GameProtocol.Message message : messages) {
+            assertTrue(message.bytes(1).length <= GameProtocol.MAX_FIELD_LENGTH);
+            for (String entry : message.field(1).split(";")) {
+                tokens.add(entry.split(",")[0]);
+            }
+        }
+        return tokens.size();
+    }
+}